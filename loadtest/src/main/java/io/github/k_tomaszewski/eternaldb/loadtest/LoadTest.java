@@ -0,0 +1,271 @@
+package io.github.k_tomaszewski.eternaldb.loadtest;
+
+import io.github.k_tomaszewski.eternaldb.BasicFileNaming;
+import io.github.k_tomaszewski.eternaldb.Database;
+import io.github.k_tomaszewski.eternaldb.DatabaseMetrics;
+import io.github.k_tomaszewski.eternaldb.DatabaseProperties;
+import io.github.k_tomaszewski.eternaldb.LatencyHistogram;
+import io.github.k_tomaszewski.util.DiskUsageUtil;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * Load test harness: writer and reader threads run against a database with a small disk usage limit for a given time, so disk space
+ * reclaiming, rollover of time buckets and `du` checks happen all the time. Every report interval it prints throughput, latency
+ * percentiles of the interval, disk usage (tracked by the database and measured with `du`) and disk space reclaiming runs.
+ * A summary tells whether disk usage ever exceeded the limit, and then the exit code is 2.
+ * Usage: `mvn -f loadtest/pom.xml compile exec:java -Dexec.args="--minutes=10 --writers=8 --dir=/dev/shm/etdb"`.
+ * See {@link LoadTestOptions} for all options.
+ */
+public class LoadTest {
+
+    private static final long NANOS_IN_MICRO = 1000L;
+    private static final long NANOS_IN_MILLI = 1_000_000L;
+    private static final int EXIT_LIMIT_EXCEEDED = 2;
+    private static final String HEADER = "time_s,writes_per_s,write_p50_us,write_p99_us,write_p999_us,write_max_us,write_errors,"
+            + "reads_per_s,read_p50_ms,read_p99_ms,read_max_ms,read_errors,usage_mb,du_mb,limit_mb,reclaims,reclaim_mean_ms,"
+            + "reclaim_max_ms,du_checks";
+
+    /**
+     * A record written by the test. The payload is random text.
+     */
+    public record Sample(int writer, long sequence, String payload) {
+    }
+
+    private final LoadTestOptions options;
+    private final Path dataDir;
+    private final AtomicReference<LatencyHistogram> intervalWrites = new AtomicReference<>(new LatencyHistogram());
+    private final AtomicReference<LatencyHistogram> intervalReads = new AtomicReference<>(new LatencyHistogram());
+    private final LatencyHistogram totalWrites = new LatencyHistogram();
+    private final LatencyHistogram totalReads = new LatencyHistogram();
+    private final LongAdder recordsRead = new LongAdder();
+    private final LongAdder readErrors = new LongAdder();
+    private final LongAdder writeErrors = new LongAdder();
+    private final AtomicReference<RuntimeException> firstWriteError = new AtomicReference<>();
+    private volatile boolean running = true;
+    // values of the previous report, to compute deltas of cumulative metrics
+    private long lastReclaimCount;
+    private long lastReclaimMicros;
+    private long lastDiskUsageChecks;
+    private long lastWriteErrors;
+    private long lastReadErrors;
+    private double maxUsageMB;
+    private double maxMeasuredMB;
+
+    LoadTest(LoadTestOptions options, Path dataDir) {
+        this.options = options;
+        this.dataDir = dataDir;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final LoadTestOptions options;
+        try {
+            options = LoadTestOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
+        final Path dataDir = (options.dataDir() != null)
+                ? Files.createDirectories(options.dataDir())
+                : Files.createTempDirectory("etdb-loadtest");
+        final boolean limitExceeded;
+        try {
+            limitExceeded = new LoadTest(options, dataDir).run();
+        } finally {
+            if (!options.keepData()) {
+                deleteRecursively(dataDir);
+            }
+        }
+        System.exit(limitExceeded ? EXIT_LIMIT_EXCEEDED : 0);
+    }
+
+    /**
+     * Runs the test. Returns true if disk usage exceeded the limit.
+     */
+    boolean run() throws IOException, InterruptedException {
+        System.out.printf("Load test: %s%nData directory: %s%n", options, dataDir);
+        final var config = new DatabaseProperties<Sample>(dataDir, options.diskUsageLimitMB())
+                .setFileNaming(new BasicFileNaming(options.fileNaming()))
+                .setStripeCount(options.stripeCount())
+                .setDurability(options.durability())
+                .setJmxEnabled(false);
+        final long startNanos = System.nanoTime();
+        final long endNanos = startNanos + options.duration().toNanos();
+        try (var csv = (options.csvFile() != null) ? new PrintWriter(Files.newBufferedWriter(options.csvFile())) : null;
+                var db = new Database<>(config)) {
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < options.writers(); ++i) {
+                final int writer = i;
+                threads.add(Thread.ofPlatform().name("writer-" + i).start(() -> write(db, writer)));
+            }
+            for (int i = 0; i < options.readers(); ++i) {
+                threads.add(Thread.ofPlatform().name("reader-" + i).start(() -> read(db)));
+            }
+            System.out.println(HEADER);
+            if (csv != null) {
+                csv.println(HEADER);
+            }
+            long lastReportNanos = startNanos;
+            while (System.nanoTime() < endNanos) {
+                long sleepNanos = Math.min(options.reportInterval().toNanos(), endNanos - System.nanoTime());
+                TimeUnit.NANOSECONDS.sleep(Math.max(0L, sleepNanos));
+                long nowNanos = System.nanoTime();
+                String line = report(db, nowNanos - startNanos, nowNanos - lastReportNanos);
+                lastReportNanos = nowNanos;
+                System.out.println(line);
+                if (csv != null) {
+                    csv.println(line);
+                    csv.flush();
+                }
+            }
+            running = false;
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            return summarize(db, System.nanoTime() - startNanos);
+        }
+    }
+
+    private void write(Database<Sample> db, int writer) {
+        final Random random = new Random(options.seed() + writer);
+        final long intervalNanos = (options.writeRate() > 0) ? TimeUnit.SECONDS.toNanos(1) / options.writeRate() : 0L;
+        long nextNanos = System.nanoTime();
+        for (long sequence = 0; running; ++sequence) {
+            if (intervalNanos > 0L) {
+                nextNanos += intervalNanos;
+                LockSupport.parkNanos(nextNanos - System.nanoTime());
+            }
+            Sample sample = new Sample(writer, sequence, payload(random));
+            long startNanos = System.nanoTime();
+            try {
+                db.write(sample, System.currentTimeMillis());
+            } catch (RuntimeException e) {
+                if (firstWriteError.compareAndSet(null, e)) {
+                    // only the first one, as a failing database fails all writes; others are counted in reports
+                    e.printStackTrace();
+                }
+                writeErrors.increment();
+                continue;
+            }
+            long nanos = System.nanoTime() - startNanos;
+            intervalWrites.get().record(nanos);
+            totalWrites.record(nanos);
+        }
+    }
+
+    private void read(Database<Sample> db) {
+        while (running) {
+            long nowMillis = System.currentTimeMillis();
+            long startNanos = System.nanoTime();
+            try (Stream<Sample> records = db.readRecords(Sample.class, nowMillis - options.readWindow().toMillis(), nowMillis)) {
+                recordsRead.add(records.count());
+            } catch (RuntimeException e) {
+                readErrors.increment();     // e.g. a file deleted by disk space reclaiming while it was read
+                continue;
+            }
+            long nanos = System.nanoTime() - startNanos;
+            intervalReads.get().record(nanos);
+            totalReads.record(nanos);
+        }
+    }
+
+    private String payload(Random random) {
+        final int length = options.recordBytes() / 2 + random.nextInt(options.recordBytes() + 1);
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; ++i) {
+            chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(chars);
+    }
+
+    private String report(Database<Sample> db, long elapsedNanos, long intervalNanos) {
+        final LatencyHistogram writes = intervalWrites.getAndSet(new LatencyHistogram());
+        final LatencyHistogram reads = intervalReads.getAndSet(new LatencyHistogram());
+        final DatabaseMetrics metrics = db.getMetrics();
+        final double usageMB = db.getActualDiskUsageMB();
+        final double measuredMB = DiskUsageUtil.getDiskUsageMB(dataDir.toString());
+        maxUsageMB = Math.max(maxUsageMB, usageMB);
+        maxMeasuredMB = Math.max(maxMeasuredMB, measuredMB);
+
+        final LatencyHistogram reclaims = metrics.getReclaimLatency();
+        final long reclaimCount = reclaims.getCount() - lastReclaimCount;
+        final long reclaimMicros = metrics.getReclaimTotalMicros() - lastReclaimMicros;
+        final long diskUsageChecks = metrics.getDiskUsageCheckCount() - lastDiskUsageChecks;
+        final long newWriteErrors = writeErrors.sum() - lastWriteErrors;
+        final long newReadErrors = readErrors.sum() - lastReadErrors;
+        lastReclaimCount = reclaims.getCount();
+        lastReclaimMicros = metrics.getReclaimTotalMicros();
+        lastDiskUsageChecks = metrics.getDiskUsageCheckCount();
+        lastWriteErrors += newWriteErrors;
+        lastReadErrors += newReadErrors;
+
+        final double seconds = intervalNanos / 1e9;
+        return "%.1f,%.0f,%d,%d,%d,%d,%d,%.1f,%.1f,%.1f,%.1f,%d,%.1f,%.1f,%d,%d,%.1f,%.1f,%d".formatted(
+                elapsedNanos / 1e9,
+                writes.getCount() / seconds,
+                writes.getValueAtPercentile(50.0) / NANOS_IN_MICRO,
+                writes.getValueAtPercentile(99.0) / NANOS_IN_MICRO,
+                writes.getValueAtPercentile(99.9) / NANOS_IN_MICRO,
+                writes.getMaxNanos() / NANOS_IN_MICRO,
+                newWriteErrors,
+                reads.getCount() / seconds,
+                reads.getValueAtPercentile(50.0) / (double) NANOS_IN_MILLI,
+                reads.getValueAtPercentile(99.0) / (double) NANOS_IN_MILLI,
+                reads.getMaxNanos() / (double) NANOS_IN_MILLI,
+                newReadErrors,
+                usageMB,
+                measuredMB,
+                options.diskUsageLimitMB(),
+                reclaimCount,
+                (reclaimCount > 0) ? reclaimMicros / 1000.0 / reclaimCount : 0.0,
+                reclaims.getMaxNanos() / (double) NANOS_IN_MILLI,
+                diskUsageChecks);
+    }
+
+    private boolean summarize(Database<Sample> db, long elapsedNanos) {
+        final DatabaseMetrics metrics = db.getMetrics();
+        final double seconds = elapsedNanos / 1e9;
+        final boolean limitExceeded = maxUsageMB > options.diskUsageLimitMB() || maxMeasuredMB > options.diskUsageLimitMB();
+        System.out.printf("""
+                        Summary after %.1f s:
+                          writes: %d (%.0f/s), errors: %d, latency p50/p99/p99.9/max: %d/%d/%d/%d us
+                          reads: %d (%.1f/s) of %d records, errors: %d, latency p50/p99/max: %.1f/%.1f/%.1f ms
+                          disk space reclaiming: %d runs, %.1f MB freed, mean/max: %.1f/%.1f ms
+                          du checks: %d, p99: %d us
+                          max disk usage: %.1f MB tracked, %.1f MB measured, limit: %d MB - %s%n""",
+                seconds,
+                totalWrites.getCount(), totalWrites.getCount() / seconds, writeErrors.sum(),
+                totalWrites.getValueAtPercentile(50.0) / NANOS_IN_MICRO, totalWrites.getValueAtPercentile(99.0) / NANOS_IN_MICRO,
+                totalWrites.getValueAtPercentile(99.9) / NANOS_IN_MICRO, totalWrites.getMaxNanos() / NANOS_IN_MICRO,
+                totalReads.getCount(), totalReads.getCount() / seconds, recordsRead.sum(), readErrors.sum(),
+                totalReads.getValueAtPercentile(50.0) / (double) NANOS_IN_MILLI,
+                totalReads.getValueAtPercentile(99.0) / (double) NANOS_IN_MILLI, totalReads.getMaxNanos() / (double) NANOS_IN_MILLI,
+                metrics.getReclaimCount(), metrics.getReclaimedMB(),
+                metrics.getReclaimLatency().getMeanNanos() / NANOS_IN_MILLI,
+                metrics.getReclaimLatency().getMaxNanos() / (double) NANOS_IN_MILLI,
+                metrics.getDiskUsageCheckCount(), metrics.getDiskUsageCheckP99Micros(),
+                maxUsageMB, maxMeasuredMB, options.diskUsageLimitMB(), limitExceeded ? "EXCEEDED" : "never exceeded");
+        return limitExceeded;
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
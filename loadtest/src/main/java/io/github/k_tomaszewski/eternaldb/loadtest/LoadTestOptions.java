@@ -0,0 +1,76 @@
+package io.github.k_tomaszewski.eternaldb.loadtest;
+
+import io.github.k_tomaszewski.eternaldb.BasicFileNaming;
+import io.github.k_tomaszewski.eternaldb.Durability;
+import org.apache.commons.lang3.Validate;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Options of a load test, given as `--name=value` arguments. All options have defaults, so a run with no arguments writes and reads
+ * for 5 minutes in a temporary directory.
+ * @param dataDir Data directory. A tmpfs directory, like `/dev/shm/etdb`, takes a disk out of the picture. Null for a temporary one.
+ * @param keepData Whether data files are kept after the test.
+ * @param duration Duration of the test.
+ * @param writers Number of writer threads.
+ * @param readers Number of reader threads.
+ * @param diskUsageLimitMB Disk usage limit of the database, in megabytes.
+ * @param recordBytes Average size of a record payload. Sizes are random between half and one and a half of it.
+ * @param writeRate Records written per second by each writer, or 0 for no limit.
+ * @param readWindow Time range of each read, ending at the current time.
+ * @param reportInterval Interval of report lines.
+ * @param fileNaming Mode of file naming. Minute files show rollover of time buckets many times within a short test.
+ * @param stripeCount Number of files written in parallel per time bucket.
+ * @param durability Durability mode of writes.
+ * @param seed Seed of random payloads, so runs with the same options write the same records.
+ * @param csvFile Optional file for report lines in CSV format, or null.
+ */
+record LoadTestOptions(Path dataDir, boolean keepData, Duration duration, int writers, int readers, long diskUsageLimitMB,
+                       int recordBytes, int writeRate, Duration readWindow, Duration reportInterval, BasicFileNaming.Mode fileNaming,
+                       int stripeCount, Durability durability, long seed, Path csvFile) {
+
+    private static final Set<String> NAMES = Set.of("dir", "keep", "minutes", "writers", "readers", "disk-limit-mb", "record-bytes",
+            "write-rate", "read-window-seconds", "report-seconds", "naming", "stripes", "durability", "seed", "csv");
+
+    LoadTestOptions {
+        Validate.isTrue(!duration.isNegative() && !duration.isZero(), "Duration must be positive");
+        Validate.isTrue(writers > 0, "Number of writers must be positive");
+        Validate.isTrue(readers >= 0, "Number of readers must be not negative");
+        Validate.isTrue(diskUsageLimitMB > 0L, "Disk usage limit must be positive");
+        Validate.isTrue(recordBytes > 0, "Record size must be positive");
+        Validate.isTrue(writeRate >= 0, "Write rate must be not negative");
+        Validate.isTrue(reportInterval.toMillis() >= 100L, "Report interval must be at least 100 ms");
+        Validate.isTrue(stripeCount > 0, "Stripe count must be positive");
+    }
+
+    static LoadTestOptions parse(String[] args) {
+        final Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            Validate.isTrue(arg.startsWith("--"), "Unexpected argument: %s", arg);
+            int eqPos = arg.indexOf('=');
+            String name = (eqPos > 0) ? arg.substring(2, eqPos) : arg.substring(2);
+            Validate.isTrue(NAMES.contains(name), "Unknown option: %s. Known options: %s", name, NAMES);
+            values.put(name, (eqPos > 0) ? arg.substring(eqPos + 1) : "true");
+        }
+        return new LoadTestOptions(
+                values.containsKey("dir") ? Path.of(values.get("dir")) : null,
+                Boolean.parseBoolean(values.getOrDefault("keep", "false")),
+                Duration.ofMillis((long) (Double.parseDouble(values.getOrDefault("minutes", "5")) * 60_000)),
+                Integer.parseInt(values.getOrDefault("writers", "4")),
+                Integer.parseInt(values.getOrDefault("readers", "2")),
+                Long.parseLong(values.getOrDefault("disk-limit-mb", "64")),
+                Integer.parseInt(values.getOrDefault("record-bytes", "200")),
+                Integer.parseInt(values.getOrDefault("write-rate", "0")),
+                Duration.ofSeconds(Long.parseLong(values.getOrDefault("read-window-seconds", "60"))),
+                Duration.ofMillis((long) (Double.parseDouble(values.getOrDefault("report-seconds", "5")) * 1000)),
+                BasicFileNaming.Mode.valueOf(values.getOrDefault("naming", "MINUTE")),
+                Integer.parseInt(values.getOrDefault("stripes", "1")),
+                Durability.valueOf(values.getOrDefault("durability", "NONE")),
+                Long.parseLong(values.getOrDefault("seed", "42")),
+                values.containsKey("csv") ? Path.of(values.get("csv")) : null);
+    }
+}
@@ -0,0 +1,20 @@
+package io.github.k_tomaszewski.eternaldb;
+
+/**
+ * How records are appended to data files. A size of a write buffer is given by
+ * {@link DatabaseProperties#setWriteBufferSize(int)}.
+ */
+public enum AppendEngine {
+
+    /**
+     * A {@link java.io.BufferedWriter} over a UTF-8 {@link java.io.OutputStreamWriter}. This is the default.
+     */
+    BUFFERED_WRITER,
+
+    /**
+     * Records are encoded as UTF-8 straight into a direct (off-heap) byte buffer, reused for the whole life of an open file, and
+     * written with {@link java.nio.channels.FileChannel#write(java.nio.ByteBuffer)}. Characters are encoded in bulk by a reused
+     * charset encoder, with no heap copy of chars or bytes, and big write buffers are kept off the heap.
+     */
+    DIRECT_BUFFER
+}
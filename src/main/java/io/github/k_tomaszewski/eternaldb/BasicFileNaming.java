@@ -5,6 +5,8 @@ import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.regex.Pattern;
 
 public class BasicFileNaming implements FileNamingStrategy {
 
@@ -13,6 +15,17 @@ public class BasicFileNaming implements FileNamingStrategy {
      */
     public enum Mode {
 
+        /**
+         * A single database file is created for records within each minute.
+         * This mode keeps files small for databases collecting data with very high speed.
+         */
+        MINUTE("yyyy-MM-dd_HHmm", Duration.ofMinutes(1)),
+
+        /**
+         * A single database file is created for records within each 10 minutes, like `2024-03-15_1210.data`.
+         */
+        TEN_MINUTES("yyyy-MM-dd_HHmm", Duration.ofMinutes(10)),
+
         /**
          * A single database file is created for records within each hour.
          * This mode is better for databases collecting data with higher speed.
@@ -35,6 +48,8 @@ public class BasicFileNaming implements FileNamingStrategy {
     }
 
     static final String PATH_TEMPLATE = "%d/%02d/%s.data";
+    private static final long MINUTES_PER_HOUR = 60;
+    private static final Pattern HOUR_SUFFIX = Pattern.compile("_\\d{4}(?=\\.data$)");
 
     private final Mode mode;
 
@@ -49,6 +64,10 @@ public class BasicFileNaming implements FileNamingStrategy {
     @Override
     public String formatRelativePathStr(long recordMillis) {
         LocalDateTime dateTime = LocalDateTime.ofEpochSecond(recordMillis / 1000, 0, ZoneOffset.UTC);
+        final long intervalMinutes = mode.interval.toMinutes();
+        if (intervalMinutes < MINUTES_PER_HOUR) {
+            dateTime = dateTime.withMinute((int) (dateTime.getMinute() / intervalMinutes * intervalMinutes));
+        }
         return PATH_TEMPLATE.formatted(dateTime.getYear(), dateTime.getMonth().getValue(), dateTime.format(mode.formatter));
     }
 
@@ -56,4 +75,17 @@ public class BasicFileNaming implements FileNamingStrategy {
     public int maxDirectoryDepth() {
         return 3;                       // basically 1 + number of "/" chars in FILENAME_TEMPLATE
     }
+
+    /**
+     * In modes other than {@link Mode#DAILY} files of a day can be merged into a file named like in {@link Mode#DAILY}, which is sorted
+     * right before other files of the day.
+     */
+    @Override
+    public Optional<String> toMergedRelativePathStr(String bucketRelativePath) {
+        if (mode == Mode.DAILY) {
+            return Optional.empty();
+        }
+        var matcher = HOUR_SUFFIX.matcher(bucketRelativePath);
+        return matcher.find() ? Optional.of(matcher.replaceFirst("")) : Optional.empty();
+    }
 }
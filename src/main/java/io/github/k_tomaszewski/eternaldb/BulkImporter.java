@@ -0,0 +1,215 @@
+package io.github.k_tomaszewski.eternaldb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes large amounts of historical records, like a backfill, faster than {@link Database#write(Object, long)}. Records should come
+ * in timestamp order. Records of a time bucket are collected in chunks, and a chunk is encoded and appended to a data file of the
+ * bucket at once, without locking and without `du` checks per record. The file is a segment chosen as by the database, which rolls
+ * over to a next segment before a chunk would exceed the maximum file size. The file is sealed with a sorted marker after each
+ * chunk, and disk usage is accounted once per chunk.
+ * Records out of order are accepted, but a file that got them is left without a sorted marker, so readers or compaction sort it.
+ * A file is reserved only while a chunk is appended, so writers of the database that need it wait for one chunk at most.
+ * Records of a chunk whose file is open for writing by the database are written with {@link Database#write(Object, long)}.
+ * An importer is used by a single thread and it must be closed before the database.
+ */
+public final class BulkImporter<T> implements Closeable {
+
+    /**
+     * What to do when imported data would exceed the disk usage limit of the database.
+     */
+    public enum DiskUsageLimitPolicy {
+        /**
+         * Oldest data files are deleted, as in regular writing, so oldest imported records may be trimmed.
+         */
+        TRIM_OLDEST,
+        /**
+         * Import fails with {@link IllegalStateException} before writing a chunk of records that would not fit within the limit.
+         */
+        REFUSE
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(BulkImporter.class);
+    // records appended to a file at once
+    static final int CHUNK_RECORDS = 8192;
+    // chunks are appended past the write buffer, so it is small and on heap
+    private static final FileContext.Options FILE_OPTIONS = new FileContext.Options(AppendEngine.BUFFERED_WRITER, 64, true);
+
+    private final Database<T> database;
+    private final DiskUsageLimitPolicy limitPolicy;
+    private final List<T> chunkRecords = new ArrayList<>(CHUNK_RECORDS);
+    // timestamps of records of the chunk, in the order of writing
+    private final long[] chunkMillis = new long[CHUNK_RECORDS];
+    private final StringWriter chunkLines = new StringWriter();
+    // buffers reused by chunks, to encode lines to UTF-8
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private char[] chunkChars = new char[0];
+    private ByteBuffer chunkBytes = ByteBuffer.allocate(0);
+    // bucket of records of the chunk
+    private String currentBucket;
+    // range of timestamps known to belong to the current bucket, to skip formatting of a path for each record
+    private long currentMinMillis;
+    private long currentMaxMillis;
+    private long recordCount;
+    private int chunkCount;
+
+    BulkImporter(Database<T> database, DiskUsageLimitPolicy limitPolicy) {
+        this.database = database;
+        this.limitPolicy = limitPolicy;
+    }
+
+    public void write(T record, long recordMillis) {
+        try {
+            if (currentBucket == null || recordMillis < currentMinMillis || recordMillis > currentMaxMillis) {
+                String bucket = database.fileNaming.formatRelativePathStr(recordMillis);
+                if (!bucket.equals(currentBucket)) {
+                    writeChunk();
+                    currentBucket = bucket;
+                    currentMinMillis = recordMillis;
+                    currentMaxMillis = recordMillis;
+                } else {
+                    currentMinMillis = Math.min(currentMinMillis, recordMillis);
+                    currentMaxMillis = Math.max(currentMaxMillis, recordMillis);
+                }
+            }
+            chunkMillis[chunkRecords.size()] = recordMillis;
+            chunkRecords.add(record);
+            ++recordCount;
+            if (chunkRecords.size() == CHUNK_RECORDS) {
+                writeChunk();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Bulk import failed", e);
+        }
+    }
+
+    /**
+     * Returns number of imported records, without records of a refused chunk.
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Writes the last chunk of records.
+     */
+    @Override
+    public void close() {
+        try {
+            writeChunk();
+        } catch (IOException e) {
+            throw new RuntimeException("Bulk import failed", e);
+        }
+        LOG.info("Bulk import of {} records in {} chunks done.", recordCount, chunkCount);
+    }
+
+    /**
+     * Appends collected records to a file of the current bucket. With {@link DiskUsageLimitPolicy#REFUSE}, size of the encoded
+     * records is checked against free disk space first, and a refused chunk is dropped.
+     */
+    private void writeChunk() throws IOException {
+        if (chunkRecords.isEmpty()) {
+            return;
+        }
+        final StringBuffer lines = chunkLines.getBuffer();
+        lines.setLength(0);
+        for (int i = 0; i < chunkRecords.size(); ++i) {
+            chunkLines.append(Long.toString(chunkMillis[i], ReadOnlyDatabase.TIMESTAMP_RADIX)).append(ReadOnlyDatabase.SEPARATOR);
+            database.serialization.serialize(chunkRecords.get(i), chunkLines);
+            chunkLines.append(Database.NEW_LINE_CHAR);
+        }
+        final ByteBuffer bytes = encode(lines);
+        if (limitPolicy == DiskUsageLimitPolicy.REFUSE && bytes.remaining() / (1024.0 * 1024.0) >= database.getFreeDiskSpaceMB()) {
+            recordCount -= chunkRecords.size();
+            chunkRecords.clear();
+            throw new IllegalStateException("Bulk import refused before a file of bucket %s, as disk usage limit would be exceeded"
+                    .formatted(currentBucket));
+        }
+        String path;
+        do {
+            path = database.toWritePath(currentBucket);
+        } while (!appendChunk(path, bytes));
+        chunkRecords.clear();
+        ++chunkCount;
+    }
+
+    /**
+     * Appends encoded records of the chunk to a file, or writes them with the database when the file is open for writing. Returns
+     * false when the bucket rolled over to a next segment instead, as the file is full.
+     */
+    private boolean appendChunk(String path, ByteBuffer bytes) throws IOException {
+        if (!database.reserveFile(path)) {
+            LOG.debug("Data file {} is open for writing. A chunk of its records is imported with the database.", path);
+            for (int i = 0; i < chunkRecords.size(); ++i) {
+                database.write(chunkRecords.get(i), chunkMillis[i]);
+            }
+            return true;
+        }
+        final FileContext file;
+        try {
+            final Path filePath = database.dataDir.resolve(path);
+            final long fileSize = Files.exists(filePath) ? Files.size(filePath) : 0L;
+            if (database.rollOverBeforeAppend(path, fileSize, bytes.remaining())) {
+                return false;
+            }
+            file = new FileContext(filePath, n -> 1, database.metrics, FILE_OPTIONS);
+            file.lock();
+            try {
+                file.appendEncoded(bytes);
+                for (int i = 0; i < chunkRecords.size(); ++i) {
+                    file.trackOrder(chunkMillis[i]);
+                }
+                file.close();
+            } finally {
+                file.unlock();
+            }
+        } finally {
+            database.releaseFile(path);
+        }
+        database.onDiskUsageChange(file.calculateFileGrowthMB() + file.takeSortedMarkerGrowthMB());
+        return true;
+    }
+
+    /**
+     * Encodes lines to UTF-8 with buffers reused by chunks, which grow when needed.
+     */
+    private ByteBuffer encode(StringBuffer lines) throws CharacterCodingException {
+        final int length = lines.length();
+        if (chunkChars.length < length) {
+            chunkChars = new char[length];
+        }
+        lines.getChars(0, length, chunkChars, 0);
+        final CharBuffer chars = CharBuffer.wrap(chunkChars, 0, length);
+        if (chunkBytes.capacity() < length) {
+            chunkBytes = ByteBuffer.allocate(length);
+        }
+        chunkBytes.clear();
+        encoder.reset();
+        CoderResult result;
+        while ((result = encoder.encode(chars, chunkBytes, true)).isOverflow()) {
+            chunkBytes = ByteBuffer.allocate(2 * chunkBytes.capacity()).put(chunkBytes.flip());
+        }
+        if (result.isError()) {
+            result.throwException();
+        }
+        encoder.flush(chunkBytes);
+        return chunkBytes.flip();
+    }
+}
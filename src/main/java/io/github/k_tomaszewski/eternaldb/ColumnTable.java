@@ -0,0 +1,261 @@
+package io.github.k_tomaszewski.eternaldb;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static io.github.k_tomaszewski.eternaldb.ReadOnlyDatabase.SEPARATOR;
+
+/**
+ * Growable table of timestamps and values of top-level fields of records: numbers and strings encoded with a dictionary. It is
+ * a content of a columnar sidecar file (see {@link SidecarFiles#COLUMNS}) and a builder of {@link Columns}.
+ * A sidecar file holds the size of its data file, so it is not used after the data file was appended. Its layout, big-endian:
+ * magic number, version, data file size, row count, names of numeric and string columns, timestamps, numeric columns,
+ * the dictionary and codes of string columns (-1 for null).
+ */
+final class ColumnTable {
+
+    private static final ObjectMapper JSON_MAPPER = new JsonMapper();
+    private static final int MAGIC = 0x45544443;        // "ETDC"
+    private static final int VERSION = 1;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final List<String> numericFields;
+    private final List<String> stringFields;
+    private final double[][] numbers;
+    private final int[][] stringCodes;
+    private final List<String> dictionary;
+    private final Map<String, Integer> dictionaryCodes = new HashMap<>();
+    private long[] timestamps;
+    private int rowCount;
+
+    ColumnTable(List<String> numericFields, List<String> stringFields) {
+        this(numericFields, stringFields, INITIAL_CAPACITY, new ArrayList<>());
+    }
+
+    private ColumnTable(List<String> numericFields, List<String> stringFields, int capacity, List<String> dictionary) {
+        this.numericFields = List.copyOf(numericFields);
+        this.stringFields = List.copyOf(stringFields);
+        this.timestamps = new long[capacity];
+        this.numbers = new double[numericFields.size()][capacity];
+        this.stringCodes = new int[stringFields.size()][capacity];
+        this.dictionary = dictionary;
+    }
+
+    int size() {
+        return rowCount;
+    }
+
+    /**
+     * Adds a row of a data line. Returns false, without adding anything, if the line has no valid timestamp or JSON object.
+     */
+    boolean addLine(String line) {
+        final JsonNode record;
+        final long millis;
+        try {
+            millis = DataLine.timestamp(line);
+            record = JSON_MAPPER.readTree(line.substring(line.indexOf(SEPARATOR) + 1));
+        } catch (JsonProcessingException | RuntimeException e) {
+            return false;
+        }
+        if (record == null || !record.isObject()) {
+            return false;
+        }
+        final int row = addRow(millis);
+        for (int i = 0; i < numericFields.size(); ++i) {
+            JsonNode value = record.get(numericFields.get(i));
+            numbers[i][row] = (value != null && value.isNumber()) ? value.doubleValue() : Double.NaN;
+        }
+        for (int i = 0; i < stringFields.size(); ++i) {
+            JsonNode value = record.get(stringFields.get(i));
+            stringCodes[i][row] = (value == null || value.isNull())
+                    ? -1
+                    : toCode(value.isTextual() ? value.textValue() : value.toString());
+        }
+        return true;
+    }
+
+    /**
+     * Adds rows of a table with the same columns, which timestamps are within a range.
+     */
+    void addRows(ColumnTable source, Long minMillis, Long maxMillis) {
+        final int[] codeMapping = new int[source.dictionary.size()];
+        Arrays.fill(codeMapping, Integer.MIN_VALUE);
+        for (int sourceRow = 0; sourceRow < source.rowCount; ++sourceRow) {
+            long millis = source.timestamps[sourceRow];
+            if ((minMillis != null && millis < minMillis) || (maxMillis != null && millis > maxMillis)) {
+                continue;
+            }
+            int row = addRow(millis);
+            for (int i = 0; i < numbers.length; ++i) {
+                numbers[i][row] = source.numbers[i][sourceRow];
+            }
+            for (int i = 0; i < stringCodes.length; ++i) {
+                int sourceCode = source.stringCodes[i][sourceRow];
+                if (sourceCode >= 0 && codeMapping[sourceCode] == Integer.MIN_VALUE) {
+                    codeMapping[sourceCode] = toCode(source.dictionary.get(sourceCode));
+                }
+                stringCodes[i][row] = (sourceCode >= 0) ? codeMapping[sourceCode] : -1;
+            }
+        }
+    }
+
+    Columns toColumns() {
+        final Map<String, double[]> numberColumns = new LinkedHashMap<>();
+        for (int i = 0; i < numericFields.size(); ++i) {
+            numberColumns.put(numericFields.get(i), Arrays.copyOf(numbers[i], rowCount));
+        }
+        final Map<String, String[]> stringColumns = new LinkedHashMap<>();
+        for (int i = 0; i < stringFields.size(); ++i) {
+            String[] values = new String[rowCount];
+            for (int row = 0; row < rowCount; ++row) {
+                int code = stringCodes[i][row];
+                values[row] = (code >= 0) ? dictionary.get(code) : null;
+            }
+            stringColumns.put(stringFields.get(i), values);
+        }
+        return new Columns(Arrays.copyOf(timestamps, rowCount), numberColumns, stringColumns);
+    }
+
+    void write(Path path, long dataFileSize) throws IOException {
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(dataFileSize);
+            out.writeInt(rowCount);
+            writeStrings(numericFields, out);
+            writeStrings(stringFields, out);
+            for (int row = 0; row < rowCount; ++row) {
+                out.writeLong(timestamps[row]);
+            }
+            for (double[] column : numbers) {
+                for (int row = 0; row < rowCount; ++row) {
+                    out.writeDouble(column[row]);
+                }
+            }
+            writeStrings(dictionary, out);
+            for (int[] column : stringCodes) {
+                for (int row = 0; row < rowCount; ++row) {
+                    out.writeInt(column[row]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads given columns of a sidecar file. Returns null when the file was made for another size of the data file, or lacks
+     * any of the columns. A table read from a file is not appended.
+     */
+    static ColumnTable read(Path path, long dataFileSize, List<String> numericFields, List<String> stringFields) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong() != dataFileSize) {
+                return null;
+            }
+            final int rowCount = buffer.getInt();
+            final List<String> fileNumericFields = readStrings(buffer);
+            final List<String> fileStringFields = readStrings(buffer);
+            if (!fileNumericFields.containsAll(numericFields) || !fileStringFields.containsAll(stringFields)) {
+                return null;
+            }
+            final int timestampsPosition = buffer.position();
+            final int numbersPosition = timestampsPosition + rowCount * Long.BYTES;
+            buffer.position(numbersPosition + fileNumericFields.size() * rowCount * Double.BYTES);
+            final List<String> dictionary = readStrings(buffer);
+            final int codesPosition = buffer.position();
+
+            ColumnTable table = new ColumnTable(numericFields, stringFields, rowCount, dictionary);
+            table.rowCount = rowCount;
+            buffer.position(timestampsPosition).asLongBuffer().get(table.timestamps, 0, rowCount);
+            for (int i = 0; i < numericFields.size(); ++i) {
+                int column = fileNumericFields.indexOf(numericFields.get(i));
+                buffer.position(numbersPosition + column * rowCount * Double.BYTES).asDoubleBuffer().get(table.numbers[i], 0, rowCount);
+            }
+            for (int i = 0; i < stringFields.size(); ++i) {
+                int column = fileStringFields.indexOf(stringFields.get(i));
+                buffer.position(codesPosition + column * rowCount * Integer.BYTES).asIntBuffer().get(table.stringCodes[i], 0, rowCount);
+            }
+            return table;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Invalid columnar file %s".formatted(path), e);
+        }
+    }
+
+    /**
+     * Tells, by the header of a sidecar file, if it was made for a size of the data file and has all given columns.
+     */
+    static boolean matches(Path path, long dataFileSize, List<String> numericFields, List<String> stringFields) throws IOException {
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != dataFileSize) {
+                return false;
+            }
+            in.readInt();       // row count
+            return readStrings(in).containsAll(numericFields) && readStrings(in).containsAll(stringFields);
+        }
+    }
+
+    private int addRow(long millis) {
+        if (rowCount == timestamps.length) {
+            int capacity = Math.max(INITIAL_CAPACITY, rowCount * 2);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            Arrays.setAll(numbers, i -> Arrays.copyOf(numbers[i], capacity));
+            Arrays.setAll(stringCodes, i -> Arrays.copyOf(stringCodes[i], capacity));
+        }
+        timestamps[rowCount] = millis;
+        return rowCount++;
+    }
+
+    private int toCode(String value) {
+        return dictionaryCodes.computeIfAbsent(value, k -> {
+            dictionary.add(k);
+            return dictionary.size() - 1;
+        });
+    }
+
+    private static void writeStrings(List<String> values, DataOutputStream out) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        final int count = in.readInt();
+        final List<String> values = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            values.add(new String(in.readNBytes(in.readInt()), StandardCharsets.UTF_8));
+        }
+        return values;
+    }
+
+    private static List<String> readStrings(ByteBuffer buffer) {
+        final int count = buffer.getInt();
+        final List<String> values = new ArrayList<>(Math.min(count, buffer.remaining() / Integer.BYTES));
+        for (int i = 0; i < count; ++i) {
+            int length = buffer.getInt();
+            values.add(new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8));
+            buffer.position(buffer.position() + length);
+        }
+        return values;
+    }
+}
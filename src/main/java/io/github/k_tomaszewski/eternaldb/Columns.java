@@ -0,0 +1,17 @@
+package io.github.k_tomaszewski.eternaldb;
+
+import java.util.Map;
+
+/**
+ * Values of record fields in columns, read with {@link ReadOnlyDatabase#readColumns(Long, Long, String...)}. Value `i` of each column
+ * belongs to the record with timestamp `timestamps[i]`.
+ * @param timestamps Timestamps of records, in time order.
+ * @param numbers Columns of numeric fields by field names. A missing or non-numeric value is NaN.
+ * @param strings Columns of string fields by field names. A missing value is null. Equal values are the same String objects.
+ */
+public record Columns(long[] timestamps, Map<String, double[]> numbers, Map<String, String[]> strings) {
+
+    public int size() {
+        return timestamps.length;
+    }
+}
@@ -0,0 +1,420 @@
+package io.github.k_tomaszewski.eternaldb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import static io.github.k_tomaszewski.util.FileUtils.IS_FILE_PREDICATE;
+
+/**
+ * Background compaction of sealed data files, which are files of past time buckets not open for writing:
+ * - segment files of a bucket (see {@link SegmentNaming}) are merged into a single file, unless they are bigger than a maximum file
+ *   size (see {@link DatabaseProperties#setMaxFileSizeMB(long)}),
+ * - a file without a sorted marker is rewritten in timestamp order,
+ * - files of adjacent buckets are merged into one file, when {@link FileNamingStrategy#toMergedRelativePathStr(String)} allows it,
+ *   the merged period is over and the files are not bigger than a limit and the maximum file size. Files of buckets written after
+ *   the merge, by records arriving late, are merged into the existing merged file.
+ * A new file is written as a sidecar first and moved into place atomically, so readers see either old or new files. Other replaced
+ * files are renamed to retired sidecars, which readers that listed them before still read (see {@link SidecarFiles#RETIRED}).
+ * A replacement interrupted by a crash is finished when a database is opened again (see {@link FileReplacement}).
+ * Retired files are deleted after a grace period.
+ * Then, sealed files get sidecars when configured: columns of sorted files of buckets with a single file
+ * (see {@link SidecarFiles#COLUMNS}) and filters of keys of records (see {@link SidecarFiles#KEY_FILTER}).
+ * Files are reserved for compaction, so a writer that wants to open a file being compacted waits until compaction of it is done.
+ */
+class Compactor implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Compactor.class);
+    static final Duration RETIRED_FILE_GRACE_PERIOD = Duration.ofMinutes(10);
+    private static final int LINES_PER_INTERRUPT_CHECK = 4096;
+
+    private final Path dataDir;
+    private final FileNamingStrategy fileNaming;
+    private final long mergeLimitBytes;
+    private final long maxFileBytes;
+    private final List<String> numericColumns;
+    private final List<String> stringColumns;
+    private final String keyField;
+    private final Predicate<String> reserveFile;
+    private final Consumer<String> releaseFile;
+    private final DoubleConsumer diskUsageChange;
+    private final DatabaseMetrics metrics;
+    private final ReentrantLock runLock = new ReentrantLock();
+
+    /**
+     * @param maxFileBytes Maximum size of a file made by merging, or 0 for no limit.
+     * @param numericColumns Numeric fields of records for columnar sidecars.
+     * @param stringColumns String fields of records for columnar sidecars. There are no sidecars when both lists are empty.
+     * @param keyField Field of records for key filter sidecars, or null for no sidecars.
+     * @param reserveFile Reserves a data file (given by a relative path) for compaction. Returns false when the file is open for
+     *                    writing.
+     * @param releaseFile Releases a reserved file.
+     * @param diskUsageChange Consumer of changes of disk usage in megabytes.
+     */
+    Compactor(Path dataDir, FileNamingStrategy fileNaming, long mergeLimitBytes, long maxFileBytes, List<String> numericColumns,
+            List<String> stringColumns, String keyField, Predicate<String> reserveFile, Consumer<String> releaseFile,
+            DoubleConsumer diskUsageChange, DatabaseMetrics metrics) {
+        this.dataDir = dataDir;
+        this.fileNaming = fileNaming;
+        this.mergeLimitBytes = mergeLimitBytes;
+        this.maxFileBytes = maxFileBytes;
+        this.numericColumns = List.copyOf(numericColumns);
+        this.stringColumns = List.copyOf(stringColumns);
+        this.keyField = keyField;
+        this.reserveFile = reserveFile;
+        this.releaseFile = releaseFile;
+        this.diskUsageChange = diskUsageChange;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void run() {
+        try {
+            compact();
+        } catch (InterruptedIOException e) {
+            LOG.info("Compaction of data files interrupted.");
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Compaction of data files failed.", e);
+        }
+    }
+
+    /**
+     * Deletes expired retired files, compacts sealed files and writes their sidecars. Returns number of new data files.
+     */
+    int compact() throws IOException {
+        runLock.lock();
+        try {
+            deleteExpiredFiles();
+            int count = compactSealedFiles();
+            if (!numericColumns.isEmpty() || !stringColumns.isEmpty() || keyField != null) {
+                writeSidecars();
+            }
+            return count;
+        } finally {
+            runLock.unlock();
+        }
+    }
+
+    private int compactSealedFiles() throws IOException {
+        final String currentBucket = fileNaming.formatRelativePathStr(System.currentTimeMillis());
+        final String currentMerged = fileNaming.toMergedRelativePathStr(currentBucket).orElse(null);
+        final Map<String, List<Path>> buckets = listPastBuckets(currentBucket);
+        int count = 0;
+
+        Map<String, List<String>> mergeGroups = new TreeMap<>();
+        for (String bucketPath : buckets.keySet()) {
+            fileNaming.toMergedRelativePathStr(bucketPath)
+                    .filter(mergedPath -> currentMerged == null || mergedPath.compareTo(currentMerged) < 0)
+                    .ifPresent(mergedPath -> mergeGroups.computeIfAbsent(mergedPath, k -> new ArrayList<>()).add(bucketPath));
+        }
+        for (var mergeGroup : mergeGroups.entrySet()) {
+            String mergedPath = mergeGroup.getKey();
+            // files of a merged bucket first, so files of buckets written after the merge are merged into it
+            List<Path> sources = new ArrayList<>(buckets.getOrDefault(mergedPath, List.of()));
+            final boolean merged = !sources.isEmpty();
+            mergeGroup.getValue().forEach(bucketPath -> sources.addAll(buckets.get(bucketPath)));
+            if (mergeLimitBytes > 0 && (merged || mergeGroup.getValue().size() > 1) && totalSize(sources) <= mergeLimitBytes
+                    && isWithinMaxFileSize(sources) && compact(sources, mergedPath)) {
+                mergeGroup.getValue().forEach(buckets::remove);
+                buckets.remove(mergedPath);
+                ++count;
+            }
+        }
+
+        for (var bucket : buckets.entrySet()) {
+            List<Path> sources = bucket.getValue();
+            if (sources.size() > 1 && !isWithinMaxFileSize(sources)) {
+                for (Path source : sources) {
+                    if (isUnsorted(source) && compact(List.of(source), toRelativePathStr(source))) {
+                        ++count;
+                    }
+                }
+            } else if ((sources.size() > 1 || isUnsorted(sources.getFirst())) && compact(sources, bucket.getKey())) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Writes missing or outdated sidecars of sealed files.
+     */
+    private void writeSidecars() throws IOException {
+        final String currentBucket = fileNaming.formatRelativePathStr(System.currentTimeMillis());
+        for (List<Path> sources : listPastBuckets(currentBucket).values()) {
+            Path first = sources.getFirst();
+            if ((!numericColumns.isEmpty() || !stringColumns.isEmpty()) && sources.size() == 1
+                    && Files.exists(SidecarFiles.of(first, SidecarFiles.SORTED_MARKER))
+                    && !isSidecarValid(first, SidecarFiles.COLUMNS,
+                            (path, size) -> ColumnTable.matches(path, size, numericColumns, stringColumns))) {
+                writeSidecar(first, SidecarFiles.COLUMNS, this::writeColumns);
+            }
+            if (keyField != null) {
+                for (Path source : sources) {
+                    if (Files.size(source) > 0 && !isSidecarValid(source, SidecarFiles.KEY_FILTER,
+                            (path, size) -> KeyFilter.read(path, size, keyField) != null)) {
+                        writeSidecar(source, SidecarFiles.KEY_FILTER, this::writeKeyFilter);
+                    }
+                }
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface SidecarCheck {
+        boolean isValid(Path sidecarPath, long sourceSize) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface SidecarWriter {
+        void write(Path source, Path target, long sourceSize) throws IOException;
+    }
+
+    private boolean isSidecarValid(Path source, String suffix, SidecarCheck check) throws IOException {
+        final Path sidecarPath = SidecarFiles.of(source, suffix);
+        try {
+            return Files.exists(sidecarPath) && check.isValid(sidecarPath, Files.size(source));
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Cannot read sidecar file {}. It will be written again.", sidecarPath, e);
+            return false;
+        }
+    }
+
+    /**
+     * Writes a sidecar file of a reserved data file, as a temporary file first.
+     */
+    private void writeSidecar(Path source, String suffix, SidecarWriter writer) throws IOException {
+        final String sourcePathStr = toRelativePathStr(source);
+        if (!reserveFile.test(sourcePathStr)) {
+            return;
+        }
+        try {
+            final Path sidecarPath = SidecarFiles.of(source, suffix);
+            final Path tempPath = SidecarFiles.of(sidecarPath, SidecarFiles.COMPACTING);
+            final double replacedMB = measureIfExists(sidecarPath);
+            try {
+                writer.write(source, tempPath, Files.size(source));
+                Files.move(tempPath, sidecarPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(tempPath);
+                throw e;
+            }
+            diskUsageChange.accept(metrics.measureDiskUsageMB(sidecarPath.toString()) - replacedMB);
+        } finally {
+            releaseFile.accept(sourcePathStr);
+        }
+    }
+
+    private void writeColumns(Path source, Path target, long sourceSize) throws IOException {
+        final ColumnTable table = new ColumnTable(numericColumns, stringColumns);
+        forEachLine(source, line -> {
+            if (!table.addLine(line)) {
+                LOG.warn("Invalid line of data file {} is skipped in its columnar file. Line: `{}`", source, line);
+            }
+        });
+        table.write(target, sourceSize);
+        LOG.debug("Converted data file {} into {} rows of columns.", source, table.size());
+    }
+
+    private void writeKeyFilter(Path source, Path target, long sourceSize) throws IOException {
+        final Set<String> keys = new HashSet<>();
+        forEachLine(source, line -> {
+            String key = KeyFilter.keyOf(line, keyField);
+            if (key != null) {
+                keys.add(key);
+            }
+        });
+        KeyFilter.of(keys).write(target, sourceSize, keyField);
+        LOG.debug("Built filter of {} keys of data file {}.", keys.size(), source);
+    }
+
+    private static void forEachLine(Path source, Consumer<String> action) throws IOException {
+        try (var reader = Files.newBufferedReader(source, StandardCharsets.UTF_8)) {
+            String line;
+            long lineCount = 0;
+            while ((line = reader.readLine()) != null) {
+                action.accept(line);
+                if (++lineCount % LINES_PER_INTERRUPT_CHECK == 0 && Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Writing of a sidecar of %s interrupted".formatted(source));
+                }
+            }
+        }
+    }
+
+    /**
+     * Tells if a file has no sorted marker. An empty file is a leftover of a file opened in advance, so it is not rewritten.
+     */
+    private static boolean isUnsorted(Path path) throws IOException {
+        return !Files.exists(SidecarFiles.of(path, SidecarFiles.SORTED_MARKER)) && Files.size(path) > 0;
+    }
+
+    private boolean isWithinMaxFileSize(List<Path> paths) throws IOException {
+        return maxFileBytes == 0L || totalSize(paths) <= maxFileBytes;
+    }
+
+    /**
+     * Returns data files of time buckets earlier than the current one, grouped by bucket paths in order.
+     */
+    private Map<String, List<Path>> listPastBuckets(String currentBucket) throws IOException {
+        Map<String, List<Path>> buckets = new TreeMap<>();
+        try (Stream<Path> pathStream = Files.find(dataDir, fileNaming.maxDirectoryDepth(), DataFileBuckets.DATA_FILE_PREDICATE)) {
+            pathStream.sorted().forEach(path -> {
+                String bucketPath = SegmentNaming.toBucketPathStr(toRelativePathStr(path));
+                if (bucketPath.compareTo(currentBucket) < 0) {
+                    buckets.computeIfAbsent(bucketPath, k -> new ArrayList<>()).add(path);
+                }
+            });
+        }
+        return buckets;
+    }
+
+    /**
+     * Rewrites source files into a target file. Returns false if any of the files is in use or gone.
+     */
+    private boolean compact(List<Path> sources, String targetPathStr) throws IOException {
+        List<String> reserved = new ArrayList<>(sources.size() + 1);
+        try {
+            if (!reserveFile.test(targetPathStr)) {
+                return false;
+            }
+            reserved.add(targetPathStr);
+            for (Path source : sources) {
+                String sourcePathStr = toRelativePathStr(source);
+                if (!sourcePathStr.equals(targetPathStr)) {
+                    if (!reserveFile.test(sourcePathStr)) {
+                        return false;
+                    }
+                    reserved.add(sourcePathStr);
+                }
+            }
+            // a source may be gone since it was listed, e.g. moved to a next storage tier
+            for (Path source : sources) {
+                if (!Files.exists(source)) {
+                    LOG.debug("Data file {} is gone. Its bucket is compacted later.", source);
+                    return false;
+                }
+            }
+            final long startNanos = System.nanoTime();
+            rewrite(sources, dataDir.resolve(targetPathStr));
+            metrics.recordCompaction(sources.size(), System.nanoTime() - startNanos);
+            LOG.debug("Compacted {} data file(s) into {}.", sources.size(), targetPathStr);
+            return true;
+        } finally {
+            reserved.forEach(releaseFile);
+        }
+    }
+
+    private void rewrite(List<Path> sources, Path target) throws IOException {
+        final Path tempPath = SidecarFiles.of(target, SidecarFiles.COMPACTING);
+        final Path targetMarkerPath = SidecarFiles.of(target, SidecarFiles.SORTED_MARKER);
+        final double replacedMB = sources.contains(target) ? metrics.measureDiskUsageMB(target.toString()) : 0.0;
+        final List<Path> retired = sources.stream().filter(source -> !source.equals(target)).toList();
+        // sidecars deleted by the replacement, which are counted in disk usage too
+        double deletedSidecarsMB = measureIfExists(targetMarkerPath);
+        for (Path path : retired) {
+            for (String suffix : SidecarFiles.METADATA_SUFFIXES) {
+                deletedSidecarsMB += measureIfExists(SidecarFiles.of(path, suffix));
+            }
+        }
+        long lastMillis = Long.MIN_VALUE;
+        boolean sorted = true;
+        try {
+            try (var lines = new FileLinesSpliterator(dataDir, sources, fileNaming, metrics, true);
+                    FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                            StandardOpenOption.WRITE);
+                    Writer writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8))) {
+                Iterator<String> iterator = Spliterators.iterator(lines);
+                long lineCount = 0;
+                while (iterator.hasNext()) {
+                    String line = iterator.next();
+                    writer.write(line);
+                    writer.write(Database.NEW_LINE_CHAR);
+                    long millis = DataLine.timestampOrMin(line);
+                    sorted &= (millis >= lastMillis);
+                    lastMillis = Math.max(lastMillis, millis);
+                    if (++lineCount % LINES_PER_INTERRUPT_CHECK == 0 && Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedIOException("Compaction of %s interrupted".formatted(target));
+                    }
+                }
+                writer.flush();
+                channel.force(true);
+            }
+            FileReplacement.prepare(target, retired, SidecarFiles.RETIRED);
+            Files.deleteIfExists(targetMarkerPath);
+            Files.move(tempPath, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            FileReplacement.abort(target);
+            Files.deleteIfExists(tempPath);
+            throw e;
+        }
+        if (sorted && lastMillis != Long.MIN_VALUE) {
+            try {
+                Files.writeString(targetMarkerPath, Long.toString(lastMillis, ReadOnlyDatabase.TIMESTAMP_RADIX));
+            } catch (IOException e) {
+                LOG.warn("Cannot create sorted marker for file {}. Readers will sort it.", target, e);
+            }
+        }
+        FileReplacement.complete(target, retired, SidecarFiles.RETIRED);
+        diskUsageChange.accept(metrics.measureDiskUsageMB(target.toString()) + measureIfExists(targetMarkerPath) - replacedMB
+                - deletedSidecarsMB);
+    }
+
+    private double measureIfExists(Path path) {
+        return Files.exists(path) ? metrics.measureDiskUsageMB(path.toString()) : 0.0;
+    }
+
+    /**
+     * Deletes retired files and leftovers of interrupted compactions older than the grace period.
+     */
+    private void deleteExpiredFiles() throws IOException {
+        final long expiryMillis = System.currentTimeMillis() - RETIRED_FILE_GRACE_PERIOD.toMillis();
+        List<Path> expiredPaths;
+        try (Stream<Path> pathStream = Files.find(dataDir, fileNaming.maxDirectoryDepth(), IS_FILE_PREDICATE.and((path, attributes) -> {
+            String name = path.getFileName().toString();
+            return (name.endsWith(SidecarFiles.RETIRED) || name.endsWith(SidecarFiles.COMPACTING))
+                    && attributes.lastModifiedTime().toMillis() < expiryMillis;
+        }))) {
+            expiredPaths = pathStream.toList();
+        }
+        for (Path path : expiredPaths) {
+            diskUsageChange.accept(-DiskSpaceReclaimer.remove(path, metrics::measureDiskUsageMB));
+        }
+    }
+
+    private String toRelativePathStr(Path path) {
+        return dataDir.relativize(path).toString();
+    }
+
+    private static long totalSize(List<Path> paths) throws IOException {
+        long size = 0;
+        for (Path path : paths) {
+            size += Files.size(path);
+        }
+        return size;
+    }
+}
@@ -0,0 +1,173 @@
+package io.github.k_tomaszewski.eternaldb;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+
+import static io.github.k_tomaszewski.util.FileUtils.IS_FILE_PREDICATE;
+
+/**
+ * Iterates over time buckets of data files in order. An element is a list of segment files of a bucket (see {@link SegmentNaming}),
+ * usually a single file. Files are limited by optional `minMillis` and `maxMillis`.
+ * Files may come from data directories of many storage tiers (see {@link DatabaseProperties#addStorageTier(Path, long)}). Files
+ * of the same bucket from different tiers are grouped together, just like segment files.
+ * A file merged by compaction (see {@link FileNamingStrategy#toMergedRelativePathStr(String)}) is grouped with files of buckets it
+ * covers, which were written after the merge by records arriving late, so their records are merged by timestamps when read.
+ */
+class DataFileBuckets implements Iterator<List<Path>>, AutoCloseable {
+
+    static final BiPredicate<Path, BasicFileAttributes> DATA_FILE_PREDICATE = IS_FILE_PREDICATE.and((path, attributes) ->
+            !SidecarFiles.isSidecar(path));
+    private static final BiPredicate<Path, BasicFileAttributes> MANIFEST_PREDICATE = IS_FILE_PREDICATE.and((path, attributes) ->
+            FileReplacement.isManifest(path));
+
+    private final List<Path> dataDirs;
+    private final FileNamingStrategy fileNaming;
+    private final Iterator<Path> pathIterator;
+    private Path nextPath;
+
+    private DataFileBuckets(List<Path> dataDirs, FileNamingStrategy fileNaming, Iterator<Path> pathIterator) {
+        this.dataDirs = dataDirs;
+        this.fileNaming = fileNaming;
+        this.pathIterator = pathIterator;
+    }
+
+    static DataFileBuckets find(Path dataDir, Long minMillis, Long maxMillis, FileNamingStrategy fileNaming) throws IOException {
+        return find(List.of(dataDir), minMillis, maxMillis, fileNaming);
+    }
+
+    /**
+     * Finds data files of all given data directories, ordered by their relative paths. Directories are listed in the given order,
+     * which should be the order of storage tiers. A file moved to a next tier in the meantime is then found at least in one of them.
+     * Files replaced by a new file that is already in place, but not renamed yet, are skipped (see {@link FileReplacement}).
+     */
+    static DataFileBuckets find(List<Path> dataDirs, Long minMillis, Long maxMillis, FileNamingStrategy fileNaming) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        Set<Path> replaced;
+        do {
+            paths.clear();
+            List<Path> manifestPaths = new ArrayList<>();
+            for (Path dataDir : dataDirs) {
+                try (var pathStream = Files.find(dataDir, fileNaming.maxDirectoryDepth(),
+                        toDataFilePredicate(minMillis, maxMillis, fileNaming, dataDir).or(MANIFEST_PREDICATE))) {
+                    pathStream.forEach(path -> (FileReplacement.isManifest(path) ? manifestPaths : paths).add(path));
+                }
+            }
+            replaced = FileReplacement.findReplaced(manifestPaths);
+        } while (replaced == null);
+        if (!replaced.isEmpty()) {
+            final Set<Path> replacedPaths = replaced;
+            paths.removeIf(path -> replacedPaths.contains(path.toAbsolutePath().normalize()));
+        }
+        paths.sort(Comparator.comparing((Path path) -> toRelativePathStr(dataDirs, path)).thenComparing(Comparator.naturalOrder()));
+        return of(dataDirs, paths, fileNaming);
+    }
+
+    /**
+     * Groups given data files, which must be sorted.
+     */
+    static DataFileBuckets of(Path dataDir, List<Path> sortedPaths, FileNamingStrategy fileNaming) {
+        return of(List.of(dataDir), sortedPaths, fileNaming);
+    }
+
+    /**
+     * Groups given data files of many data directories, which must be sorted by their relative paths.
+     */
+    static DataFileBuckets of(List<Path> dataDirs, List<Path> sortedPaths, FileNamingStrategy fileNaming) {
+        return new DataFileBuckets(dataDirs, fileNaming, sortedPaths.iterator());
+    }
+
+    /**
+     * Returns a path of a data file relative to the one of given data directories it belongs to.
+     */
+    static String toRelativePathStr(List<Path> dataDirs, Path path) {
+        for (Path dataDir : dataDirs) {
+            if (path.startsWith(dataDir)) {
+                return dataDir.relativize(path).toString();
+            }
+        }
+        throw new IllegalArgumentException("Path %s is not in a data directory".formatted(path));
+    }
+
+    @Override
+    public boolean hasNext() {
+        return nextPath != null || pathIterator.hasNext();
+    }
+
+    @Override
+    public List<Path> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Path firstPath = (nextPath != null) ? nextPath : pathIterator.next();
+        nextPath = null;
+        List<Path> segmentPaths = new ArrayList<>();
+        segmentPaths.add(firstPath);
+        final String bucketPath = toBucketPathStr(firstPath);
+        while (pathIterator.hasNext()) {
+            Path path = pathIterator.next();
+            if (isInBucket(toBucketPathStr(path), bucketPath)) {
+                segmentPaths.add(path);
+            } else {
+                nextPath = path;
+                break;
+            }
+        }
+        return segmentPaths;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    String toBucketPathStr(Path path) {
+        return SegmentNaming.toBucketPathStr(toRelativePathStr(dataDirs, path));
+    }
+
+    /**
+     * Tells if a file of a bucket path belongs to a bucket: the same one, or a merged file that covers it.
+     */
+    private boolean isInBucket(String pathBucket, String bucketPath) {
+        return bucketPath.equals(pathBucket)
+                || fileNaming.toMergedRelativePathStr(pathBucket).filter(bucketPath::equals).isPresent();
+    }
+
+    private static BiPredicate<Path, BasicFileAttributes> toDataFilePredicate(Long minMillis, Long maxMillis,
+            FileNamingStrategy fileNaming, Path dataDir) {
+        BiPredicate<Path, BasicFileAttributes> predicate = DATA_FILE_PREDICATE;
+        if (minMillis != null || maxMillis != null) {
+            Predicate<String> fileNamePredicate = toFileNamePredicate(minMillis, maxMillis, fileNaming);
+            predicate = predicate.and((path, attributes) ->
+                    fileNamePredicate.test(SegmentNaming.toBucketPathStr(dataDir.relativize(path).toString())));
+        }
+        return predicate;
+    }
+
+    /**
+     * A file merged by compaction (see {@link FileNamingStrategy#toMergedRelativePathStr(String)}) is selected when it covers
+     * `minMillis`.
+     */
+    static Predicate<String> toFileNamePredicate(Long minMillis, Long maxMillis, FileNamingStrategy fileNaming) {
+        Predicate<String> predicate = null;
+        if (minMillis != null) {
+            final String minFileName = fileNaming.formatRelativePathStr(minMillis);
+            final String minMergedFileName = fileNaming.toMergedRelativePathStr(minFileName).orElse(minFileName);
+            predicate = (fileName) -> fileName.compareTo(minFileName) >= 0 || fileName.equals(minMergedFileName);
+        }
+        if (maxMillis != null) {
+            final String maxFileName = fileNaming.formatRelativePathStr(maxMillis);
+            Predicate<String> predicate2 = (fileName) -> fileName.compareTo(maxFileName) <= 0;
+            predicate = (predicate != null) ? predicate.and(predicate2) : predicate2;
+        }
+        return predicate;
+    }
+}
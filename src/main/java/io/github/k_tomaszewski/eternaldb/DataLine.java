@@ -0,0 +1,53 @@
+package io.github.k_tomaszewski.eternaldb;
+
+import java.util.Comparator;
+
+import static io.github.k_tomaszewski.eternaldb.ReadOnlyDatabase.SEPARATOR;
+import static io.github.k_tomaszewski.eternaldb.ReadOnlyDatabase.TIMESTAMP_RADIX;
+
+/**
+ * Helpers for raw lines of data files: a timestamp formatted with radix of 32, the tab character, and a serialized record.
+ */
+final class DataLine {
+
+    /**
+     * Orders lines by timestamps only, so sorting with it is stable for records with the same timestamp.
+     */
+    static final Comparator<String> TIMESTAMP_ORDER = DataLine::compareTimestamps;
+
+    private DataLine() {
+    }
+
+    static long timestamp(String line) {
+        return Long.parseLong(line, 0, line.indexOf(SEPARATOR), TIMESTAMP_RADIX);
+    }
+
+    /**
+     * Timestamp of a line, or `Long.MIN_VALUE` for a corrupted line, so such a line doesn't break sorting of other lines.
+     */
+    static long timestampOrMin(String line) {
+        try {
+            return timestamp(line);
+        } catch (RuntimeException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    static int compareTimestamps(String line1, String line2) {
+        final int length1 = line1.indexOf(SEPARATOR);
+        final int length2 = line2.indexOf(SEPARATOR);
+        if (length1 <= 0 || length2 <= 0 || line1.charAt(0) == '-' || line2.charAt(0) == '-') {
+            return Long.compare(timestampOrMin(line1), timestampOrMin(line2));
+        }
+        if (length1 != length2) {
+            return Integer.compare(length1, length2);       // no leading zeros, so a longer number is a bigger one
+        }
+        for (int i = 0; i < length1; ++i) {
+            int diff = Character.compare(line1.charAt(i), line2.charAt(i));   // '0'-'9' are before 'a'-'v'
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+}
@@ -1,27 +1,39 @@
 package io.github.k_tomaszewski.eternaldb;
 
-import io.github.k_tomaszewski.util.DiskUsageUtil;
+import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedWriter;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
 import java.nio.file.FileStore;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BooleanSupplier;
 import java.util.function.IntUnaryOperator;
 import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 /**
  * Read-write database. It should be closed.
@@ -34,12 +46,19 @@ public class Database<T> extends ReadOnlyDatabase implements Closeable {
     private static final Logger LOG = LoggerFactory.getLogger(Database.class);
     private static final int WRITES_TO_CHECK_DISK_USAGE = 10;
     private static final int DEFAULT_BLOCK_SIZE = 4096;
+    private static final long RESERVATION_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SCHEDULER_TERMINATION_SECONDS = 10;
+    private static final long PREOPEN_PERIOD_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    // how long before a start of a time bucket its files are opened
+    static final long PREOPEN_LEAD_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    // with storage tiers, files are moved from the first tier when its free space falls below this part of its limit
+    private static final double MIGRATION_HEADROOM_RATIO = 0.1;
 
     // megabytes
     private final long diskUsageLimit;
 
-    // megabytes
-    private final DoubleAdder diskUsageActual = new DoubleAdder();
+    // megabytes, shared by series of a database group
+    private final DoubleAdder diskUsageActual;
 
     // TODO migrate space keeping from MBs to block count
     // bytes
@@ -47,18 +66,68 @@ public class Database<T> extends ReadOnlyDatabase implements Closeable {
 
     private final ConcurrentMap<String, FileContext> fileWriters = new ConcurrentHashMap<>();
     private final IntUnaryOperator diskUsageCheckDelayFunction = (n) -> (n > 0) ? --n : WRITES_TO_CHECK_DISK_USAGE;
-    private final AtomicBoolean diskSpaceReclaiming = new AtomicBoolean(false);
+    private final AtomicBoolean diskSpaceReclaiming;
     private final ToLongFunction<T> timestampSupplier;
     private final long maxIdleSeconds;
     private final ScheduledExecutorService scheduler;
+    private final List<ScheduledFuture<?>> scheduledTasks = new ArrayList<>();
+    // held by a running background task, so closing waits for it; a task doesn't run after closing
+    private final ReentrantLock backgroundTaskLock = new ReentrantLock();
+    private boolean closed;
+    // guards interrupting of a running compaction by closing, so no other task is interrupted
+    private final ReentrantLock compactionThreadLock = new ReentrantLock();
+    private Thread compactionThread;
+    private boolean closing;
+    // null for a database that is not a series of a group
+    private final DatabaseGroup group;
     private final BooleanSupplier flushCondition;
+    private final ObjectName metricsMBeanName;
+    private final int stripeCount;
+    // bytes, 0 for no limit
+    private final long maxFileBytes;
+    // numbers of segment generations written now, by paths of buckets that rolled over to a next generation when their file was full
+    private final ConcurrentMap<String, Integer> bucketGenerations = new ConcurrentHashMap<>();
+    private final Durability durability;
+    // own thread of interval sync, so background tasks don't delay it; null without an interval durability mode
+    private final ScheduledExecutorService syncScheduler;
+    private final GroupCommit groupCommit;
+    private final FileContext.Options fileOptions;
+    private final Set<String> reservedPaths = ConcurrentHashMap.newKeySet();
+    private final Compactor compactor;
+    private final int maxOpenFiles;
+    // null without storage tiers
+    private final TierMigrator tierMigrator;
+    private final List<TierMigrator.Tier> tiers;
+
+    private record EvictionCandidate(String path, FileContext context, long lastUseNanoTime) {
+    }
 
     public Database(DatabaseProperties<T> config) {
+        this(config, null);
+    }
+
+    /**
+     * Creates a series of a database group, which shares the group's scheduler, disk usage and its limit.
+     */
+    Database(DatabaseProperties<T> config, DatabaseGroup group) {
         super(config);
-        diskUsageLimit = config.getDiskUsageLimit();
+        this.group = group;
+        recoverFileReplacements();
         timestampSupplier = config.getTimestampSupplier();
+        if (group == null) {
+            diskUsageLimit = config.getDiskUsageLimit();
+            diskUsageActual = new DoubleAdder();
+            diskUsageActual.add(metrics.measureDiskUsageMB(dataDir.toString()));
+            diskSpaceReclaiming = new AtomicBoolean(false);
+            scheduler = Executors.newSingleThreadScheduledExecutor();
+        } else {
+            Validate.isTrue(config.getStorageTiers().isEmpty(), "A series of a database group cannot have storage tiers");
+            diskUsageLimit = group.diskUsageLimit;
+            diskUsageActual = group.diskUsage;
+            diskSpaceReclaiming = group.diskSpaceReclaiming;
+            scheduler = group.scheduler;
+        }
 
-        diskUsageActual.add(DiskUsageUtil.getDiskUsageMB(dataDir.toString()));
         var fileStoreOpt = getFileStore(dataDir);
         diskBlockSize = getBlockSize(fileStoreOpt);
 
@@ -67,99 +136,379 @@ public class Database<T> extends ReadOnlyDatabase implements Closeable {
                 diskBlockSize);
 
         maxIdleSeconds = config.getFileMaxIdleTime().toSeconds();
-        scheduler = Executors.newSingleThreadScheduledExecutor();
         long purgeDelaySeconds = fileNaming.fileCreationInterval().orElse(Duration.ofHours(1)).toSeconds();
-        scheduler.scheduleAtFixedRate(this::purgeFileWriters, purgeDelaySeconds + maxIdleSeconds, purgeDelaySeconds, TimeUnit.SECONDS);
+        scheduledTasks.add(scheduler.scheduleAtFixedRate(() -> runBackgroundTask(this::purgeFileWriters),
+                purgeDelaySeconds + maxIdleSeconds, purgeDelaySeconds, TimeUnit.SECONDS));
 
+        maxOpenFiles = config.getMaxOpenFiles();
         flushCondition = config.getFlushCondition();
+        stripeCount = config.getStripeCount();
+        maxFileBytes = config.getMaxFileSizeMB() * 1024L * 1024L;
+        if (maxFileBytes > 0L) {
+            loadBucketGenerations();
+        }
+        durability = config.getDurability();
+        if (durability == Durability.FLUSH_INTERVAL || durability == Durability.FSYNC_INTERVAL) {
+            long intervalMillis = config.getDurabilityInterval().toMillis();
+            syncScheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("etdb-sync").daemon().factory());
+            syncScheduler.scheduleWithFixedDelay(this::syncFilesSafely, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            syncScheduler = null;
+        }
+        groupCommit = (durability == Durability.FSYNC_GROUP) ? new GroupCommit(() -> syncFiles(true)) : null;
+        fileOptions = new FileContext.Options(config.getAppendEngine(), config.getWriteBufferSize(),
+                durability == Durability.FSYNC_INTERVAL || durability == Durability.FSYNC_GROUP);
+        metrics.setOpenFileCountSupplier(fileWriters::size);
+        compactor = new Compactor(dataDir, fileNaming, config.getCompactionMergeLimitMB() * 1024L * 1024L, maxFileBytes,
+                config.getNumericColumns(), config.getStringColumns(), config.getKeyField(), this::reserveFile, this::releaseFile,
+                this::onDiskUsageChange, metrics);
+        if (config.getCompactionInterval() != null) {
+            long intervalMillis = config.getCompactionInterval().toMillis();
+            scheduledTasks.add(scheduler.scheduleWithFixedDelay(() -> runBackgroundTask(this::runCompaction), intervalMillis,
+                    intervalMillis, TimeUnit.MILLISECONDS));
+        }
+        scheduledTasks.add(scheduler.scheduleWithFixedDelay(() -> runBackgroundTask(this::preopenNextFilesSafely),
+                PREOPEN_PERIOD_MILLIS, PREOPEN_PERIOD_MILLIS, TimeUnit.MILLISECONDS));
+        tiers = createTiers(config.getStorageTiers());
+        if (tiers.size() > 1) {
+            tierMigrator = new TierMigrator(tiers, fileNaming, this::reserveFile, this::releaseFile, metrics);
+            scheduledTasks.add(scheduler.scheduleWithFixedDelay(() -> runBackgroundTask(tierMigrator::deleteExpiredFiles),
+                    purgeDelaySeconds, purgeDelaySeconds, TimeUnit.SECONDS));
+        } else {
+            tierMigrator = null;
+        }
+        metricsMBeanName = config.getJmxEnabled() ? registerMetricsMBean() : null;
     }
 
     public final double getActualDiskUsageMB() {
         return diskUsageActual.doubleValue();
     }
 
+    /**
+     * Returns disk usage of a storage tier (see {@link DatabaseProperties#addStorageTier(Path, long)}). Tier 0 is the data directory.
+     */
+    public final double getActualDiskUsageMB(int tierIndex) {
+        return tiers.get(tierIndex).diskUsage().doubleValue();
+    }
+
     public void write(T record) {
         write(record, timestampSupplier.applyAsLong(record));
     }
 
     public void write(T record, long recordMillis) {
-        double fileGrowthMB;
+        final long startNanos = System.nanoTime();
+        double fileGrowthMB = 0.0;
         try {
-            FileContext context = getFileContext(recordMillis);
-            synchronized (context) {
-                BufferedWriter fileWriter = context.getFileWriter();
+            final String bucketPath = fileNaming.formatRelativePathStr(recordMillis);
+            String relativePath;
+            FileContext context;
+            for (;;) {
+                // a path is taken again when the bucket rolled over meanwhile, so the next generation is written
+                final int generation = getGeneration(bucketPath);
+                relativePath = toRelativeFilePath(bucketPath, generation);
+                context = tryLockFileContext(relativePath);
+                if (context != null) {
+                    if (generation == getGeneration(bucketPath)) {
+                        break;
+                    }
+                    context.unlock();
+                }
+            }
+            boolean diskUsageCheckDue;
+            try {
+                Writer fileWriter = context.getFileWriter();
+                context.trackOrder(recordMillis);
                 fileWriter.append(Long.toString(recordMillis, TIMESTAMP_RADIX)).append('\t');
                 serialization.serialize(record, fileWriter);
                 fileWriter.append(NEW_LINE_CHAR);
                 if (flushCondition != null && flushCondition.getAsBoolean()) {
                     context.flushSafely();
                 }
+                diskUsageCheckDue = context.isDiskUsageCheckDue();
+                if (diskUsageCheckDue && maxFileBytes > 0L && context.getSize() >= maxFileBytes) {
+                    rollOver(relativePath, context);
+                }
+            } finally {
+                context.unlock();
+            }
+            if (groupCommit != null) {
+                groupCommit.awaitSync();
+            }
+            if (diskUsageCheckDue) {
                 fileGrowthMB = context.calculateFileGrowthMB();
             }
         } catch (Exception e) {
             throw new RuntimeException("Database write failed", e);
         }
+        metrics.recordWrite(System.nanoTime() - startNanos);
         onDiskUsageChange(fileGrowthMB);
     }
 
+    /**
+     * Returns an importer of historical records, which keeps the disk usage limit by deleting oldest data files.
+     */
+    public BulkImporter<T> bulkImporter() {
+        return bulkImporter(BulkImporter.DiskUsageLimitPolicy.TRIM_OLDEST);
+    }
+
+    public BulkImporter<T> bulkImporter(BulkImporter.DiskUsageLimitPolicy limitPolicy) {
+        return new BulkImporter<>(this, limitPolicy);
+    }
+
+    /**
+     * Closes this database. Background tasks of a series of a database group are cancelled, but the group's scheduler keeps running.
+     * A running compaction is interrupted. Another task that is already running is waited for, so it opens no file after the files
+     * are closed.
+     */
     @Override
     public void close() {
-        scheduler.shutdownNow();
+        interruptCompaction();
+        if (group == null) {
+            scheduler.shutdown();
+            awaitTermination(scheduler);
+        } else {
+            scheduledTasks.forEach(task -> task.cancel(false));
+            group.onSeriesClosed(this);
+        }
+        backgroundTaskLock.lock();
+        try {
+            closed = true;
+        } finally {
+            backgroundTaskLock.unlock();
+        }
+        if (syncScheduler != null) {
+            syncScheduler.shutdown();
+            awaitTermination(syncScheduler);
+        }
         fileWriters.forEach((path, context) -> {
-            synchronized (context) {
+            context.lock();
+            try {
                 close(context, path);
+            } finally {
+                context.unlock();
             }
         });
         fileWriters.clear();
+        if (groupCommit != null) {
+            groupCommit.close();
+        }
+        unregisterMetricsMBean();
         LOG.info("Closed database for directory '{}'.", dataDir);
     }
 
+    /**
+     * Runs a background task unless this database is closed. Closing waits for the task to finish.
+     */
+    final void runBackgroundTask(Runnable task) {
+        backgroundTaskLock.lock();
+        try {
+            if (!closed) {
+                task.run();
+            }
+        } finally {
+            backgroundTaskLock.unlock();
+        }
+    }
+
+    /**
+     * Runs compaction on the calling thread, so closing can interrupt it.
+     */
+    private void runCompaction() {
+        compactionThreadLock.lock();
+        try {
+            if (closing) {
+                return;
+            }
+            compactionThread = Thread.currentThread();
+        } finally {
+            compactionThreadLock.unlock();
+        }
+        try {
+            compactor.run();
+        } finally {
+            compactionThreadLock.lock();
+            try {
+                compactionThread = null;
+                Thread.interrupted();       // an interrupt by closing must not reach a next task of the thread
+            } finally {
+                compactionThreadLock.unlock();
+            }
+        }
+    }
+
+    private void interruptCompaction() {
+        compactionThreadLock.lock();
+        try {
+            closing = true;
+            if (compactionThread != null) {
+                compactionThread.interrupt();
+            }
+        } finally {
+            compactionThreadLock.unlock();
+        }
+    }
+
     final int purgeFileWriters() {
         int count = 0;
-        var iterator = fileWriters.entrySet().iterator();
-        while (iterator.hasNext()) {
-            var fileWriterEntry = iterator.next();
+        for (var fileWriterEntry : fileWriters.entrySet()) {
             FileContext context = fileWriterEntry.getValue();
-            synchronized (context) {
-                if ((System.nanoTime() - context.getLastUseNanoTime()) / 1_000_000_000L > maxIdleSeconds) {
-                    iterator.remove();
+            if (!context.tryLock()) {
+                continue;       // a file being written is not idle
+            }
+            try {
+                if (!context.isClosed() && (System.nanoTime() - context.getLastUseNanoTime()) / 1_000_000_000L > maxIdleSeconds) {
                     if (close(context, fileWriterEntry.getKey())) {
                         LOG.trace("Closed idle db file: {}", fileWriterEntry.getKey());
                     }
+                    // after closing, so compaction never reserves a file with buffered records
+                    fileWriters.remove(fileWriterEntry.getKey(), context);
                     ++count;
                 }
+            } finally {
+                context.unlock();
             }
         }
         return count;
     }
 
-    private static boolean close(FileContext context, String path) {
+    /**
+     * Compacts sealed data files now. Returns number of new files.
+     */
+    final int compactFiles() throws IOException {
+        return compactor.compact();
+    }
+
+    /**
+     * Moves oldest sealed data files of the first storage tier to the next tier now. Returns freed disk space in megabytes.
+     */
+    final double migrateFiles(double spaceToFreeMB) throws IOException {
+        return (tierMigrator != null) ? tierMigrator.free(0, spaceToFreeMB) : 0.0;
+    }
+
+    /**
+     * Deletes files moved to a next storage tier, which are older than the grace period, now.
+     */
+    final void deleteMigratedFiles() {
+        if (tierMigrator != null) {
+            tierMigrator.deleteExpiredFiles();
+        }
+    }
+
+    /**
+     * Opens files of the next time bucket in advance, if it starts within {@link #PREOPEN_LEAD_MILLIS} and files of the current bucket
+     * are being written. Writers that cross the bucket boundary find the files open. Returns number of opened files.
+     */
+    final int preopenNextFiles(long nowMillis) {
+        final String currentPath = fileNaming.formatRelativePathStr(nowMillis);
+        final String nextPath = fileNaming.formatRelativePathStr(nowMillis + PREOPEN_LEAD_MILLIS);
+        if (nextPath.equals(currentPath) || fileWriters.keySet().stream().noneMatch(path ->
+                SegmentNaming.toBucketPathStr(path).equals(currentPath))) {
+            return 0;
+        }
+        int count = 0;
+        final int firstSegment = getGeneration(nextPath) * stripeCount;
+        for (int segment = firstSegment; segment < firstSegment + stripeCount; ++segment) {
+            String relativePath = SegmentNaming.toSegmentPathStr(nextPath, segment);
+            FileContext context = fileWriters.computeIfAbsent(relativePath, this::createFileContext);
+            if (context != null) {
+                context.lock();
+                try {
+                    if (context.isClosed()) {
+                        continue;
+                    }
+                    context.open();
+                    ++count;
+                } catch (IOException e) {
+                    LOG.warn("Cannot open db file {} in advance.", relativePath, e);
+                } finally {
+                    context.unlock();
+                }
+            }
+        }
+        return count;
+    }
+
+    private void preopenNextFilesSafely() {
+        try {
+            preopenNextFiles(System.currentTimeMillis());
+        } catch (RuntimeException e) {
+            LOG.warn("Opening of data files in advance failed.", e);
+        }
+    }
+
+    /**
+     * Flushes write buffers of all open files and optionally forces the files to a storage device.
+     */
+    private void syncFiles(boolean force) throws IOException {
+        IOException failure = null;
+        for (FileContext context : fileWriters.values()) {
+            try {
+                context.sync(force);
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void syncFilesSafely() {
+        try {
+            syncFiles(durability == Durability.FSYNC_INTERVAL);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Periodic sync of data files failed.", e);
+        }
+    }
+
+    /**
+     * Closes a file with the lock of its context held. Disk usage of its sorted marker is accounted.
+     */
+    private boolean close(FileContext context, String path) {
         try {
             context.close();
             return true;
         } catch (IOException e) {
             LOG.warn("Closing db file {} failed.", path, e);
             return false;
+        } finally {
+            diskUsageActual.add(context.takeSortedMarkerGrowthMB());
         }
     }
 
+    /**
+     * Returns disk space in megabytes left for data before old data files are deleted.
+     */
+    final double getFreeDiskSpaceMB() {
+        return diskUsageLimit - diskUsageActual.sum() - getMinDiskSpace();
+    }
+
     /**
      * TODO: Here is a good place to use a strategy for deciding when to perform deleting old data files.
      * TODO: Disk space to reclaim could be adjusted by last dynamics of data writing.
      */
-    private void onDiskUsageChange(double change) {
+    final void onDiskUsageChange(double change) {
         if (change != 0.0) {
             try {
                 diskUsageActual.add(change);
                 final double leftDiskSpace = diskUsageLimit - diskUsageActual.sum();
-                final double minDiskSpace = getMinDiskSpace();
+                // with storage tiers, files are moved in batches, before the first tier is full
+                final double headroom = (tierMigrator != null) ? diskUsageLimit * MIGRATION_HEADROOM_RATIO : 0.0;
+                final double minDiskSpace = getMinDiskSpace() + headroom;
                 if (leftDiskSpace < minDiskSpace) {
                     LOG.info("Left disk space below minimum: {}.", MB_FORMAT.formatted(leftDiskSpace));
                     if (diskSpaceReclaiming.compareAndSet(false, true)) {
+                        final double spaceToFree = minDiskSpace - leftDiskSpace;       // with the headroom, if any
                         try {
                             Thread.ofVirtual().name("etdb-reclaim")
-                                    .start(new DiskSpaceReclaimer(dataDir, minDiskSpace - leftDiskSpace, diskSpaceReclaiming,
-                                            diskUsageActual));
+                                    .start((tierMigrator != null)
+                                            ? tierMigrator.migration(spaceToFree, diskSpaceReclaiming)
+                                            : new DiskSpaceReclaimer((group != null) ? group.listSeriesDirs() : List.of(dataDir),
+                                                    spaceToFree, diskSpaceReclaiming, diskUsageActual, metrics));
                         } catch (RuntimeException e) {
                             diskSpaceReclaiming.compareAndSet(true, false);
                             throw e;
@@ -183,6 +532,10 @@ public class Database<T> extends ReadOnlyDatabase implements Closeable {
 
     // returns minimal disk space in megabytes, that we try to keep free
     private double getMinDiskSpace() {
+        return getMinDiskSpace(diskUsageLimit, diskBlockSize);
+    }
+
+    private static double getMinDiskSpace(long diskUsageLimit, long diskBlockSize) {
         if (diskUsageLimit <= 10) {
             return 10.0 * diskBlockSize / (1024.0 * 1024.0);
         }
@@ -192,23 +545,211 @@ public class Database<T> extends ReadOnlyDatabase implements Closeable {
         return 1.0;
     }
 
-    private FileContext getFileContext(long recordMillis) {
-        return fileWriters.computeIfAbsent(fileNaming.formatRelativePathStr(recordMillis), this::createFileContext);
+    /**
+     * Finishes replacements of data files by compaction or migration interrupted by a crash, so no records are in two files.
+     */
+    private void recoverFileReplacements() {
+        for (Path dir : dataDirs) {
+            try {
+                FileReplacement.recover(dir, fileNaming.maxDirectoryDepth());
+            } catch (IOException | RuntimeException e) {
+                throw new RuntimeException("Cannot finish replacement of data files in %s".formatted(dir), e);
+            }
+        }
+    }
+
+    /**
+     * Returns all storage tiers, starting with the data directory, which shares disk usage with this database.
+     */
+    private List<TierMigrator.Tier> createTiers(List<DatabaseProperties.StorageTier> storageTiers) {
+        List<TierMigrator.Tier> allTiers = new ArrayList<>();
+        allTiers.add(new TierMigrator.Tier(dataDir, diskUsageLimit, getMinDiskSpace(), diskUsageActual));
+        for (int i = 0; i < storageTiers.size(); ++i) {
+            var storageTier = storageTiers.get(i);
+            Path tierDir = dataDirs.get(i + 1);
+            var diskUsage = new DoubleAdder();
+            diskUsage.add(metrics.measureDiskUsageMB(tierDir.toString()));
+            allTiers.add(new TierMigrator.Tier(tierDir, storageTier.diskUsageLimit(),
+                    getMinDiskSpace(storageTier.diskUsageLimit(), getBlockSize(getFileStore(tierDir))), diskUsage));
+            LOG.info("Storage tier {}: '{}'. Disk usage limit: {} MB. Disk usage: {}.", i + 1, tierDir, storageTier.diskUsageLimit(),
+                    MB_FORMAT.formatted(diskUsage.sum()));
+        }
+        return List.copyOf(allTiers);
+    }
+
+    /**
+     * Returns a locked context of a file for a record, or null when the context was closed by purging, eviction or a rollover after
+     * it was taken from the map. Such a context is already removed from the map, and the caller takes a path of the record again.
+     */
+    private FileContext tryLockFileContext(String relativePath) {
+        FileContext context = getFileContext(relativePath);
+        context.lock();
+        if (!context.isClosed()) {
+            return context;
+        }
+        context.unlock();
+        return null;
+    }
+
+    /**
+     * Returns a relative path of a file for a record. It is a segment file of the record's time bucket when there are many stripes,
+     * or when the bucket rolled over to a next generation of segments.
+     */
+    private String toRelativeFilePath(String bucketPath, int generation) {
+        final int stripe = (stripeCount > 1) ? (int) (Thread.currentThread().threadId() % stripeCount) : 0;
+        return SegmentNaming.toSegmentPathStr(bucketPath, generation * stripeCount + stripe);
     }
 
+    /**
+     * Returns a generation of segments of a bucket, which is 0 until the bucket rolls over. It does no I/O.
+     */
+    private int getGeneration(String bucketPath) {
+        return bucketGenerations.getOrDefault(bucketPath, 0);
+    }
+
+    /**
+     * Finds generations of segments of buckets written before start, so files are not probed when they are opened. It lists data files
+     * of the data directory once.
+     */
+    private void loadBucketGenerations() {
+        try (Stream<Path> pathStream = Files.find(dataDir, fileNaming.maxDirectoryDepth(), DataFileBuckets.DATA_FILE_PREDICATE)) {
+            pathStream.map(path -> dataDir.relativize(path).toString()).forEach(relativePath -> {
+                int generation = SegmentNaming.toSegment(relativePath) / stripeCount;
+                if (generation > 0) {
+                    bucketGenerations.merge(SegmentNaming.toBucketPathStr(relativePath), generation, Math::max);
+                }
+            });
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot find segment files of data directory: %s".formatted(dataDir), e);
+        }
+    }
+
+    /**
+     * Moves writers of a bucket to a next generation of segments, as a file of the current one is full, and closes the file.
+     * It is called with the lock of the file's context held, so no writer that locks the context later writes the full file.
+     */
+    private void rollOver(String relativePath, FileContext context) {
+        moveToNextGeneration(relativePath);
+        close(context, relativePath);
+        fileWriters.remove(relativePath, context);
+        LOG.debug("Data file {} is full. Next records of its time bucket go to a next segment.", relativePath);
+    }
+
+    /**
+     * Returns a relative path of a file that the calling thread writes records of a bucket to, as {@link #write(Object, long)} does.
+     */
+    final String toWritePath(String bucketPath) {
+        return toRelativeFilePath(bucketPath, getGeneration(bucketPath));
+    }
+
+    /**
+     * Moves writers of a bucket to a next generation of segments, when appending bytes to a file, which is not empty, would exceed
+     * the maximum file size. It is used by bulk import, which appends a reserved file without its context. Returns true if the bucket
+     * rolled over.
+     */
+    final boolean rollOverBeforeAppend(String relativePath, long fileSize, long appendedBytes) {
+        if (maxFileBytes == 0L || fileSize == 0L || fileSize + appendedBytes <= maxFileBytes) {
+            return false;
+        }
+        moveToNextGeneration(relativePath);
+        LOG.debug("Data file {} is full. Next records of its time bucket go to a next segment.", relativePath);
+        return true;
+    }
+
+    private void moveToNextGeneration(String relativePath) {
+        bucketGenerations.merge(SegmentNaming.toBucketPathStr(relativePath), SegmentNaming.toSegment(relativePath) / stripeCount + 1,
+                Math::max);
+    }
+
+    private FileContext getFileContext(String relativePath) {
+        FileContext openContext = fileWriters.get(relativePath);
+        if (openContext != null) {
+            metrics.recordFilePoolHit();
+            return openContext;
+        }
+        metrics.recordFilePoolMiss();
+        for (;;) {
+            FileContext context = fileWriters.computeIfAbsent(relativePath, this::createFileContext);
+            if (context != null) {
+                evictLeastRecentlyUsed(context);
+                return context;
+            }
+            while (reservedPaths.contains(relativePath)) {
+                LockSupport.parkNanos(RESERVATION_WAIT_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Closes least recently used files while there are more open files than {@link DatabaseProperties#getMaxOpenFiles()}.
+     * A file being written is skipped, as it is not idle. A context is removed from the map after it is closed and with its lock held,
+     * so a writer that took it from the map before sees it closed (see {@link #tryLockFileContext(String)}).
+     */
+    private void evictLeastRecentlyUsed(FileContext keptContext) {
+        if (fileWriters.size() <= maxOpenFiles) {
+            return;
+        }
+        // last use times are taken once, as they change while sorting
+        List<EvictionCandidate> candidates = new ArrayList<>(fileWriters.size());
+        fileWriters.forEach((path, context) -> candidates.add(new EvictionCandidate(path, context, context.getLastUseNanoTime())));
+        candidates.sort(Comparator.comparingLong(EvictionCandidate::lastUseNanoTime));
+        for (var candidate : candidates) {
+            if (fileWriters.size() <= maxOpenFiles) {
+                return;
+            }
+            FileContext context = candidate.context();
+            if (context != keptContext && context.tryLock()) {
+                try {
+                    if (!context.isClosed()) {
+                        close(context, candidate.path());
+                        fileWriters.remove(candidate.path(), context);
+                        metrics.recordFileEviction();
+                        LOG.trace("Evicted db file: {}", candidate.path());
+                    }
+                } finally {
+                    context.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns null for a file reserved for compaction or bulk import. It does no I/O, as it runs in a computation of the file's
+     * mapping, which blocks other writers of the file. The file is opened later, with the context's lock held.
+     */
     private FileContext createFileContext(String relativeFilePath) {
-        Path dataFilePath = dataDir.resolve(relativeFilePath);
+        if (reservedPaths.contains(relativeFilePath)) {
+            return null;
+        }
+        return new FileContext(dataDir.resolve(relativeFilePath), diskUsageCheckDelayFunction, metrics, fileOptions);
+    }
+
+    /**
+     * Reserves a file, which is not open, for compaction or bulk import. Reserving and opening of a file are exclusive, as both run
+     * in a computation of the file's mapping. Writers of a reserved file wait until it is released.
+     */
+    final boolean reserveFile(String relativeFilePath) {
+        var reserved = new AtomicBoolean(false);
+        fileWriters.compute(relativeFilePath, (path, context) -> {
+            if (context == null) {
+                reserved.set(reservedPaths.add(path));
+            }
+            return context;
+        });
+        return reserved.get();
+    }
+
+    final void releaseFile(String relativeFilePath) {
+        reservedPaths.remove(relativeFilePath);
+    }
+
+    private void awaitTermination(ExecutorService executor) {
         try {
-            if (!Files.exists(dataFilePath)) {
-                Path parentDir = dataFilePath.getParent();
-                if (!Files.exists(parentDir)) {
-                    LOG.info("Creating data subdirectory {}...", parentDir);
-                    Files.createDirectories(parentDir);
-                }
+            if (!executor.awaitTermination(SCHEDULER_TERMINATION_SECONDS, TimeUnit.SECONDS)) {
+                LOG.warn("Background tasks of database for directory '{}' did not stop in time.", dataDir);
             }
-            return new FileContext(dataFilePath, diskUsageCheckDelayFunction);
-        } catch (IOException e) {
-            throw new RuntimeException("Cannot open data file %s".formatted(dataFilePath), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -220,4 +761,25 @@ public class Database<T> extends ReadOnlyDatabase implements Closeable {
             return Optional.empty();
         }
     }
+
+    private ObjectName registerMetricsMBean() {
+        try {
+            var name = new ObjectName("io.github.k_tomaszewski.eternaldb:type=Database,dataDir=" + ObjectName.quote(dataDir.toString()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+            return name;
+        } catch (JMException | RuntimeException e) {
+            LOG.warn("Cannot register metrics MBean for data directory '{}'.", dataDir, e);
+            return null;
+        }
+    }
+
+    private void unregisterMetricsMBean() {
+        if (metricsMBeanName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsMBeanName);
+            } catch (JMException | RuntimeException e) {
+                LOG.warn("Cannot unregister metrics MBean {}.", metricsMBeanName, e);
+            }
+        }
+    }
 }
@@ -0,0 +1,133 @@
+package io.github.k_tomaszewski.eternaldb;
+
+import io.github.k_tomaszewski.util.DiskUsageUtil;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Many time series, each a {@link Database} of its own record type, stored under one root directory. A series is kept in a
+ * subdirectory named after it. Series share one scheduler thread for background tasks and one disk usage limit. Disk usage
+ * is measured once for the whole root directory, and when the limit is reached the oldest data files of all series are deleted
+ * first, so disk space is used by series where data actually arrives.
+ * A group should be closed. Closing it closes all its series.
+ */
+public class DatabaseGroup implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DatabaseGroup.class);
+    private static final Pattern SERIES_NAME_PATTERN = Pattern.compile("[A-Za-z0-9_-][A-Za-z0-9._-]*");
+    private static final long SCHEDULER_TERMINATION_SECONDS = 10;
+
+    private final Path rootDir;
+    private final Map<String, Database<?>> series = new ConcurrentHashMap<>();
+    // series are opened one at a time, so a series is never opened twice; not a monitor, as opening does I/O on callers' threads
+    private final ReentrantLock seriesOpeningLock = new ReentrantLock();
+
+    // shared by series
+    final long diskUsageLimit;
+    final DoubleAdder diskUsage = new DoubleAdder();
+    final AtomicBoolean diskSpaceReclaiming = new AtomicBoolean(false);
+    final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * @param rootDir Root directory of all series.
+     * @param diskUsageLimit Limit of disk space used by all series, in megabytes.
+     */
+    public DatabaseGroup(Path rootDir, long diskUsageLimit) {
+        this.rootDir = rootDir;
+        this.diskUsageLimit = diskUsageLimit;
+        try {
+            Files.createDirectories(rootDir);
+        } catch (IOException e) {
+            scheduler.shutdownNow();
+            throw new RuntimeException("Cannot create root directory of database group: %s".formatted(rootDir), e);
+        }
+        diskUsage.add(DiskUsageUtil.getDiskUsageMB(rootDir.toString()));
+        LOG.info("Database group root directory: '{}'. Disk usage limit: {} MB. Disk usage: {} MB.", rootDir, diskUsageLimit,
+                diskUsage.sum());
+    }
+
+    /**
+     * Returns a series with default properties, opening it if needed.
+     */
+    public <T> Database<T> series(String name) {
+        return series(name, new DatabaseProperties<>());
+    }
+
+    /**
+     * Returns a series, opening it with the given properties if needed. A data directory and a disk usage limit are set by the group
+     * on a copy of the properties. A series is opened outside the map of series, as it does I/O, so reads of open series don't wait.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Database<T> series(String name, DatabaseProperties<T> config) {
+        Validate.isTrue(SERIES_NAME_PATTERN.matcher(name).matches(), "Invalid series name: %s", name);
+        Database<?> openSeries = series.get(name);
+        if (openSeries != null) {
+            return (Database<T>) openSeries;
+        }
+        seriesOpeningLock.lock();
+        try {
+            openSeries = series.get(name);
+            if (openSeries != null) {
+                return (Database<T>) openSeries;
+            }
+            var seriesConfig = new DatabaseProperties<>(config).setDataDir(rootDir.resolve(name)).setDiskUsageLimit(diskUsageLimit);
+            Database<T> newSeries = new Database<>(seriesConfig, this);
+            series.put(name, newSeries);
+            return newSeries;
+        } finally {
+            seriesOpeningLock.unlock();
+        }
+    }
+
+    public final double getActualDiskUsageMB() {
+        return diskUsage.doubleValue();
+    }
+
+    @Override
+    public void close() {
+        List<Database<?>> openSeries = new ArrayList<>(series.values());
+        openSeries.forEach(Database::close);
+        scheduler.shutdownNow();
+        try {
+            if (!scheduler.awaitTermination(SCHEDULER_TERMINATION_SECONDS, TimeUnit.SECONDS)) {
+                LOG.warn("Background tasks of database group for directory '{}' did not stop in time.", rootDir);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        LOG.info("Closed database group for directory '{}'.", rootDir);
+    }
+
+    void onSeriesClosed(Database<?> closedSeries) {
+        series.values().remove(closedSeries);
+    }
+
+    /**
+     * Returns data directories of all series, including series not open.
+     */
+    List<Path> listSeriesDirs() {
+        try (Stream<Path> dirs = Files.list(rootDir)) {
+            return dirs.filter(Files::isDirectory).sorted().toList();
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot list series of database group: %s".formatted(rootDir), e);
+        }
+    }
+}
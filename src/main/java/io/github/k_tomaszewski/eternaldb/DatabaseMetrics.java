@@ -0,0 +1,290 @@
+package io.github.k_tomaszewski.eternaldb;
+
+import io.github.k_tomaszewski.util.DiskUsageUtil;
+
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Counters and latency histograms of a database. Recording is lock-free, so it can be done on the write path.
+ * An instance is available with {@link ReadOnlyDatabase#getMetrics()}. A {@link Database} registers it as a JMX MBean as well.
+ */
+public class DatabaseMetrics implements DatabaseMetricsMXBean {
+
+    private static final long NANOS_IN_MICRO = 1000L;
+
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+    private final LongAdder bytesAppended = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder forces = new LongAdder();
+    private final LatencyHistogram diskUsageChecks = new LatencyHistogram();
+    private final LatencyHistogram reclaims = new LatencyHistogram();
+    private final DoubleAdder reclaimedMB = new DoubleAdder();
+    private final LongAdder readQueries = new LongAdder();
+    private final LongAdder filesScanned = new LongAdder();
+    private final LongAdder sortsSkipped = new LongAdder();
+    private final LongAdder filesReadAhead = new LongAdder();
+    private final LongAdder filesSkippedByKeyFilter = new LongAdder();
+    private final LongAdder recordCacheHits = new LongAdder();
+    private final LongAdder recordCacheMisses = new LongAdder();
+    private final LatencyHistogram compactions = new LatencyHistogram();
+    private final LongAdder filesCompacted = new LongAdder();
+    private final LongAdder filePoolHits = new LongAdder();
+    private final LongAdder filePoolMisses = new LongAdder();
+    private final LongAdder fileEvictions = new LongAdder();
+    private final LongAdder filesMigrated = new LongAdder();
+    private volatile IntSupplier openFileCount = () -> 0;
+
+    public LatencyHistogram getWriteLatency() {
+        return writeLatency;
+    }
+
+    public LatencyHistogram getDiskUsageCheckLatency() {
+        return diskUsageChecks;
+    }
+
+    public LatencyHistogram getReclaimLatency() {
+        return reclaims;
+    }
+
+    @Override
+    public long getWriteCount() {
+        return writeLatency.getCount();
+    }
+
+    @Override
+    public double getWriteLatencyMeanMicros() {
+        return writeLatency.getMeanNanos() / NANOS_IN_MICRO;
+    }
+
+    @Override
+    public long getWriteLatencyP50Micros() {
+        return writeLatency.getValueAtPercentile(50.0) / NANOS_IN_MICRO;
+    }
+
+    @Override
+    public long getWriteLatencyP99Micros() {
+        return writeLatency.getValueAtPercentile(99.0) / NANOS_IN_MICRO;
+    }
+
+    @Override
+    public long getWriteLatencyMaxMicros() {
+        return writeLatency.getMaxNanos() / NANOS_IN_MICRO;
+    }
+
+    @Override
+    public long getBytesAppended() {
+        return bytesAppended.sum();
+    }
+
+    @Override
+    public int getOpenFileCount() {
+        return openFileCount.getAsInt();
+    }
+
+    @Override
+    public long getFlushCount() {
+        return flushes.sum();
+    }
+
+    @Override
+    public long getForceCount() {
+        return forces.sum();
+    }
+
+    @Override
+    public long getDiskUsageCheckCount() {
+        return diskUsageChecks.getCount();
+    }
+
+    @Override
+    public double getDiskUsageCheckMeanMicros() {
+        return diskUsageChecks.getMeanNanos() / NANOS_IN_MICRO;
+    }
+
+    @Override
+    public long getDiskUsageCheckP99Micros() {
+        return diskUsageChecks.getValueAtPercentile(99.0) / NANOS_IN_MICRO;
+    }
+
+    @Override
+    public long getReclaimCount() {
+        return reclaims.getCount();
+    }
+
+    @Override
+    public double getReclaimedMB() {
+        return reclaimedMB.sum();
+    }
+
+    @Override
+    public long getReclaimTotalMicros() {
+        return reclaims.getTotalNanos() / NANOS_IN_MICRO;
+    }
+
+    @Override
+    public long getReclaimMaxMicros() {
+        return reclaims.getMaxNanos() / NANOS_IN_MICRO;
+    }
+
+    @Override
+    public long getReadQueryCount() {
+        return readQueries.sum();
+    }
+
+    @Override
+    public long getFilesScanned() {
+        return filesScanned.sum();
+    }
+
+    @Override
+    public long getFilesReadWithoutSorting() {
+        return sortsSkipped.sum();
+    }
+
+    @Override
+    public long getFilesReadAhead() {
+        return filesReadAhead.sum();
+    }
+
+    @Override
+    public long getFilesSkippedByKeyFilter() {
+        return filesSkippedByKeyFilter.sum();
+    }
+
+    @Override
+    public long getRecordCacheHits() {
+        return recordCacheHits.sum();
+    }
+
+    @Override
+    public long getRecordCacheMisses() {
+        return recordCacheMisses.sum();
+    }
+
+    @Override
+    public long getCompactionCount() {
+        return compactions.getCount();
+    }
+
+    @Override
+    public long getFilesCompacted() {
+        return filesCompacted.sum();
+    }
+
+    @Override
+    public long getCompactionTotalMicros() {
+        return compactions.getTotalNanos() / NANOS_IN_MICRO;
+    }
+
+    @Override
+    public long getFilePoolHits() {
+        return filePoolHits.sum();
+    }
+
+    @Override
+    public long getFilePoolMisses() {
+        return filePoolMisses.sum();
+    }
+
+    @Override
+    public long getFileEvictions() {
+        return fileEvictions.sum();
+    }
+
+    @Override
+    public long getFilesMigrated() {
+        return filesMigrated.sum();
+    }
+
+    void setOpenFileCountSupplier(IntSupplier openFileCount) {
+        this.openFileCount = openFileCount;
+    }
+
+    void recordWrite(long nanos) {
+        writeLatency.record(nanos);
+    }
+
+    void recordBytesAppended(long bytes) {
+        bytesAppended.add(bytes);
+    }
+
+    void recordFlush() {
+        flushes.increment();
+    }
+
+    void recordForce() {
+        forces.increment();
+    }
+
+    void recordReclaim(double freedMB, long nanos) {
+        reclaimedMB.add(freedMB);
+        reclaims.record(nanos);
+    }
+
+    void recordReadQuery() {
+        readQueries.increment();
+    }
+
+    void recordFileScanned() {
+        filesScanned.increment();
+    }
+
+    void recordSortSkipped() {
+        sortsSkipped.increment();
+    }
+
+    void recordFileReadAhead() {
+        filesReadAhead.increment();
+    }
+
+    void recordFileSkippedByKeyFilter() {
+        filesSkippedByKeyFilter.increment();
+    }
+
+    void recordCacheHit() {
+        recordCacheHits.increment();
+    }
+
+    void recordCacheMiss() {
+        recordCacheMisses.increment();
+    }
+
+    void recordCompaction(int sourceFileCount, long nanos) {
+        filesCompacted.add(sourceFileCount);
+        compactions.record(nanos);
+    }
+
+    void recordFilePoolHit() {
+        filePoolHits.increment();
+    }
+
+    void recordFilePoolMiss() {
+        filePoolMisses.increment();
+    }
+
+    void recordFileEviction() {
+        fileEvictions.increment();
+    }
+
+    void recordFileMigrated() {
+        filesMigrated.increment();
+    }
+
+    /**
+     * Calls {@link DiskUsageUtil#getDiskUsageKB(String)} and records how long it took.
+     */
+    long measureDiskUsageKB(String path) {
+        final long startNanos = System.nanoTime();
+        try {
+            return DiskUsageUtil.getDiskUsageKB(path);
+        } finally {
+            diskUsageChecks.record(System.nanoTime() - startNanos);
+        }
+    }
+
+    double measureDiskUsageMB(String path) {
+        return measureDiskUsageKB(path) / 1024.0;
+    }
+}
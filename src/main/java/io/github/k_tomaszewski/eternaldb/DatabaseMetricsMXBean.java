@@ -0,0 +1,67 @@
+package io.github.k_tomaszewski.eternaldb;
+
+/**
+ * JMX view of {@link DatabaseMetrics}. Durations are given in microseconds.
+ */
+public interface DatabaseMetricsMXBean {
+
+    long getWriteCount();
+
+    double getWriteLatencyMeanMicros();
+
+    long getWriteLatencyP50Micros();
+
+    long getWriteLatencyP99Micros();
+
+    long getWriteLatencyMaxMicros();
+
+    long getBytesAppended();
+
+    int getOpenFileCount();
+
+    long getFlushCount();
+
+    long getForceCount();
+
+    long getDiskUsageCheckCount();
+
+    double getDiskUsageCheckMeanMicros();
+
+    long getDiskUsageCheckP99Micros();
+
+    long getReclaimCount();
+
+    double getReclaimedMB();
+
+    long getReclaimTotalMicros();
+
+    long getReclaimMaxMicros();
+
+    long getReadQueryCount();
+
+    long getFilesScanned();
+
+    long getFilesReadWithoutSorting();
+
+    long getFilesReadAhead();
+
+    long getFilesSkippedByKeyFilter();
+
+    long getRecordCacheHits();
+
+    long getRecordCacheMisses();
+
+    long getCompactionCount();
+
+    long getFilesCompacted();
+
+    long getCompactionTotalMicros();
+
+    long getFilePoolHits();
+
+    long getFilePoolMisses();
+
+    long getFileEvictions();
+
+    long getFilesMigrated();
+}
@@ -4,6 +4,8 @@ import org.apache.commons.lang3.Validate;
 
 import java.nio.file.Path;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 import java.util.function.BooleanSupplier;
 import java.util.function.ToLongFunction;
@@ -14,6 +16,17 @@ import java.util.function.ToLongFunction;
  */
 public class DatabaseProperties<T> {
 
+    /**
+     * A data directory of a storage tier, with its own limit of disk space in megabytes.
+     */
+    public record StorageTier(Path dataDir, long diskUsageLimit) {
+
+        public StorageTier {
+            Objects.requireNonNull(dataDir, "Data directory of a storage tier cannot be null");
+            Validate.isTrue(diskUsageLimit > 0L, "Disk usage limit of a storage tier must be positive");
+        }
+    }
+
     private Path dataDir;
     private long diskUsageLimit;
     private SerializationStrategy serialization = new JacksonSerialization();
@@ -24,6 +37,22 @@ public class DatabaseProperties<T> {
     private Duration fileMaxIdleTime = Duration.ofMinutes(5);
     private BooleanSupplier flushCondition;
     private boolean createDirs = true;
+    private boolean jmxEnabled = true;
+    private int stripeCount = 1;
+    private long maxFileSizeMB;
+    private Durability durability = Durability.NONE;
+    private Duration durabilityInterval = Duration.ofSeconds(1);
+    private AppendEngine appendEngine = AppendEngine.BUFFERED_WRITER;
+    private int writeBufferSize = 8192;
+    private Duration compactionInterval;
+    private long compactionMergeLimitMB = 16;
+    private long recordCacheSizeMB;
+    private long readAheadBudgetMB;
+    private int maxOpenFiles = 256;
+    private List<String> numericColumns = List.of();
+    private List<String> stringColumns = List.of();
+    private String keyField;
+    private List<StorageTier> storageTiers = List.of();
 
     public DatabaseProperties() {
     }
@@ -38,6 +67,36 @@ public class DatabaseProperties<T> {
         this.diskUsageLimit = diskUsageLimit;
     }
 
+    /**
+     * Creates a copy of given properties.
+     */
+    public DatabaseProperties(DatabaseProperties<T> other) {
+        dataDir = other.dataDir;
+        diskUsageLimit = other.diskUsageLimit;
+        serialization = other.serialization;
+        fileNaming = other.fileNaming;
+        timestampSupplier = other.timestampSupplier;
+        fileMaxIdleTime = other.fileMaxIdleTime;
+        flushCondition = other.flushCondition;
+        createDirs = other.createDirs;
+        jmxEnabled = other.jmxEnabled;
+        stripeCount = other.stripeCount;
+        maxFileSizeMB = other.maxFileSizeMB;
+        durability = other.durability;
+        durabilityInterval = other.durabilityInterval;
+        appendEngine = other.appendEngine;
+        writeBufferSize = other.writeBufferSize;
+        compactionInterval = other.compactionInterval;
+        compactionMergeLimitMB = other.compactionMergeLimitMB;
+        recordCacheSizeMB = other.recordCacheSizeMB;
+        readAheadBudgetMB = other.readAheadBudgetMB;
+        maxOpenFiles = other.maxOpenFiles;
+        numericColumns = other.numericColumns;
+        stringColumns = other.stringColumns;
+        keyField = other.keyField;
+        storageTiers = other.storageTiers;
+    }
+
     public Path getDataDir() {
         return dataDir;
     }
@@ -117,4 +176,247 @@ public class DatabaseProperties<T> {
         this.createDirs = createDirs;
         return this;
     }
+
+    public boolean getJmxEnabled() {
+        return jmxEnabled;
+    }
+
+    /**
+     * Controls registering of {@link DatabaseMetrics} as a JMX MBean by a {@link Database}. Enabled by default.
+     */
+    public DatabaseProperties<T> setJmxEnabled(boolean jmxEnabled) {
+        this.jmxEnabled = jmxEnabled;
+        return this;
+    }
+
+    public int getStripeCount() {
+        return stripeCount;
+    }
+
+    /**
+     * Number of segment files written in parallel for each time bucket. With the default value of 1 all writers of a time bucket
+     * share a single data file. With N > 1 each writing thread is assigned to one of N segment files (like `2024-05-01_1300.s3.data`),
+     * so writers contend less for a file, and readers merge segments by timestamps.
+     */
+    public DatabaseProperties<T> setStripeCount(int stripeCount) {
+        Validate.isTrue(stripeCount >= 1, "Stripe count must be at least 1");
+        this.stripeCount = stripeCount;
+        return this;
+    }
+
+    public long getMaxFileSizeMB() {
+        return maxFileSizeMB;
+    }
+
+    /**
+     * Size of a data file, in megabytes, after which records of its time bucket go to a next segment file (like
+     * `2024-05-01_1300.s1.data`), so files stay small for readers sorting them and for reclaiming of disk space. The size is checked
+     * every few writes, so a file may exceed it by a few records and a write buffer. Compaction does not merge segments beyond this size.
+     * Default is 0, which means no limit.
+     */
+    public DatabaseProperties<T> setMaxFileSizeMB(long maxFileSizeMB) {
+        Validate.isTrue(maxFileSizeMB >= 0L, "Max file size must be not negative");
+        this.maxFileSizeMB = maxFileSizeMB;
+        return this;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Durability mode. See {@link Durability}. Default is {@link Durability#NONE}.
+     */
+    public DatabaseProperties<T> setDurability(Durability durability) {
+        this.durability = Objects.requireNonNull(durability, "Durability must be not null");
+        return this;
+    }
+
+    public Duration getDurabilityInterval() {
+        return durabilityInterval;
+    }
+
+    /**
+     * Interval for {@link Durability#FLUSH_INTERVAL} and {@link Durability#FSYNC_INTERVAL} modes, which is also the bound of
+     * a data-loss window. Default is 1 second.
+     */
+    public DatabaseProperties<T> setDurabilityInterval(Duration durabilityInterval) {
+        this.durabilityInterval = Objects.requireNonNull(durabilityInterval, "Durability interval must be not null");
+        Validate.isTrue(durabilityInterval.toMillis() >= 1L, "Durability interval must be at least 1 millisecond");
+        return this;
+    }
+
+    public DatabaseProperties<T> withDurability(Durability durability, Duration interval) {
+        return setDurability(durability).setDurabilityInterval(interval);
+    }
+
+    public AppendEngine getAppendEngine() {
+        return appendEngine;
+    }
+
+    /**
+     * How records are appended to data files. See {@link AppendEngine}. Default is {@link AppendEngine#BUFFERED_WRITER}.
+     */
+    public DatabaseProperties<T> setAppendEngine(AppendEngine appendEngine) {
+        this.appendEngine = Objects.requireNonNull(appendEngine, "Append engine must be not null");
+        return this;
+    }
+
+    public int getWriteBufferSize() {
+        return writeBufferSize;
+    }
+
+    /**
+     * Size of a write buffer of each open data file: in bytes for {@link AppendEngine#DIRECT_BUFFER}, in chars for
+     * {@link AppendEngine#BUFFERED_WRITER}. Default is 8192.
+     */
+    public DatabaseProperties<T> setWriteBufferSize(int writeBufferSize) {
+        Validate.isTrue(writeBufferSize >= 64, "Write buffer size must be at least 64");
+        this.writeBufferSize = writeBufferSize;
+        return this;
+    }
+
+    public Duration getCompactionInterval() {
+        return compactionInterval;
+    }
+
+    /**
+     * Interval of background compaction of sealed data files. Compaction sorts files written out of order, merges segment files
+     * and merges small files of adjacent time buckets, when a file naming strategy allows it
+     * (see {@link FileNamingStrategy#toMergedRelativePathStr(String)}). Default is null, which disables compaction.
+     */
+    public DatabaseProperties<T> setCompactionInterval(Duration compactionInterval) {
+        Validate.isTrue(compactionInterval == null || compactionInterval.toMillis() >= 1L,
+                "Compaction interval must be at least 1 millisecond");
+        this.compactionInterval = compactionInterval;
+        return this;
+    }
+
+    public long getCompactionMergeLimitMB() {
+        return compactionMergeLimitMB;
+    }
+
+    /**
+     * Files of adjacent time buckets are merged by compaction only if their total size is not bigger than this limit, in megabytes.
+     * Zero disables merging. Default is 16.
+     */
+    public DatabaseProperties<T> setCompactionMergeLimitMB(long compactionMergeLimitMB) {
+        Validate.isTrue(compactionMergeLimitMB >= 0L, "Compaction merge limit must be not negative");
+        this.compactionMergeLimitMB = compactionMergeLimitMB;
+        return this;
+    }
+
+    public long getRecordCacheSizeMB() {
+        return recordCacheSizeMB;
+    }
+
+    /**
+     * Size of a cache of decoded records of data files of past time buckets, in megabytes. Repeated reads of the same files
+     * of the same type are served from memory, until the files change. Size of cached records is estimated by size of their files.
+     * Cached records are shared by reads, so they should not be modified. Default is 0, which disables the cache.
+     */
+    public DatabaseProperties<T> setRecordCacheSizeMB(long recordCacheSizeMB) {
+        Validate.isTrue(recordCacheSizeMB >= 0L, "Record cache size must be not negative");
+        this.recordCacheSizeMB = recordCacheSizeMB;
+        return this;
+    }
+
+    public long getReadAheadBudgetMB() {
+        return readAheadBudgetMB;
+    }
+
+    /**
+     * Heap size of lines of data files of a time bucket that a read may load into memory in advance, in megabytes. It is estimated
+     * from lengths of lines, and a line takes a few dozen bytes more than in a file. While a bucket is read, files of the next bucket
+     * are read and sorted on a virtual thread, so a long scan doesn't wait for a disk at each bucket. Files of the current bucket,
+     * which may be appended, are not read in advance. Default is 0, which disables reading ahead.
+     */
+    public DatabaseProperties<T> setReadAheadBudgetMB(long readAheadBudgetMB) {
+        Validate.isTrue(readAheadBudgetMB >= 0L, "Read-ahead budget must be not negative");
+        this.readAheadBudgetMB = readAheadBudgetMB;
+        return this;
+    }
+
+    public int getMaxOpenFiles() {
+        return maxOpenFiles;
+    }
+
+    /**
+     * Maximum number of data files open for writing. When it is exceeded, least recently used files are closed, so file descriptors
+     * and write buffers stay bounded, eg. when a long period of data is backfilled. Default is 256.
+     */
+    public DatabaseProperties<T> setMaxOpenFiles(int maxOpenFiles) {
+        Validate.isTrue(maxOpenFiles > 0, "Max open files must be positive");
+        this.maxOpenFiles = maxOpenFiles;
+        return this;
+    }
+
+    public List<String> getNumericColumns() {
+        return numericColumns;
+    }
+
+    /**
+     * Top-level numeric fields of records, which are kept in columnar sidecar files of sealed data files, for fast analytic reads
+     * with {@link ReadOnlyDatabase#readColumns(Long, Long, String...)}. Sidecar files are written by compaction
+     * (see {@link #setCompactionInterval(Duration)}), for time buckets with a single sorted data file. Data files are not changed.
+     * Default is an empty list.
+     */
+    public DatabaseProperties<T> setNumericColumns(List<String> numericColumns) {
+        this.numericColumns = List.copyOf(numericColumns);
+        return this;
+    }
+
+    public List<String> getStringColumns() {
+        return stringColumns;
+    }
+
+    /**
+     * Top-level string fields of records, which are kept in columnar sidecar files encoded with a dictionary, so they should have
+     * few distinct values, like device IDs. See {@link #setNumericColumns(List)}. Default is an empty list.
+     */
+    public DatabaseProperties<T> setStringColumns(List<String> stringColumns) {
+        this.stringColumns = List.copyOf(stringColumns);
+        return this;
+    }
+
+    public String getKeyField() {
+        return keyField;
+    }
+
+    /**
+     * Top-level field of records with their keys, like a device ID, which values are strings or integers. Compaction
+     * (see {@link #setCompactionInterval(Duration)}) writes a Bloom filter of keys of each sealed data file next to it, so reads
+     * of a key with {@link ReadOnlyDatabase#read(Class, Long, Long, String)} open only files that may have records of the key.
+     * Default is null, which disables key filters.
+     */
+    public DatabaseProperties<T> setKeyField(String keyField) {
+        Validate.isTrue(keyField == null || !keyField.isEmpty(), "Key field cannot be empty");
+        this.keyField = keyField;
+        return this;
+    }
+
+    public List<StorageTier> getStorageTiers() {
+        return storageTiers;
+    }
+
+    /**
+     * Storage tiers after the first one, which is given by {@link #getDataDir()} and {@link #getDiskUsageLimit()}, from faster
+     * to slower.
+     */
+    public DatabaseProperties<T> setStorageTiers(List<StorageTier> storageTiers) {
+        this.storageTiers = List.copyOf(storageTiers);
+        return this;
+    }
+
+    /**
+     * Adds a next, slower storage tier. New data files are written to the first tier - {@link #getDataDir()}. When a tier nears its
+     * disk usage limit, its oldest data files are moved to the next tier. Oldest data files are deleted from the last tier only.
+     * Reads span all tiers.
+     */
+    public DatabaseProperties<T> addStorageTier(Path dataDir, long diskUsageLimit) {
+        List<StorageTier> tiers = new ArrayList<>(storageTiers);
+        tiers.add(new StorageTier(dataDir, diskUsageLimit));
+        storageTiers = List.copyOf(tiers);
+        return this;
+    }
 }
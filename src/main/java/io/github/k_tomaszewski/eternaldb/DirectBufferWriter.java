@@ -0,0 +1,128 @@
+package io.github.k_tomaszewski.eternaldb;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writer encoding characters as UTF-8 in bulk straight into a direct (off-heap) byte buffer, which is written to a file channel when
+ * full, flushed or closed. This avoids heap byte arrays and copies of strings between a serializer and a file. Malformed surrogate
+ * pairs are written as '?', like {@link java.io.OutputStreamWriter} does.
+ * Not thread-safe - this is guarded by a lock of {@link FileContext}.
+ */
+class DirectBufferWriter extends Writer {
+
+    private static final int MAX_BYTES_PER_CHAR = 4;
+    private static final byte REPLACEMENT = '?';
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final DatabaseMetrics metrics;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    // a high surrogate ending previous input and the first char of next input
+    private final char[] pair = new char[2];
+    private final CharBuffer pairBuffer = CharBuffer.wrap(pair);
+    private final CharBuffer singleChar = CharBuffer.allocate(1);
+    private char pendingHighSurrogate;
+
+    DirectBufferWriter(FileChannel channel, int bufferSize, DatabaseMetrics metrics) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, MAX_BYTES_PER_CHAR));
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        singleChar.clear();
+        singleChar.put((char) c).flip();
+        encode(singleChar);
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) throws IOException {
+        encode(CharBuffer.wrap(chars, offset, length));
+    }
+
+    @Override
+    public void write(String str, int offset, int length) throws IOException {
+        encode(CharBuffer.wrap(str, offset, offset + length));
+    }
+
+    @Override
+    public Writer append(CharSequence csq) throws IOException {
+        encode(CharBuffer.wrap(csq != null ? csq : "null"));
+        return this;
+    }
+
+    @Override
+    public Writer append(CharSequence csq, int start, int end) throws IOException {
+        encode(CharBuffer.wrap(csq != null ? csq : "null", start, end));
+        return this;
+    }
+
+    @Override
+    public Writer append(char c) throws IOException {
+        write(c);
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (channel) {
+            if (pendingHighSurrogate != 0) {
+                pendingHighSurrogate = 0;
+                if (!buffer.hasRemaining()) {
+                    drain();
+                }
+                buffer.put(REPLACEMENT);
+            }
+            drain();
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        final int byteCount = buffer.remaining();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            buffer.compact();
+            metrics.recordBytesAppended(byteCount - buffer.position());
+        }
+    }
+
+    private void encode(CharBuffer chars) throws IOException {
+        if (pendingHighSurrogate != 0 && chars.hasRemaining()) {
+            pair[0] = pendingHighSurrogate;
+            pair[1] = chars.get();
+            pendingHighSurrogate = 0;
+            pairBuffer.clear();
+            encodeAvailable(pairBuffer);
+        }
+        encodeAvailable(chars);
+    }
+
+    private void encodeAvailable(CharBuffer chars) throws IOException {
+        while (encoder.encode(chars, buffer, false).isOverflow()) {
+            drain();
+        }
+        if (chars.hasRemaining()) {
+            // the encoder waits for a low surrogate, which may come with next input
+            pendingHighSurrogate = chars.get();
+        }
+    }
+}
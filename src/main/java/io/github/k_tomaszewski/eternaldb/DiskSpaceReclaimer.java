@@ -9,9 +9,13 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.DoubleAdder;
 import java.util.function.BiPredicate;
+import java.util.function.ToDoubleFunction;
 import java.util.stream.Stream;
 
 public class DiskSpaceReclaimer implements Runnable {
@@ -19,33 +23,53 @@ public class DiskSpaceReclaimer implements Runnable {
     private static final Logger LOG = LoggerFactory.getLogger(DiskSpaceReclaimer.class);
     private static final BiPredicate<Path, BasicFileAttributes> ANY_PATH_PREDICATE = (x, y) -> true;
 
-    private final Path dataDir;
+    private final List<Path> dataDirs;
     private final double spaceToReclaimMB;
     private final AtomicBoolean diskSpaceReclaiming;
     private final DoubleAdder diskUsageActual;
+    private final DatabaseMetrics metrics;
 
     public DiskSpaceReclaimer(Path dataDir, double spaceToReclaimMB, AtomicBoolean diskSpaceReclaiming, DoubleAdder diskUsageActual) {
-        this.dataDir = dataDir;
+        this(dataDir, spaceToReclaimMB, diskSpaceReclaiming, diskUsageActual, new DatabaseMetrics());
+    }
+
+    public DiskSpaceReclaimer(Path dataDir, double spaceToReclaimMB, AtomicBoolean diskSpaceReclaiming, DoubleAdder diskUsageActual,
+            DatabaseMetrics metrics) {
+        this(List.of(dataDir), spaceToReclaimMB, diskSpaceReclaiming, diskUsageActual, metrics);
+    }
+
+    /**
+     * Reclaims disk space of many data directories sharing a disk usage limit, like series of a {@link DatabaseGroup}. Oldest files
+     * of all directories go first, as files are ordered by their paths relative to their data directories.
+     */
+    DiskSpaceReclaimer(List<Path> dataDirs, double spaceToReclaimMB, AtomicBoolean diskSpaceReclaiming, DoubleAdder diskUsageActual,
+            DatabaseMetrics metrics) {
+        this.dataDirs = dataDirs;
         this.spaceToReclaimMB = spaceToReclaimMB;
         this.diskSpaceReclaiming = diskSpaceReclaiming;
         this.diskUsageActual = diskUsageActual;
+        this.metrics = metrics;
     }
 
     @Override
     public void run() {
         LOG.info("Disk space reclaiming started with target to free {} MB...", spaceToReclaimMB);
+        final long startNanos = System.nanoTime();
         double spaceReclaimedMB = 0.0;
-        try (Stream<Path> pathStream = Files.find(dataDir, Integer.MAX_VALUE, ANY_PATH_PREDICATE)) {
-            var iterator = pathStream.sorted().iterator();
+        try (Stream<Path> pathStream = findPaths()) {
+            var iterator = pathStream.iterator();
 
             while (spaceReclaimedMB < spaceToReclaimMB && iterator.hasNext()) {
                 Path path = iterator.next();
                 if (Files.isDirectory(path)) {
                     if (FileUtils.isEmptyDir(path)) {
-                        spaceReclaimedMB += remove(path);
+                        spaceReclaimedMB += remove(path, metrics::measureDiskUsageMB);
+                    }
+                } else if (Files.exists(path)) {      // a sidecar may be deleted with its data file already
+                    spaceReclaimedMB += remove(path, metrics::measureDiskUsageMB);
+                    if (!SidecarFiles.isSidecar(path)) {
+                        spaceReclaimedMB += removeMetadataSidecars(path);
                     }
-                } else {
-                    spaceReclaimedMB += remove(path);
                 }
             }
 
@@ -54,14 +78,48 @@ public class DiskSpaceReclaimer implements Runnable {
         } catch (IOException e) {
             LOG.warn("Disk space reclaiming failure. {} MB reclaimed.", spaceReclaimedMB, e);
         } finally {
+            metrics.recordReclaim(spaceReclaimedMB, System.nanoTime() - startNanos);
             diskSpaceReclaiming.set(false);
         }
     }
 
+    private Stream<Path> findPaths() throws IOException {
+        if (dataDirs.size() == 1) {
+            return Files.find(dataDirs.getFirst(), Integer.MAX_VALUE, ANY_PATH_PREDICATE).sorted();
+        }
+        List<Path> paths = new ArrayList<>();
+        for (Path dataDir : dataDirs) {
+            try (Stream<Path> pathStream = Files.find(dataDir, Integer.MAX_VALUE, (path, attributes) -> !path.equals(dataDir))) {
+                pathStream.forEach(paths::add);
+            }
+        }
+        paths.sort(Comparator.comparing((Path path) -> DataFileBuckets.toRelativePathStr(dataDirs, path))
+                .thenComparing(Comparator.naturalOrder()));
+        return paths.stream();
+    }
+
+    /**
+     * Removes sidecars with metadata of a removed data file, so no sidecar is left without its data file when the target is reached.
+     */
+    private double removeMetadataSidecars(Path dataFile) {
+        double spaceReclaimedMB = 0.0;
+        for (String suffix : SidecarFiles.METADATA_SUFFIXES) {
+            Path sidecarPath = SidecarFiles.of(dataFile, suffix);
+            if (Files.exists(sidecarPath)) {
+                spaceReclaimedMB += remove(sidecarPath, metrics::measureDiskUsageMB);
+            }
+        }
+        return spaceReclaimedMB;
+    }
+
     static double remove(Path path) {
+        return remove(path, DiskUsageUtil::getDiskUsageMB);
+    }
+
+    static double remove(Path path, ToDoubleFunction<String> diskUsageMB) {
         double itemSpaceMB = 0.0;
         try {
-            itemSpaceMB = DiskUsageUtil.getDiskUsageMB(path.toString());
+            itemSpaceMB = diskUsageMB.applyAsDouble(path.toString());
             Files.deleteIfExists(path);
             return itemSpaceMB;
         } catch (Exception e) {
@@ -0,0 +1,33 @@
+package io.github.k_tomaszewski.eternaldb;
+
+/**
+ * Controls when written records are handed over to an operating system and when they are forced to a storage device. An interval
+ * used by some modes is given by {@link DatabaseProperties#setDurabilityInterval(java.time.Duration)}.
+ */
+public enum Durability {
+
+    /**
+     * Records are written to a file when a write buffer is full, a file is closed, or a flush condition is met
+     * (see {@link DatabaseProperties#setFlushCondition(java.util.function.BooleanSupplier)}). This is the default.
+     */
+    NONE,
+
+    /**
+     * Write buffers of all files are flushed to an operating system every interval. Records survive a crash of JVM written
+     * earlier than the interval, but not a crash of the operating system.
+     */
+    FLUSH_INTERVAL,
+
+    /**
+     * Write buffers of all files are flushed and the files are forced to a storage device (fsync) every interval, with one
+     * background force per file covering all writes from the interval. Records written earlier than the interval survive a power loss.
+     */
+    FSYNC_INTERVAL,
+
+    /**
+     * Group commit: a write returns only after its file was forced to a storage device. A background thread forces files
+     * continuously, and a single force covers all writes that were waiting for it, so the cost of fsync is shared by concurrent
+     * writers. The interval is not used.
+     */
+    FSYNC_GROUP
+}
@@ -1,79 +1,366 @@
 package io.github.k_tomaszewski.eternaldb;
 
-import io.github.k_tomaszewski.util.DiskUsageUtil;
 import io.github.k_tomaszewski.util.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedWriter;
 import java.io.Closeable;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.IntUnaryOperator;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.nio.file.StandardOpenOption.APPEND;
 import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
 
+/**
+ * Open data file. Writing to it must be guarded with {@link #lock()}. A {@link ReentrantLock} is used instead of a monitor, so
+ * virtual threads waiting for the file or doing blocking I/O while holding it don't pin their carrier threads.
+ * A file context tracks if records were appended in timestamp order. If so, the file gets a sorted marker (a sidecar file) when it is
+ * closed (sealed), so readers can skip sorting it. The marker is removed when the file is opened for writing again.
+ */
 class FileContext implements Closeable {
 
     private static final Logger LOG = LoggerFactory.getLogger(FileContext.class);
 
     private final Path path;
-    private final BufferedWriter fileWriter;
+    private final Path sortedMarkerPath;
+    private final Options options;
     private final IntUnaryOperator diskUsageCheckDelayFunction;
-    private long lastUseNanoTime;
-    private long lastDiskUsageKB;
+    private final DatabaseMetrics metrics;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final AtomicBoolean diskUsageChecking = new AtomicBoolean(false);
+    private final AtomicLong lastDiskUsageKB = new AtomicLong();
+    private volatile FileChannel channel;
+    private Writer fileWriter;
+    private volatile long lastUseNanoTime;
+    private volatile boolean unflushed;
+    private volatile boolean unforced;
     private int timesToDiskUsageCheck;
+    private boolean sorted;
+    private boolean created;
+    private boolean appended;
+    private boolean closed;
+    private long lastRecordMillis = Long.MIN_VALUE;
+    // disk usage of sorted markers written minus deleted, not reported yet
+    private long sortedMarkerGrowthKB;
 
-    FileContext(Path path, IntUnaryOperator diskUsageCheckDelayFunction) throws IOException {
+    /**
+     * Settings shared by all files of a database.
+     */
+    record Options(AppendEngine appendEngine, int writeBufferSize, boolean forceOnClose) {
+    }
+
+    /**
+     * Cheap, as it does no I/O. The file is opened by {@link #open()}.
+     */
+    FileContext(Path path, IntUnaryOperator diskUsageCheckDelayFunction, DatabaseMetrics metrics, Options options) {
         this.path = path;
-        boolean appendNewLine = FileUtils.isNewLineMissingAtTheEndOfFile(path);
-        fileWriter = Files.newBufferedWriter(path, UTF_8, APPEND, CREATE);
+        this.metrics = metrics;
+        this.options = options;
+        this.diskUsageCheckDelayFunction = diskUsageCheckDelayFunction;
+        sortedMarkerPath = SidecarFiles.of(path, SidecarFiles.SORTED_MARKER);
+        timesToDiskUsageCheck = diskUsageCheckDelayFunction.applyAsInt(0);
+        lastUseNanoTime = System.nanoTime();
+    }
+
+    /**
+     * Opens the file, unless it is open already. Must be called with the lock held. A file that doesn't exist is created, together
+     * with its directory. Such file needs neither a recovery check nor an initial disk usage check.
+     */
+    void open() throws IOException {
+        if (fileWriter != null) {
+            return;
+        }
+        boolean appendNewLine = false;
+        created = !Files.exists(path);
+        if (created) {
+            Path parentDir = path.getParent();
+            if (!Files.exists(parentDir)) {
+                LOG.info("Creating data subdirectory {}...", parentDir);
+                Files.createDirectories(parentDir);
+            }
+            deleteSortedMarker();     // a leftover of a removed file
+            sorted = true;
+        } else {
+            sorted = unseal();
+            appendNewLine = FileUtils.isNewLineMissingAtTheEndOfFile(path);
+        }
+        FileChannel newChannel = FileChannel.open(path, WRITE, APPEND, CREATE);
+        Writer newWriter = switch (options.appendEngine()) {
+            case BUFFERED_WRITER -> new BufferedWriter(new OutputStreamWriter(new CountingOutputStream(Channels.newOutputStream(newChannel),
+                    metrics), UTF_8), options.writeBufferSize());
+            case DIRECT_BUFFER -> new DirectBufferWriter(newChannel, options.writeBufferSize(), metrics);
+        };
         if (appendNewLine) {
-            fileWriter.append(Database.NEW_LINE_CHAR);
+            newWriter.append(Database.NEW_LINE_CHAR);
             LOG.warn("File {} was present and missing a new line at the end (corruption). Some data from previous run may be lost!", path);
         }
-        this.diskUsageCheckDelayFunction = diskUsageCheckDelayFunction;
-        lastDiskUsageKB = DiskUsageUtil.getDiskUsageKB(path.toString());
-        timesToDiskUsageCheck = diskUsageCheckDelayFunction.applyAsInt(0);
+        lastDiskUsageKB.set(created ? 0L : metrics.measureDiskUsageKB(path.toString()));
+        channel = newChannel;
+        fileWriter = newWriter;
         LOG.trace("File {} opened with initial disk usage: {} KB", path, lastDiskUsageKB);
     }
 
-    BufferedWriter getFileWriter() {
+    void lock() {
+        lock.lock();
+    }
+
+    boolean tryLock() {
+        return lock.tryLock();
+    }
+
+    void unlock() {
+        lock.unlock();
+    }
+
+    /**
+     * Must be called with the lock held. A closed context must not be used, as it was or is being removed from a database.
+     */
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Must be called with the lock held. Opens the file if needed. The file is considered to have unflushed data after this call.
+     */
+    Writer getFileWriter() throws IOException {
+        open();
         lastUseNanoTime = System.nanoTime();
+        unflushed = true;
+        appended = true;
         return fileWriter;
     }
 
-    double calculateFileGrowthMB() {
+    /**
+     * Must be called with the lock held. Appends lines encoded as UTF-8 straight to the file, after the write buffer is flushed.
+     * Bulk import appends large chunks of lines with it, which need no write buffer.
+     */
+    void appendEncoded(ByteBuffer lines) throws IOException {
+        getFileWriter();
+        flush();
+        final int length = lines.remaining();
+        while (lines.hasRemaining()) {
+            channel.write(lines);
+        }
+        metrics.recordBytesAppended(length);
+    }
+
+    /**
+     * Must be called with the lock held, once per write, after {@link #getFileWriter()}.
+     */
+    void trackOrder(long recordMillis) {
+        if (recordMillis < lastRecordMillis) {
+            sorted = false;
+        } else {
+            lastRecordMillis = recordMillis;
+        }
+    }
+
+    /**
+     * Must be called with the lock held.
+     */
+    boolean isSorted() {
+        return sorted;
+    }
+
+    /**
+     * Must be called with the lock held, once per write.
+     */
+    boolean isDiskUsageCheckDue() {
         // TODO introduce configurable strategy here to control when to run rather expensive `DiskUsageUtil.getDiskUsageKB(..)`
         timesToDiskUsageCheck = diskUsageCheckDelayFunction.applyAsInt(timesToDiskUsageCheck);
-        if (timesToDiskUsageCheck == 0) {
-            long currentDiskUsageKB = DiskUsageUtil.getDiskUsageKB(path.toString());
+        return timesToDiskUsageCheck == 0;
+    }
+
+    /**
+     * Runs `du` for the file, so it should be called without the lock held. At most one check per file runs at a time - a skipped
+     * check returns zero and its growth is reported by the next one.
+     */
+    double calculateFileGrowthMB() {
+        if (!diskUsageChecking.compareAndSet(false, true)) {
+            return 0.0;
+        }
+        try {
+            long currentDiskUsageKB = metrics.measureDiskUsageKB(path.toString());
             LOG.trace("File {} current disk usage: {} KB", path, currentDiskUsageKB);
-            double growthMB = (currentDiskUsageKB - lastDiskUsageKB) / 1024.0;
-            lastDiskUsageKB = currentDiskUsageKB;
-            return growthMB;
+            return (currentDiskUsageKB - lastDiskUsageKB.getAndSet(currentDiskUsageKB)) / 1024.0;
+        } finally {
+            diskUsageChecking.set(false);
         }
-        return 0.0;
+    }
+
+    /**
+     * Returns size of the file without buffered data. Must be called with the lock held.
+     */
+    long getSize() throws IOException {
+        return (channel != null) ? channel.size() : 0L;
     }
 
     long getLastUseNanoTime() {
         return lastUseNanoTime;
     }
 
+    /**
+     * Closes the file, if it was opened. A file created by this context and never written to is deleted.
+     */
     @Override
     public void close() throws IOException {
-        fileWriter.close();
+        closed = true;
+        if (fileWriter == null) {
+            return;
+        }
+        try {
+            fileWriter.flush();
+            if (options.forceOnClose()) {
+                channel.force(false);
+                metrics.recordForce();
+            }
+        } finally {
+            fileWriter.close();     // closes the channel as well
+        }
+        if (created && !appended) {
+            Files.deleteIfExists(path);
+            return;
+        }
+        if (sorted && lastRecordMillis != Long.MIN_VALUE) {
+            try {
+                Files.writeString(sortedMarkerPath, Long.toString(lastRecordMillis, ReadOnlyDatabase.TIMESTAMP_RADIX));
+                sortedMarkerGrowthKB += metrics.measureDiskUsageKB(sortedMarkerPath.toString());
+            } catch (IOException e) {
+                LOG.warn("Cannot create sorted marker for file {}. Readers will sort it.", path, e);
+            }
+        }
+    }
+
+    /**
+     * Returns disk usage change by sorted markers written or deleted since the last call, in megabytes. Markers are written when
+     * the file is closed, so the change is taken after closing. Must be called with the lock held.
+     */
+    double takeSortedMarkerGrowthMB() {
+        final long growthKB = sortedMarkerGrowthKB;
+        sortedMarkerGrowthKB = 0L;
+        return growthKB / 1024.0;
     }
 
     boolean flushSafely() {
         try {
-            fileWriter.flush();
+            flush();
             return true;
         } catch (IOException e) {
             return false;
         }
     }
+
+    /**
+     * Flushes the write buffer, if there is anything to flush, and optionally forces the file to a storage device. The write buffer
+     * is flushed with the lock held, but forcing is done without it, so writers of this file don't wait for the storage device.
+     */
+    void sync(boolean force) throws IOException {
+        if (unflushed) {
+            lock.lock();
+            try {
+                flush();
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (force && unforced) {
+            unforced = false;
+            try {
+                channel.force(false);
+                metrics.recordForce();
+            } catch (ClosedChannelException e) {
+                // nop - the file was closed and forced by the closing thread
+            } catch (IOException e) {
+                unforced = true;
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Removes the sorted marker of a file opened for writing. Returns true if records of the file are known to be sorted,
+     * which is when the file is empty or it had the marker.
+     */
+    private boolean unseal() throws IOException {
+        String lastMillisStr = null;
+        if (Files.exists(sortedMarkerPath)) {
+            try {
+                lastMillisStr = Files.readString(sortedMarkerPath);
+            } catch (IOException e) {
+                LOG.warn("Cannot read sorted marker {}.", sortedMarkerPath, e);
+            }
+            deleteSortedMarker();
+        }
+        if (!Files.exists(path) || Files.size(path) == 0) {
+            return true;
+        }
+        if (lastMillisStr != null) {
+            try {
+                lastRecordMillis = Long.parseLong(lastMillisStr.strip(), ReadOnlyDatabase.TIMESTAMP_RADIX);
+                return true;
+            } catch (NumberFormatException e) {
+                LOG.warn("Invalid sorted marker {}.", sortedMarkerPath);
+            }
+        }
+        return false;
+    }
+
+    private void deleteSortedMarker() throws IOException {
+        if (Files.exists(sortedMarkerPath)) {
+            final long markerKB = metrics.measureDiskUsageKB(sortedMarkerPath.toString());
+            if (Files.deleteIfExists(sortedMarkerPath)) {
+                sortedMarkerGrowthKB -= markerKB;
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        if (channel != null && channel.isOpen()) {
+            fileWriter.flush();
+            unflushed = false;
+            unforced = true;
+            metrics.recordFlush();
+        }
+    }
+
+    /**
+     * Counts bytes that reach the file, that is after the character encoding.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private final DatabaseMetrics metrics;
+
+        CountingOutputStream(OutputStream out, DatabaseMetrics metrics) {
+            super(out);
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            metrics.recordBytesAppended(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            metrics.recordBytesAppended(len);
+        }
+    }
 }
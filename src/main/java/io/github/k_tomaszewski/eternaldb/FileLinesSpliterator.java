@@ -4,60 +4,177 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
 import java.util.Spliterator;
-import java.util.function.BiPredicate;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.function.Consumer;
-import java.util.function.Predicate;
 import java.util.stream.Stream;
 
-import static io.github.k_tomaszewski.util.FileUtils.IS_FILE_PREDICATE;
 import static io.github.k_tomaszewski.util.StreamUtil.closeSafely;
 
 /**
  * Serves as a base for a stream of raw lines from data files. Files are limited by optional `minMillis` and `maxMillis`, but records
  * provided by this spliterator ARE NOT LIMITED. All records from selected files are provided.
+ * Segment files of the same time bucket (see {@link SegmentNaming}) are read together and their lines are merged by timestamps.
+ * Lines of a file are sorted, unless the file has a sorted marker (see {@link SidecarFiles#SORTED_MARKER}).
+ * Optionally, files of the next bucket are read and sorted on a virtual thread while a bucket is consumed, so the next bucket
+ * is served from memory (see {@link DatabaseProperties#setReadAheadBudgetMB(long)}).
  * NOTE: This is a closeable spliterator. Use {@link io.github.k_tomaszewski.util.StreamUtil#stream(Spliterator, boolean)} to create
  * a Stream object that will close this spliterator. Otherwise, it won't be closed. See: https://bugs.openjdk.org/browse/JDK-8318856
  */
 class FileLinesSpliterator implements Spliterator<String>, AutoCloseable, ReadContext {
 
     private static final Logger LOG = LoggerFactory.getLogger(FileLinesSpliterator.class);
+    private static final List<String> REPLACED_FILE_SUFFIXES = List.of(SidecarFiles.RETIRED, SidecarFiles.MIGRATED);
+    // heap bytes of a line besides its characters: a String object, a header of its byte array and a reference from a list
+    private static final long LINE_HEAP_OVERHEAD_BYTES = 48L;
 
-    final Stream<Path> pathStream;
-    final Spliterator<Path> pathSpliterator;
-    volatile Stream<String> fileLineStream;
+    /**
+     * Access to content of data files.
+     */
+    interface FileAccess {
+
+        Stream<String> openLines(Path path) throws IOException;
+
+        /**
+         * Tells if records of a file are known to be sorted.
+         */
+        boolean isSorted(Path path);
+
+        /**
+         * Called when a spliterator using this access is closed.
+         */
+        default void close() {
+        }
+    }
+
+    /**
+     * Reads files of a data directory. A file replaced by compaction or moved to a next storage tier after it was listed is read
+     * from its retired or migrated sidecar.
+     */
+    static final FileAccess DIRECTORY_ACCESS = new FileAccess() {
+
+        @Override
+        public Stream<String> openLines(Path path) throws IOException {
+            try {
+                return Files.lines(path, StandardCharsets.UTF_8);         // TODO add handling of compressed data files
+            } catch (NoSuchFileException e) {
+                for (String suffix : REPLACED_FILE_SUFFIXES) {
+                    Path replacedPath = SidecarFiles.of(path, suffix);
+                    if (Files.exists(replacedPath)) {
+                        return Files.lines(replacedPath, StandardCharsets.UTF_8);
+                    }
+                }
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean isSorted(Path path) {
+            return Files.exists(SidecarFiles.of(path, SidecarFiles.SORTED_MARKER));
+        }
+    };
+
+    /**
+     * Reads files of a data directory, without falling back to sidecars of replaced files. Compaction reads with it, so records of
+     * a file moved to a next storage tier in the meantime are not copied back.
+     */
+    static final FileAccess STRICT_DIRECTORY_ACCESS = new FileAccess() {
+
+        @Override
+        public Stream<String> openLines(Path path) throws IOException {
+            return Files.lines(path, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public boolean isSorted(Path path) {
+            return DIRECTORY_ACCESS.isSorted(path);
+        }
+    };
+
+    final DataFileBuckets buckets;
+    final List<Stream<String>> fileLineStreams = new ArrayList<>();
     volatile Spliterator<String> fileLineSpliterator;
     volatile Path currentPath;
+    private final DatabaseMetrics metrics;
+    private final boolean failOnUnreadableFile;
+    private final FileAccess fileAccess;
+    private final long readAheadBytes;
+    private final String readAheadLimit;
+    // next bucket, possibly being read ahead
+    private ReadAhead readAhead;
+
+    public FileLinesSpliterator(Path dataDir, Long minMillis, Long maxMillis, FileNamingStrategy fileNaming, DatabaseMetrics metrics)
+            throws IOException {
+        this(DataFileBuckets.find(dataDir, minMillis, maxMillis, fileNaming), metrics, false, DIRECTORY_ACCESS);
+    }
+
+    /**
+     * Reads given data files, which must be sorted, with {@link #STRICT_DIRECTORY_ACCESS}.
+     * @param failOnUnreadableFile Controls if a file that cannot be read fails reading, rather than being skipped.
+     */
+    FileLinesSpliterator(Path dataDir, List<Path> sortedPaths, FileNamingStrategy fileNaming, DatabaseMetrics metrics,
+            boolean failOnUnreadableFile) {
+        this(DataFileBuckets.of(dataDir, sortedPaths, fileNaming), metrics, failOnUnreadableFile, STRICT_DIRECTORY_ACCESS);
+    }
 
-    public FileLinesSpliterator(Path dataDir, Long minMillis, Long maxMillis, FileNamingStrategy fileNaming) throws IOException {
-        pathStream = Files.find(dataDir, fileNaming.maxDirectoryDepth(), toDataFilePredicate(minMillis, maxMillis, fileNaming, dataDir));
-        pathSpliterator = pathStream.sorted().spliterator();
+    FileLinesSpliterator(DataFileBuckets buckets, DatabaseMetrics metrics, boolean failOnUnreadableFile, FileAccess fileAccess) {
+        this(buckets, metrics, failOnUnreadableFile, fileAccess, 0L, null);
+    }
+
+    /**
+     * @param fileAccess Access used by a reading ahead thread too, so it must be thread-safe when reading ahead is enabled.
+     * @param readAheadBytes Maximum estimated heap size of lines of a bucket read ahead. Zero disables reading ahead.
+     * @param readAheadLimit Optional (nullable) relative path of a bucket, which files and files of later buckets are not read ahead.
+     */
+    FileLinesSpliterator(DataFileBuckets buckets, DatabaseMetrics metrics, boolean failOnUnreadableFile, FileAccess fileAccess,
+            long readAheadBytes, String readAheadLimit) {
+        this.buckets = buckets;
+        this.metrics = metrics;
+        this.failOnUnreadableFile = failOnUnreadableFile;
+        this.fileAccess = fileAccess;
+        this.readAheadBytes = readAheadBytes;
+        this.readAheadLimit = readAheadLimit;
     }
 
     @Override
     public boolean tryAdvance(Consumer<? super String> dataLineConsumer) {
         for (;;) {
             while (fileLineSpliterator == null) {
-                if (!pathSpliterator.tryAdvance(this::openDataFile)) {
+                if (!openNextBucket()) {
                     return false;
                 }
             }
             if (fileLineSpliterator.tryAdvance(dataLineConsumer)) {
                 return true;
             } else {
-                closeDataFile();
+                closeDataFiles();
             }
         }
     }
 
     @Override
     public void close() {
-        closeSafely(pathStream);
-        closeSafely(fileLineStream);
+        if (readAhead != null && readAhead.task() != null) {
+            readAhead.task().cancel(true);
+        }
+        readAhead = null;
+        closeSafely(buckets);
+        closeDataFiles();
+        fileAccess.close();
     }
 
     @Override
@@ -80,45 +197,199 @@ class FileLinesSpliterator implements Spliterator<String>, AutoCloseable, ReadCo
         return currentPath;
     }
 
-    private void openDataFile(Path path) {
+    /**
+     * Opens all segment files of the next time bucket. Returns false when there are no more files.
+     */
+    private boolean openNextBucket() {
+        final List<Path> segmentPaths;
+        Map<Path, ReadAheadLines> readAheadLines = Map.of();
+        if (readAhead != null) {
+            segmentPaths = readAhead.paths();
+            readAheadLines = readAhead.getLines();
+            readAhead = null;
+        } else if (buckets.hasNext()) {
+            segmentPaths = buckets.next();
+        } else {
+            return false;
+        }
+        if (readAheadBytes > 0L && buckets.hasNext()) {
+            readAhead = startReadAhead(buckets.next());
+        }
+        List<Iterator<String>> segmentIterators = new ArrayList<>(segmentPaths.size());
+        List<Path> openedPaths = new ArrayList<>(segmentPaths.size());
+        for (Path path : segmentPaths) {
+            ReadAheadLines lines = readAheadLines.get(path);
+            Stream<String> lineStream = (lines != null) ? consumeReadAheadLines(lines) : openDataFile(path);
+            if (lineStream != null) {
+                fileLineStreams.add(lineStream);
+                segmentIterators.add(lineStream.iterator());
+                openedPaths.add(path);
+            }
+        }
+        if (segmentIterators.size() == 1) {
+            currentPath = openedPaths.getFirst();
+            fileLineSpliterator = Spliterators.spliteratorUnknownSize(segmentIterators.getFirst(), characteristics());
+        } else if (segmentIterators.size() > 1) {
+            currentPath = openedPaths.getFirst();
+            fileLineSpliterator = Spliterators.spliteratorUnknownSize(new MergingIterator(segmentIterators, openedPaths),
+                    characteristics());
+        }
+        return true;
+    }
+
+    private ReadAhead startReadAhead(List<Path> paths) {
+        if (readAheadLimit != null && buckets.toBucketPathStr(paths.getFirst()).compareTo(readAheadLimit) >= 0) {
+            return new ReadAhead(paths, null);
+        }
+        var task = new FutureTask<>(() -> readLines(paths));
+        Thread.ofVirtual().name("etdb-read-ahead").start(task);
+        return new ReadAhead(paths, task);
+    }
+
+    /**
+     * Reads sorted lines of files within the read-ahead budget, which limits estimated heap size of the lines. As a line takes
+     * more heap than file bytes, a file is not read when its size alone exceeds the rest of the budget, and it is dropped when
+     * its lines exceed it. Files that don't fit or cannot be read are left to be opened as usual. Metrics are recorded when
+     * read lines are consumed, as they may be dropped unread when a read is closed early.
+     */
+    private Map<Path, ReadAheadLines> readLines(List<Path> paths) {
+        Map<Path, ReadAheadLines> linesByPath = new HashMap<>();
+        long budgetBytes = readAheadBytes;
+        for (Path path : paths) {
+            try {
+                if (Files.size(path) > budgetBytes) {
+                    break;
+                }
+                final boolean sorted = fileAccess.isSorted(path);
+                List<String> lines = new ArrayList<>();
+                try (Stream<String> lineStream = fileAccess.openLines(path)) {
+                    Iterator<String> lineIterator = lineStream.iterator();
+                    while (lineIterator.hasNext() && budgetBytes >= 0L) {
+                        String line = lineIterator.next();
+                        budgetBytes -= line.length() + LINE_HEAP_OVERHEAD_BYTES;      // Latin-1 strings, like JSON of ASCII
+                        lines.add(line);
+                    }
+                }
+                if (budgetBytes < 0L) {
+                    LOG.debug("Lines of data file {} exceed the read-ahead budget.", path);
+                    break;
+                }
+                if (!sorted) {
+                    lines.sort(DataLine.TIMESTAMP_ORDER);
+                }
+                linesByPath.put(path, new ReadAheadLines(lines, sorted));
+            } catch (IOException | UncheckedIOException e) {
+                LOG.debug("Data file {} not read ahead.", path, e);
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+        }
+        return linesByPath;
+    }
+
+    private Stream<String> consumeReadAheadLines(ReadAheadLines lines) {
+        metrics.recordFileScanned();
+        metrics.recordFileReadAhead();
+        if (lines.sorted()) {
+            metrics.recordSortSkipped();
+        }
+        return lines.lines().stream();
+    }
+
+    private Stream<String> openDataFile(Path path) {
         try {
-            fileLineStream = Files.lines(path, StandardCharsets.UTF_8);         // TODO add handling of compressed data files
-            fileLineSpliterator = fileLineStream.sorted().spliterator();
-            currentPath = path;
+            var lineStream = fileAccess.openLines(path);
+            metrics.recordFileScanned();
+            if (fileAccess.isSorted(path)) {
+                metrics.recordSortSkipped();
+                return lineStream;
+            }
+            return lineStream.sorted(DataLine.TIMESTAMP_ORDER);
         } catch (IOException e) {
+            if (failOnUnreadableFile) {
+                throw new UncheckedIOException("Cannot read data from file %s".formatted(path), e);
+            }
             LOG.warn("Cannot read data from file {}", path, e);
-            closeDataFile();
+            return null;
         }
     }
 
-    private void closeDataFile() {
-        closeSafely(fileLineStream);
-        fileLineStream = null;
+    private void closeDataFiles() {
+        fileLineStreams.forEach(lineStream -> closeSafely(lineStream));
+        fileLineStreams.clear();
         fileLineSpliterator = null;
         currentPath = null;
     }
 
-    private static BiPredicate<Path, BasicFileAttributes> toDataFilePredicate(Long minMillis, Long maxMillis,
-            FileNamingStrategy fileNaming, Path dataDir) {
-        BiPredicate<Path, BasicFileAttributes> predicate = IS_FILE_PREDICATE;
-        if (minMillis != null || maxMillis != null) {
-            Predicate<String> fileNamePredicate = toFileNamePredicate(minMillis, maxMillis, fileNaming);
-            predicate = predicate.and((path, attributes) -> fileNamePredicate.test(dataDir.relativize(path).toString()));
+    /**
+     * Files of a bucket and a task reading them ahead, if any.
+     */
+    private record ReadAhead(List<Path> paths, FutureTask<Map<Path, ReadAheadLines>> task) {
+
+        Map<Path, ReadAheadLines> getLines() {
+            if (task == null) {
+                return Map.of();
+            }
+            try {
+                return task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                task.cancel(true);
+            } catch (ExecutionException e) {
+                LOG.warn("Reading ahead of data files {} failed.", paths, e.getCause());
+            }
+            return Map.of();
         }
-        return predicate;
     }
 
-    static Predicate<String> toFileNamePredicate(Long minMillis, Long maxMillis, FileNamingStrategy fileNaming) {
-        Predicate<String> predicate = null;
-        if (minMillis != null) {
-            final String minFileName = fileNaming.formatRelativePathStr(minMillis);
-            predicate = (fileName) -> fileName.compareTo(minFileName) >= 0;
+    /**
+     * Sorted lines of a file read ahead, and whether the file was known to be sorted.
+     */
+    private record ReadAheadLines(List<String> lines, boolean sorted) {
+    }
+
+    /**
+     * K-way merge of sorted lines from segment files. It keeps `currentPath` pointing to a file of the last provided line.
+     */
+    private class MergingIterator implements Iterator<String> {
+
+        private final PriorityQueue<Head> heads = new PriorityQueue<>();
+
+        MergingIterator(List<Iterator<String>> iterators, List<Path> paths) {
+            for (int i = 0; i < iterators.size(); ++i) {
+                Iterator<String> iterator = iterators.get(i);
+                if (iterator.hasNext()) {
+                    heads.add(new Head(iterator.next(), iterator, paths.get(i), i));
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public String next() {
+            Head head = heads.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+            currentPath = head.path;
+            if (head.iterator.hasNext()) {
+                heads.add(new Head(head.iterator.next(), head.iterator, head.path, head.order));
+            }
+            return head.line;
         }
-        if (maxMillis != null) {
-            final String maxFileName = fileNaming.formatRelativePathStr(maxMillis);
-            Predicate<String> predicate2 = (fileName) -> fileName.compareTo(maxFileName) <= 0;
-            predicate = (predicate != null) ? predicate.and(predicate2) : predicate2;
+    }
+
+    private record Head(String line, Iterator<String> iterator, Path path, int order) implements Comparable<Head> {
+
+        @Override
+        public int compareTo(Head other) {
+            int result = DataLine.compareTimestamps(line, other.line);
+            return (result != 0) ? result : Integer.compare(order, other.order);
         }
-        return predicate;
     }
 }
@@ -19,4 +19,13 @@ public interface FileNamingStrategy {
     default Optional<Duration> fileCreationInterval() {
         return Optional.empty();
     }
+
+    /**
+     * Relative path of a file, that data files of adjacent time buckets can be merged into by compaction, or empty when this strategy
+     * does not allow merging of the given bucket. A merged path must not be greater than paths of buckets it covers and must be
+     * greater than paths of all earlier buckets, so the contract of {@link #formatRelativePathStr(long)} still holds.
+     */
+    default Optional<String> toMergedRelativePathStr(String bucketRelativePath) {
+        return Optional.empty();
+    }
 }
@@ -0,0 +1,154 @@
+package io.github.k_tomaszewski.eternaldb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static io.github.k_tomaszewski.util.FileUtils.IS_FILE_PREDICATE;
+
+/**
+ * Replacement of data files by a new file, done by compaction and migration to a next storage tier. A new file is written as
+ * a sidecar (see {@link SidecarFiles#COMPACTING}) and moved into place. Then the replaced files are renamed to sidecars read only by
+ * readers that listed them before. Between the move and the renames, records are in both the new and the replaced files, so
+ * a manifest of replaced files (see {@link SidecarFiles#REPLACING}) is written next to the new file before the move and deleted
+ * after the renames. Readers that list files in the meantime skip replaced files named in a manifest of a new file already moved
+ * into place (see {@link #findReplaced(List)}). A manifest left by a crash is finished by {@link #recover(Path, int)}: replaced
+ * files are renamed when the new file was moved into place, and the manifest is dropped otherwise.
+ */
+final class FileReplacement {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileReplacement.class);
+
+    private FileReplacement() {
+    }
+
+    /**
+     * Writes a manifest of files to be replaced by a target file, which is still a sidecar being written.
+     * @param suffix Suffix of sidecars the replaced files are renamed to.
+     */
+    static void prepare(Path target, List<Path> replaced, String suffix) throws IOException {
+        if (replaced.isEmpty()) {
+            return;
+        }
+        final List<String> lines = new ArrayList<>(replaced.size() + 1);
+        lines.add(suffix);
+        replaced.forEach(path -> lines.add(path.toAbsolutePath().toString()));
+        final Path manifestPath = SidecarFiles.of(target, SidecarFiles.REPLACING);
+        Files.write(manifestPath, lines, StandardCharsets.UTF_8);
+        try (FileChannel channel = FileChannel.open(manifestPath, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Renames replaced files of a target file moved into place and deletes the manifest.
+     */
+    static void complete(Path target, List<Path> replaced, String suffix) throws IOException {
+        for (Path path : replaced) {
+            replace(path, suffix);
+        }
+        Files.deleteIfExists(SidecarFiles.of(target, SidecarFiles.REPLACING));
+    }
+
+    /**
+     * Drops the manifest of a target file that was not moved into place.
+     */
+    static void abort(Path target) throws IOException {
+        Files.deleteIfExists(SidecarFiles.of(target, SidecarFiles.REPLACING));
+    }
+
+    /**
+     * Renames a replaced data file to a sidecar with a given suffix, with the current time of modification for its grace period,
+     * and deletes sidecars of the data file. Returns false when the file doesn't exist.
+     */
+    static boolean replace(Path path, String suffix) throws IOException {
+        if (!Files.exists(path)) {
+            return false;
+        }
+        final Path replacedPath = SidecarFiles.of(path, suffix);
+        Files.move(path, replacedPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        Files.setLastModifiedTime(replacedPath, FileTime.fromMillis(System.currentTimeMillis()));
+        for (String sidecarSuffix : SidecarFiles.METADATA_SUFFIXES) {
+            Files.deleteIfExists(SidecarFiles.of(path, sidecarSuffix));
+        }
+        return true;
+    }
+
+    /**
+     * Returns absolute paths of files replaced by new files already moved into place, named in given manifests, or null when
+     * a manifest was deleted in the meantime, so listed files may have been renamed already and should be listed again.
+     */
+    static Set<Path> findReplaced(List<Path> manifestPaths) throws IOException {
+        final Set<Path> replaced = new HashSet<>();
+        for (Path manifestPath : manifestPaths) {
+            Path target = toTarget(manifestPath);
+            if (Files.exists(SidecarFiles.of(target, SidecarFiles.COMPACTING)) || !Files.exists(target)) {
+                continue;
+            }
+            List<String> lines;
+            try {
+                lines = Files.readAllLines(manifestPath, StandardCharsets.UTF_8);
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+            if (!lines.isEmpty()) {
+                lines.subList(1, lines.size()).forEach(line -> replaced.add(Path.of(line).toAbsolutePath().normalize()));
+            }
+        }
+        return replaced;
+    }
+
+    static boolean isManifest(Path path) {
+        return path.getFileName().toString().endsWith(SidecarFiles.REPLACING);
+    }
+
+    private static Path toTarget(Path manifestPath) {
+        final String manifestName = manifestPath.getFileName().toString();
+        return manifestPath.resolveSibling(manifestName.substring(0, manifestName.length() - SidecarFiles.REPLACING.length()));
+    }
+
+    /**
+     * Finishes replacements of a data directory interrupted by a crash. It must not run while files of the directory are replaced.
+     * Returns number of finished replacements.
+     */
+    static int recover(Path dataDir, int maxDirectoryDepth) throws IOException {
+        final List<Path> manifestPaths;
+        try (Stream<Path> pathStream = Files.find(dataDir, maxDirectoryDepth, IS_FILE_PREDICATE.and((path, attributes) ->
+                isManifest(path)))) {
+            manifestPaths = pathStream.toList();
+        }
+        int count = 0;
+        for (Path manifestPath : manifestPaths) {
+            Path target = toTarget(manifestPath);
+            if (Files.exists(SidecarFiles.of(target, SidecarFiles.COMPACTING)) || !Files.exists(target)) {
+                LOG.info("Replacement by data file {} was not done. Replaced files are kept.", target);
+                abort(target);
+                continue;
+            }
+            List<String> lines = Files.readAllLines(manifestPath, StandardCharsets.UTF_8);
+            if (lines.isEmpty()) {
+                abort(target);
+                continue;
+            }
+            List<Path> replaced = lines.subList(1, lines.size()).stream().map(Path::of).toList();
+            LOG.info("Finishing replacement of data files {} by {}.", replaced, target);
+            complete(target, replaced, lines.getFirst());
+            ++count;
+        }
+        return count;
+    }
+}
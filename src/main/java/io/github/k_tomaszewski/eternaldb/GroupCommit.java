@@ -0,0 +1,133 @@
+package io.github.k_tomaszewski.eternaldb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Group commit for {@link Durability#FSYNC_GROUP}. Writers register after appending a record and wait until a sync round that
+ * started after their registration has completed. A single background thread runs sync rounds one after another, so all writes
+ * registered while a round is running are covered by the next one. Each round keeps its own outcome, so a writer learns about
+ * a failure of its round even when later rounds complete before it wakes up.
+ */
+class GroupCommit implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GroupCommit.class);
+
+    /**
+     * Flushes and forces all files with pending writes.
+     */
+    interface SyncAction {
+        void sync() throws IOException;
+    }
+
+    private final SyncAction syncAction;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition syncRequested = lock.newCondition();
+    private final Condition syncCompleted = lock.newCondition();
+    private final Thread thread;
+    // round covering writers registering now, which starts when the running one completes
+    private Round nextRound = new Round();
+    private boolean closed;
+
+    /**
+     * A sync round and its outcome. Guarded by the lock.
+     */
+    private static final class Round {
+        boolean requested;
+        boolean completed;
+        Exception failure;
+    }
+
+    GroupCommit(SyncAction syncAction) {
+        this.syncAction = syncAction;
+        thread = Thread.ofPlatform().name("etdb-fsync").daemon().start(this);
+    }
+
+    /**
+     * Blocks until a write made by the calling thread before this call is forced to a storage device.
+     * @throws UncheckedIOException when the sync round covering the write failed with an I/O error, or RuntimeException when
+     *                              it failed otherwise.
+     */
+    void awaitSync() {
+        lock.lock();
+        try {
+            final Round round = nextRound;
+            round.requested = true;
+            syncRequested.signal();
+            while (!round.completed) {
+                syncCompleted.awaitUninterruptibly();
+            }
+            if (round.failure instanceof IOException e) {
+                throw new UncheckedIOException("Forcing data file to storage device failed", e);
+            } else if (round.failure != null) {
+                throw new RuntimeException("Forcing data file to storage device failed", round.failure);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void run() {
+        for (;;) {
+            final Round round;
+            lock.lock();
+            try {
+                while (!nextRound.requested && !closed) {
+                    syncRequested.awaitUninterruptibly();
+                }
+                if (closed) {
+                    return;
+                }
+                round = nextRound;
+                nextRound = new Round();
+            } finally {
+                lock.unlock();
+            }
+            Exception roundFailure = null;
+            try {
+                syncAction.sync();
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("Group sync of data files failed.", e);
+                roundFailure = e;
+            }
+            complete(round, roundFailure);
+        }
+    }
+
+    /**
+     * Stops the background thread. The database must sync all files before. Writers still waiting are released.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            nextRound.completed = true;
+            syncRequested.signal();
+            syncCompleted.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void complete(Round round, Exception roundFailure) {
+        lock.lock();
+        try {
+            round.failure = roundFailure;
+            round.completed = true;
+            syncCompleted.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package io.github.k_tomaszewski.eternaldb;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+
+import static io.github.k_tomaszewski.eternaldb.ReadOnlyDatabase.SEPARATOR;
+
+/**
+ * Bloom filter of keys of records of a data file, kept in a sidecar file (see {@link SidecarFiles#KEY_FILTER}). It tells that a file
+ * has no records with a key, with about 1% of false positives. A key is a value of a top-level field of a record: a string or
+ * an integer as a string. A sidecar file holds the size of its data file and the key field, so it is not used after the data file
+ * was appended or the key field was changed.
+ */
+final class KeyFilter {
+
+    private static final ObjectMapper JSON_MAPPER = new JsonMapper();
+    private static final int MAGIC = 0x4554424B;        // "ETBK"
+    private static final int VERSION = 1;
+    private static final double BITS_PER_KEY = 9.6;
+    private static final int HASH_COUNT = 7;
+
+    private final long[] bits;
+
+    private KeyFilter(long[] bits) {
+        this.bits = bits;
+    }
+
+    static KeyFilter of(Collection<String> keys) {
+        final int words = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1L, (long) Math.ceil(keys.size() * BITS_PER_KEY / 64)));
+        final KeyFilter filter = new KeyFilter(new long[words]);
+        keys.forEach(filter::add);
+        return filter;
+    }
+
+    boolean mightContain(String key) {
+        final long hash = hash(key);
+        final long bitCount = bits.length * 64L;
+        for (int i = 0; i < HASH_COUNT; ++i) {
+            long bit = Math.floorMod((int) hash + i * (hash >>> 32), bitCount);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0L) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a key of a record of a data line, or null when the record has no key.
+     */
+    static String keyOf(String line, String keyField) {
+        try {
+            JsonNode value = JSON_MAPPER.readTree(line.substring(line.indexOf(SEPARATOR) + 1)).get(keyField);
+            if (value != null && value.isTextual()) {
+                return value.textValue();
+            } else if (value != null && value.isIntegralNumber()) {
+                return value.asText();
+            }
+        } catch (JsonProcessingException | RuntimeException e) {
+            // an invalid line has no key
+        }
+        return null;
+    }
+
+    /**
+     * Tells if a record of a data line has a key. Lines without the key text are rejected without parsing.
+     */
+    static boolean hasKey(String line, String keyField, String key) {
+        if (isPlain(key) && !line.contains(key)) {
+            return false;
+        }
+        return key.equals(keyOf(line, keyField));
+    }
+
+    void write(Path path, long dataFileSize, String keyField) throws IOException {
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(dataFileSize);
+            byte[] keyFieldBytes = keyField.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(keyFieldBytes.length);
+            out.write(keyFieldBytes);
+            out.writeInt(bits.length);
+            for (long word : bits) {
+                out.writeLong(word);
+            }
+        }
+    }
+
+    /**
+     * Reads a sidecar file. Returns null when the file was made for another size of the data file or another key field.
+     */
+    static KeyFilter read(Path path, long dataFileSize, String keyField) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong() != dataFileSize) {
+                return null;
+            }
+            int keyFieldLength = buffer.getInt();
+            if (!keyField.equals(new String(buffer.array(), buffer.position(), keyFieldLength, StandardCharsets.UTF_8))) {
+                return null;
+            }
+            buffer.position(buffer.position() + keyFieldLength);
+            long[] bits = new long[buffer.getInt()];
+            buffer.asLongBuffer().get(bits);
+            return new KeyFilter(bits);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException | NegativeArraySizeException e) {
+            throw new IOException("Invalid key filter file %s".formatted(path), e);
+        }
+    }
+
+    private void add(String key) {
+        final long hash = hash(key);
+        final long bitCount = bits.length * 64L;
+        for (int i = 0; i < HASH_COUNT; ++i) {
+            long bit = Math.floorMod((int) hash + i * (hash >>> 32), bitCount);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * FNV-1a hash of characters with a final mix of MurmurHash3, as the filter needs well spread bits of both halves.
+     */
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); ++i) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Tells if a key is written to data files as it is, by any JSON writer.
+     */
+    private static boolean isPlain(String key) {
+        for (int i = 0; i < key.length(); ++i) {
+            char c = key.charAt(i);
+            if (c < 0x20 || c >= 0x7F || c == '"' || c == '\\' || c == '/') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,10 @@
+package io.github.k_tomaszewski.eternaldb;
+
+import java.util.List;
+
+/**
+ * Records of a paginated read (see {@link ReadOnlyDatabase#read(Class, ReadCursor, Long, int)}).
+ * @param next Cursor of the next page, or null when there were no more records.
+ */
+public record Page<T>(List<Timestamped<T>> records, ReadCursor next) {
+}
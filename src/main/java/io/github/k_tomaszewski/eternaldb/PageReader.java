@@ -0,0 +1,175 @@
+package io.github.k_tomaszewski.eternaldb;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads a page of records from a cursor. Buckets before the one of the cursor are not found, as they are earlier than the timestamp
+ * of the cursor. A bucket of the cursor that is a single sorted data file of the same size is read from the byte offset of the cursor.
+ * Otherwise, records of the bucket are read as usual and records already read are skipped by their timestamps and numbers of equal
+ * timestamps. The bucket of the cursor may have been merged by compaction into a file of a different path in the meantime, so
+ * a bucket of a merged file that covers it is the bucket of the cursor as well.
+ */
+class PageReader<T> {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final ReadOnlyDatabase database;
+    private final Class<T> type;
+    private final ReadCursor cursor;
+    private final Long maxMillis;
+    private final int limit;
+    private final List<Timestamped<T>> records = new ArrayList<>();
+    // position after the last read line
+    private String bucketPath;
+    private long millis;
+    private long tieCount;
+    private long fileOffset;
+    private long fileSize;
+    // number of records with the timestamp of the cursor to skip in the current bucket
+    private long tiesToSkip;
+    private boolean maxMillisExceeded;
+
+    PageReader(ReadOnlyDatabase database, Class<T> type, ReadCursor cursor, Long maxMillis, int limit) {
+        this.database = database;
+        this.type = type;
+        this.cursor = cursor;
+        this.maxMillis = maxMillis;
+        this.limit = limit;
+    }
+
+    Page<T> read() throws IOException {
+        final Long minMillis = (cursor.millis() != Long.MIN_VALUE) ? cursor.millis() : null;
+        try (var buckets = database.findBuckets(minMillis, maxMillis)) {
+            while (!isDone() && buckets.hasNext()) {
+                List<Path> paths = buckets.next();
+                String path = buckets.toBucketPathStr(paths.getFirst());
+                bucketPath = path;
+                final boolean cursorBucket = isCursorBucket(path);
+                if (paths.size() == 1 && Files.exists(SidecarFiles.of(paths.getFirst(), SidecarFiles.SORTED_MARKER))
+                        && readSortedFile(paths.getFirst(), cursorBucket, path.equals(cursor.bucketPath()))) {
+                    continue;
+                }
+                readBucket(paths, cursorBucket);
+            }
+        }
+        return new Page<>(records, (records.size() >= limit)
+                ? new ReadCursor(bucketPath, millis, tieCount, fileOffset, fileSize)
+                : null);
+    }
+
+    /**
+     * Tells if a bucket is the bucket of the cursor, or a bucket of a file it was merged into.
+     */
+    private boolean isCursorBucket(String path) {
+        return cursor.bucketPath() != null && (path.equals(cursor.bucketPath())
+                || database.fileNaming.toMergedRelativePathStr(cursor.bucketPath()).filter(path::equals).isPresent());
+    }
+
+    private boolean isDone() {
+        return records.size() >= limit || maxMillisExceeded;
+    }
+
+    /**
+     * Reads a sorted file, keeping a byte offset after the last read line. Returns false when the file no longer exists.
+     * @param cursorFile Tells if the file has the path of the bucket of the cursor, so the byte offset of the cursor may apply.
+     */
+    private boolean readSortedFile(Path path, boolean cursorBucket, boolean cursorFile) throws IOException {
+        final long size;
+        final InputStream in;
+        try {
+            size = Files.size(path);
+            in = Files.newInputStream(path);
+        } catch (NoSuchFileException e) {
+            return false;       // e.g. replaced by compaction, so read as usual
+        }
+        database.metrics.recordFileScanned();
+        database.metrics.recordSortSkipped();
+        try (in) {
+            long offset = 0L;
+            if (cursorFile && cursor.fileOffset() >= 0L && cursor.fileSize() == size) {
+                in.skipNBytes(cursor.fileOffset());
+                offset = cursor.fileOffset();
+                startBucket(cursor.millis(), cursor.tieCount(), 0L);
+            } else {
+                startBucket(Long.MIN_VALUE, 0L, cursorBucket ? cursor.tieCount() : 0L);
+            }
+            final ReadContext readContext = () -> path;
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            byte[] line = new byte[256];
+            int lineLength = 0;
+            int count;
+            while (!isDone() && (count = in.read(buffer)) > 0) {
+                for (int i = 0; i < count && !isDone(); ++i) {
+                    ++offset;
+                    if (buffer[i] != Database.NEW_LINE_CHAR) {
+                        if (lineLength == line.length) {
+                            line = Arrays.copyOf(line, line.length * 2);
+                        }
+                        line[lineLength++] = buffer[i];
+                    } else {
+                        String lineStr = new String(line, 0, lineLength, StandardCharsets.UTF_8);
+                        lineLength = 0;
+                        if (accept(lineStr, readContext)) {
+                            fileOffset = offset;
+                            fileSize = size;
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private void readBucket(List<Path> paths, boolean cursorBucket) {
+        startBucket(Long.MIN_VALUE, 0L, cursorBucket ? cursor.tieCount() : 0L);
+        try (var spliterator = database.openFiles(paths)) {
+            while (!isDone() && spliterator.tryAdvance(line -> {
+                if (accept(line, spliterator)) {
+                    fileOffset = -1L;
+                    fileSize = -1L;
+                }
+            })) {
+                // lines consumed by the action
+            }
+        }
+    }
+
+    private void startBucket(long lastMillis, long lastTieCount, long skippedTies) {
+        millis = lastMillis;
+        tieCount = lastTieCount;
+        tiesToSkip = skippedTies;
+    }
+
+    /**
+     * Processes a line and returns true if a record was read from it.
+     */
+    private boolean accept(String line, ReadContext readContext) {
+        final long lineMillis = DataLine.timestampOrMin(line);
+        if (maxMillis != null && lineMillis > maxMillis) {
+            maxMillisExceeded = true;       // lines are sorted
+            return false;
+        }
+        if (lineMillis == millis) {
+            ++tieCount;
+        } else {
+            millis = lineMillis;
+            tieCount = 1L;
+        }
+        if (lineMillis < cursor.millis() || (lineMillis == cursor.millis() && tieCount <= tiesToSkip)) {
+            return false;
+        }
+        Timestamped<T> record = database.readRecordLine(line, type, readContext);
+        if (record != null) {
+            records.add(record);
+        }
+        return true;
+    }
+}
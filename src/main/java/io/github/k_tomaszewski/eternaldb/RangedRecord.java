@@ -0,0 +1,7 @@
+package io.github.k_tomaszewski.eternaldb;
+
+/**
+ * Record of a multi-range data search (see {@link ReadOnlyDatabase#read(Class, java.util.List)}) with the time range it matched.
+ */
+public record RangedRecord<T>(TimeRange range, Timestamped<T> record) {
+}
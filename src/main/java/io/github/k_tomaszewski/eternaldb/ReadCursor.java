@@ -0,0 +1,54 @@
+package io.github.k_tomaszewski.eternaldb;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Objects;
+
+/**
+ * Position of a paginated read, after the last record of a page (see {@link ReadOnlyDatabase#read(Class, ReadCursor, Long, int)}).
+ * Records with equal timestamps are told apart by their number. When a time bucket consists of a single sorted data file, a cursor
+ * also holds a byte offset in the file, so the next page is read from there without reading the file from its beginning.
+ * A cursor can be passed to clients as a token string.
+ * @param bucketPath Relative path of a time bucket of the last record, or null before the first page.
+ * @param millis Timestamp of the last record, or the earliest timestamp of records before the first page.
+ * @param tieCount Number of records of the bucket with the timestamp of the last record, which were read.
+ * @param fileOffset Byte offset after the last record in a sorted data file of the bucket, or -1 when not known.
+ * @param fileSize Size of the data file when the offset was taken. The offset is not used when the file has changed.
+ */
+public record ReadCursor(String bucketPath, long millis, long tieCount, long fileOffset, long fileSize) {
+
+    private static final String TOKEN_SEPARATOR = "\t";
+
+    /**
+     * Cursor of the first page.
+     * @param minMillis Optional (nullable) parameter with the earliest timestamp of data to read.
+     */
+    public static ReadCursor start(Long minMillis) {
+        return new ReadCursor(null, (minMillis != null) ? minMillis : Long.MIN_VALUE, 0L, -1L, -1L);
+    }
+
+    /**
+     * Parses a token made with {@link #toToken()}.
+     */
+    public static ReadCursor fromToken(String token) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split(TOKEN_SEPARATOR, -1);
+            if (parts.length != 5) {
+                throw new IllegalArgumentException("Unexpected number of cursor fields: " + parts.length);
+            }
+            return new ReadCursor(parts[0].isEmpty() ? null : parts[0], Long.parseLong(parts[1]), Long.parseLong(parts[2]),
+                    Long.parseLong(parts[3]), Long.parseLong(parts[4]));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid read cursor token: " + token, e);
+        }
+    }
+
+    /**
+     * Returns an opaque, URL-safe form of this cursor.
+     */
+    public String toToken() {
+        String value = String.join(TOKEN_SEPARATOR, Objects.toString(bucketPath, ""), Long.toString(millis), Long.toString(tieCount),
+                Long.toString(fileOffset), Long.toString(fileSize));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
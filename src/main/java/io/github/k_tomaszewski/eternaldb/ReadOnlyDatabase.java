@@ -1,6 +1,5 @@
 package io.github.k_tomaszewski.eternaldb;
 
-import io.github.k_tomaszewski.util.FileUtils;
 import io.github.k_tomaszewski.util.StreamUtil;
 import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
@@ -8,13 +7,24 @@ import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.nio.file.FileSystem;
-import java.nio.file.FileSystems;
-import java.nio.file.FileVisitOption;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.SortedMap;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.concurrent.Flow;
+import java.util.function.Predicate;
+import java.util.stream.Collector;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static io.github.k_tomaszewski.util.StreamUtil.closeSafely;
 
@@ -29,9 +39,17 @@ public class ReadOnlyDatabase implements Closeable {
     protected static final int TIMESTAMP_RADIX = 32;
 
     protected final Path dataDir;
+    // data directories of all storage tiers, starting with `dataDir`
+    protected final List<Path> dataDirs;
     protected final FileNamingStrategy fileNaming;
     protected final SerializationStrategy serialization;
+    protected final DatabaseMetrics metrics = new DatabaseMetrics();
     private final Closeable closeable;
+    private final RecordCache recordCache;
+    private final long readAheadBytes;
+    private final List<String> numericColumns;
+    private final List<String> stringColumns;
+    private final String keyField;
 
     public ReadOnlyDatabase(DatabaseProperties<?> config) {
         this(config, null);
@@ -39,9 +57,18 @@ public class ReadOnlyDatabase implements Closeable {
 
     public ReadOnlyDatabase(DatabaseProperties<?> config, Closeable closeable) {
         dataDir = prepareDirectory(config.getDataDir(), config.getCreateDirs());
+        List<Path> tierDirs = new ArrayList<>();
+        tierDirs.add(dataDir);
+        config.getStorageTiers().forEach(tier -> tierDirs.add(prepareDirectory(tier.dataDir(), config.getCreateDirs())));
+        dataDirs = List.copyOf(tierDirs);
         fileNaming = config.getFileNaming();
         serialization = config.getSerialization();
         this.closeable = closeable;
+        recordCache = (config.getRecordCacheSizeMB() > 0) ? new RecordCache(config.getRecordCacheSizeMB() * 1024L * 1024L) : null;
+        readAheadBytes = config.getReadAheadBudgetMB() * 1024L * 1024L;
+        numericColumns = config.getNumericColumns();
+        stringColumns = config.getStringColumns();
+        keyField = config.getKeyField();
     }
 
     /**
@@ -53,37 +80,17 @@ public class ReadOnlyDatabase implements Closeable {
 
     /**
      * Uses the given file naming strategy, mainly to detect a database root directory inside provided ZIP file.
+     * Data files are selected by names from the central directory of the ZIP file and inflated in parallel ahead of reading.
      */
     public static ReadOnlyDatabase fromZip(Path zipFilePath, FileNamingStrategy fileNaming) throws IOException {
         Validate.isTrue(zipFilePath.getFileName().toString().toLowerCase().endsWith(".zip"), "ZIP file without ZIP extention");
-        FileSystem zipFs = FileSystems.newFileSystem(zipFilePath);
         try {
-            var config = new DatabaseProperties<>()
-                    .setDataDir(findDbRootPath(zipFs, fileNaming.maxDirectoryDepth()))
-                    .setFileNaming(fileNaming)
-                    .setCreateDirs(false);
-            return new ReadOnlyDatabase(config, zipFs);
-        } catch (Exception e) {
-            closeSafely(zipFs);
+            return ZipReadOnlyDatabase.open(zipFilePath, fileNaming);
+        } catch (IOException | RuntimeException e) {
             throw new RuntimeException("Cannot open database from ZIP file %s".formatted(zipFilePath), e);
         }
     }
 
-    private static Path findDbRootPath(FileSystem zipFs, int maxDirectoryDepth) throws IOException {
-        Path zipRootPath = zipFs.getPath("/");
-        if (maxDirectoryDepth < 1) {
-            return zipRootPath;
-        }
-        try (var files = Files.find(zipRootPath, Integer.MAX_VALUE, FileUtils.IS_FILE_PREDICATE, FileVisitOption.FOLLOW_LINKS)) {
-            Path firstFile = files.findFirst().orElseThrow();
-            if (firstFile.getNameCount() > maxDirectoryDepth) {
-                return firstFile.subpath(0, firstFile.getNameCount() - maxDirectoryDepth);
-
-            }
-            return zipRootPath;
-        }
-    }
-
     /**
      * Basic data search.
      * @param type Data type records are deserialized to.
@@ -93,7 +100,13 @@ public class ReadOnlyDatabase implements Closeable {
      */
     public <T> Stream<Timestamped<T>> read(Class<T> type, Long minMillis, Long maxMillis) {
         try {
-            var spliterator = new FileLinesSpliterator(dataDir, minMillis, maxMillis, fileNaming);
+            metrics.recordReadQuery();
+            if (recordCache != null) {
+                return readBuckets(type, minMillis, maxMillis)
+                        .filter(record -> (minMillis == null || minMillis <= record.millis())
+                                && (maxMillis == null || maxMillis >= record.millis()));
+            }
+            var spliterator = openFiles(minMillis, maxMillis);
             return filter(StreamUtil.stream(spliterator, false), minMillis, maxMillis)
                     .map(line -> readRecordLine(line, type, spliterator))
                     .filter(Objects::nonNull);
@@ -102,6 +115,76 @@ public class ReadOnlyDatabase implements Closeable {
         }
     }
 
+    /**
+     * Data search of records of a key (see {@link DatabaseProperties#setKeyField(String)}). Data files with key filters that rule out
+     * the key are not opened. Other data files are read, and only lines with the key are deserialized.
+     * @param type Data type records are deserialized to.
+     * @param minMillis Optional (nullable) parameter with the earliest timestamp of data to search.
+     * @param maxMillis Optional (nullable) parameter with the latest timestamp of data to search.
+     * @param key Value of the key field of records to read. Integer keys are given as strings.
+     * @return Stream object that must be closed after use.
+     */
+    public <T> Stream<Timestamped<T>> read(Class<T> type, Long minMillis, Long maxMillis, String key) {
+        Validate.validState(keyField != null, "Key field is not configured");
+        Objects.requireNonNull(key, "Key cannot be null");
+        try {
+            metrics.recordReadQuery();
+            var buckets = findBuckets(minMillis, maxMillis);
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(buckets, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                    .onClose(buckets::close)
+                    .map(paths -> paths.stream().filter(path -> mayContainKey(path, key)).toList())
+                    .filter(paths -> !paths.isEmpty())
+                    .flatMap(paths -> {
+                        var spliterator = openFiles(paths);
+                        return filter(StreamUtil.stream(spliterator, false), minMillis, maxMillis)
+                                .filter(line -> KeyFilter.hasKey(line, keyField, key))
+                                .map(line -> readRecordLine(line, type, spliterator))
+                                .filter(Objects::nonNull);
+                    });
+        } catch (IOException e) {
+            throw new RuntimeException("Database read failed.", e);
+        }
+    }
+
+    /**
+     * Data search of many time ranges in a single pass, e.g. the same hour of each of the last days. Data files of all ranges are
+     * found with one walk of data directories, and each of them is opened once.
+     * @param type Data type records are deserialized to.
+     * @param ranges Time ranges in any order. Ranges must not overlap.
+     * @return Stream object that must be closed after use. Records of all ranges come in time order, each with its range.
+     */
+    public <T> Stream<RangedRecord<T>> read(Class<T> type, List<TimeRange> ranges) {
+        final List<TimeRange> sortedRanges = TimeRange.sortDisjoint(ranges);
+        final Predicate<String> fileNamePredicate = sortedRanges.stream()
+                .map(range -> (range.minMillis() != null || range.maxMillis() != null)
+                        ? DataFileBuckets.toFileNamePredicate(range.minMillis(), range.maxMillis(), fileNaming)
+                        : (Predicate<String>) fileName -> true)
+                .reduce(Predicate::or)
+                .orElseThrow();
+        try {
+            metrics.recordReadQuery();
+            final List<Path> paths = new ArrayList<>();
+            try (var buckets = findBuckets(sortedRanges.getFirst().minMillis(), sortedRanges.getLast().maxMillis())) {
+                buckets.forEachRemaining(bucketPaths -> {
+                    if (fileNamePredicate.test(buckets.toBucketPathStr(bucketPaths.getFirst()))) {
+                        paths.addAll(bucketPaths);
+                    }
+                });
+            }
+            var spliterator = openFiles(paths);
+            return StreamUtil.stream(spliterator, false)
+                    .mapMulti((line, downstream) -> {
+                        TimeRange range = TimeRange.find(sortedRanges, DataLine.timestampOrMin(line));
+                        Timestamped<T> record = (range != null) ? readRecordLine(line, type, spliterator) : null;
+                        if (record != null) {
+                            downstream.accept(new RangedRecord<>(range, record));
+                        }
+                    });
+        } catch (IOException e) {
+            throw new RuntimeException("Database read failed.", e);
+        }
+    }
+
     /**
      * This is equivalent of calling <code>read(type, minMillis, maxMillis).map(Timestamped::record)</code>.
      * @return Stream object that must be closed after use.
@@ -111,6 +194,164 @@ public class ReadOnlyDatabase implements Closeable {
         return read(type, minMillis, maxMillis).map(Timestamped::record);
     }
 
+    /**
+     * Paginated data search. Each page is read from a position of a cursor, so records before it are neither read nor skipped again.
+     * @param cursor {@link ReadCursor#start(Long)} for the first page, or a cursor of the previous page.
+     * @param maxMillis Optional (nullable) parameter with the latest timestamp of data to search.
+     * @param limit Maximum number of records of a page.
+     * @return Records with a cursor of the next page.
+     */
+    public <T> Page<T> read(Class<T> type, ReadCursor cursor, Long maxMillis, int limit) {
+        Validate.isTrue(limit > 0, "Limit must be positive");
+        Objects.requireNonNull(cursor, "Cursor cannot be null");
+        try {
+            metrics.recordReadQuery();
+            return new PageReader<>(this, type, cursor, maxMillis, limit).read();
+        } catch (IOException e) {
+            throw new RuntimeException("Database read failed.", e);
+        }
+    }
+
+    /**
+     * Aggregates records in time buckets, like an average per 5 minutes. Data files are read and aggregated in parallel, and partial
+     * results of buckets that span many files are combined in time order, so any collector can be used.
+     * @param minMillis Optional (nullable) parameter with the earliest timestamp of data to aggregate.
+     * @param maxMillis Optional (nullable) parameter with the latest timestamp of data to aggregate.
+     * @param bucket Length of a time bucket. Buckets are aligned to the epoch, in UTC.
+     * @return Results of non-empty buckets by timestamps of bucket starts.
+     */
+    public <T, A, R> SortedMap<Long, R> aggregate(Class<T> type, Long minMillis, Long maxMillis, Duration bucket,
+            Collector<? super T, A, R> collector) {
+        final long bucketMillis = bucket.toMillis();
+        Validate.isTrue(bucketMillis > 0L, "Time bucket must be at least 1 ms");
+        metrics.recordReadQuery();
+        final List<List<Path>> fileBuckets = new ArrayList<>();
+        try (var buckets = findBuckets(minMillis, maxMillis)) {
+            buckets.forEachRemaining(fileBuckets::add);
+        } catch (IOException e) {
+            throw new RuntimeException("Database read failed.", e);
+        }
+        SortedMap<Long, A> containers = new TreeMap<>();
+        fileBuckets.parallelStream()
+                .map(paths -> aggregateBucket(paths, type, minMillis, maxMillis, bucketMillis, collector))
+                .toList()
+                .forEach(partialContainers -> partialContainers.forEach((bucketStart, container) ->
+                        containers.merge(bucketStart, container, collector.combiner())));
+        SortedMap<Long, R> results = new TreeMap<>();
+        containers.forEach((bucketStart, container) -> results.put(bucketStart, collector.finisher().apply(container)));
+        return results;
+    }
+
+    /**
+     * Reads values of fields of records in columns, for analytic scans of a few fields of many records. Time buckets with columnar
+     * sidecar files (see {@link DatabaseProperties#setNumericColumns(List)}) are read from them, without parsing JSON. Other time
+     * buckets are read from data files.
+     * @param minMillis Optional (nullable) parameter with the earliest timestamp of data to read.
+     * @param maxMillis Optional (nullable) parameter with the latest timestamp of data to read.
+     * @param fields Names of configured numeric and string columns to read.
+     */
+    public Columns readColumns(Long minMillis, Long maxMillis, String... fields) {
+        final List<String> numericFields = new ArrayList<>();
+        final List<String> stringFields = new ArrayList<>();
+        for (String field : fields) {
+            if (numericColumns.contains(field)) {
+                numericFields.add(field);
+            } else if (stringColumns.contains(field)) {
+                stringFields.add(field);
+            } else {
+                throw new IllegalArgumentException("Field %s is not a configured column".formatted(field));
+            }
+        }
+        metrics.recordReadQuery();
+        final ColumnTable table = new ColumnTable(numericFields, stringFields);
+        try (var buckets = findBuckets(minMillis, maxMillis)) {
+            while (buckets.hasNext()) {
+                List<Path> paths = buckets.next();
+                ColumnTable bucketTable = (paths.size() == 1) ? readColumnsFile(paths.getFirst(), numericFields, stringFields) : null;
+                if (bucketTable != null) {
+                    table.addRows(bucketTable, minMillis, maxMillis);
+                    continue;
+                }
+                try (var spliterator = openFiles(paths)) {
+                    spliterator.forEachRemaining(line -> {
+                        long recordMillis = DataLine.timestampOrMin(line);
+                        if ((minMillis == null || minMillis <= recordMillis) && (maxMillis == null || maxMillis >= recordMillis)
+                                && !table.addLine(line)) {
+                            LOG.warn("Record reading failed (file: {}). Line: `{}`", spliterator.getCurrentPath(), line);
+                        }
+                    });
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Database read failed.", e);
+        }
+        return table.toColumns();
+    }
+
+    /**
+     * Reactive variant of {@link #read(Class, Long, Long)}, for callers that must not block. Each subscription reads data files
+     * on a virtual thread, ahead of demand by up to {@value RecordPublisher#DEFAULT_PREFETCH} records. Cancelling a subscription
+     * closes its files.
+     */
+    public <T> Flow.Publisher<Timestamped<T>> publish(Class<T> type, Long minMillis, Long maxMillis) {
+        return publish(type, minMillis, maxMillis, RecordPublisher.DEFAULT_PREFETCH);
+    }
+
+    /**
+     * @param prefetch Maximum number of records read ahead of demand by a subscription.
+     * @see #publish(Class, Long, Long)
+     */
+    public <T> Flow.Publisher<Timestamped<T>> publish(Class<T> type, Long minMillis, Long maxMillis, int prefetch) {
+        Validate.isTrue(prefetch > 0, "Prefetch must be positive");
+        return new RecordPublisher<>(() -> read(type, minMillis, maxMillis), prefetch);
+    }
+
+    /**
+     * Exports data files of a time range to a new ZIP file, which can be opened with {@link #fromZip(Path, FileNamingStrategy)}.
+     * Files are stored without compression and copied by an operating system. A file being written is exported up to its last
+     * complete record written out to the file, and writers are not blocked.
+     * @param target Path of a ZIP file to create. An existing file is overwritten.
+     * @param minMillis Optional (nullable) parameter with the earliest timestamp of data to export.
+     * @param maxMillis Optional (nullable) parameter with the latest timestamp of data to export.
+     * @return Number of exported data files.
+     */
+    public int exportZip(Path target, Long minMillis, Long maxMillis) {
+        int count = 0;
+        try (var buckets = findBuckets(minMillis, maxMillis); var zip = new ZipExport(target)) {
+            while (buckets.hasNext()) {
+                for (Path path : buckets.next()) {
+                    String entryName = DataFileBuckets.toRelativePathStr(dataDirs, path)
+                            .replace(path.getFileSystem().getSeparator(), "/");
+                    if (zip.addDataFile(entryName, path)) {
+                        ++count;
+                        Path markerPath = SidecarFiles.of(path, SidecarFiles.SORTED_MARKER);
+                        if (Files.exists(markerPath)) {         // checked after copying, as it is removed before a file is appended
+                            zip.addBytes(entryName + SidecarFiles.SORTED_MARKER, Files.readAllBytes(markerPath),
+                                    Files.getLastModifiedTime(markerPath));
+                        }
+                    }
+                }
+            }
+            zip.finish();
+        } catch (IOException | RuntimeException e) {
+            try {
+                Files.deleteIfExists(target);
+            } catch (IOException e2) {
+                e.addSuppressed(e2);
+            }
+            throw new RuntimeException("Database export to %s failed.".formatted(target), e);
+        }
+        LOG.info("Exported {} data files to {}.", count, target);
+        return count;
+    }
+
+    /**
+     * Counters and latency histograms of this database object.
+     */
+    public DatabaseMetrics getMetrics() {
+        return metrics;
+    }
+
     @Override
     public void close() {
         closeSafely(closeable);
@@ -137,14 +378,116 @@ public class ReadOnlyDatabase implements Closeable {
     private static Stream<String> filter(Stream<String> lineStream, Long minMillis, Long maxMillis) {
         if (minMillis != null || maxMillis != null) {
             lineStream = lineStream.filter(line -> {
-                long recordMillis = Long.parseLong(line, 0, line.indexOf(SEPARATOR), TIMESTAMP_RADIX);
+                long recordMillis = DataLine.timestampOrMin(line);
                 return (minMillis == null || minMillis <= recordMillis) && (maxMillis == null || maxMillis >= recordMillis);
             });
         }
         return lineStream;
     }
 
-    private <T> Timestamped<T> readRecordLine(String line, Class<T> type, ReadContext ctx) {
+    /**
+     * Opens data files of a time range. Subclasses may read files from other sources than a directory.
+     */
+    FileLinesSpliterator openFiles(Long minMillis, Long maxMillis) throws IOException {
+        return new FileLinesSpliterator(findBuckets(minMillis, maxMillis), metrics, false, FileLinesSpliterator.DIRECTORY_ACCESS,
+                readAheadBytes, fileNaming.formatRelativePathStr(System.currentTimeMillis()));
+    }
+
+    /**
+     * Opens given data files, which must be sorted.
+     */
+    FileLinesSpliterator openFiles(List<Path> sortedPaths) {
+        return new FileLinesSpliterator(DataFileBuckets.of(dataDirs, sortedPaths, fileNaming), metrics, false,
+                FileLinesSpliterator.DIRECTORY_ACCESS);
+    }
+
+    DataFileBuckets findBuckets(Long minMillis, Long maxMillis) throws IOException {
+        return DataFileBuckets.find(dataDirs, minMillis, maxMillis, fileNaming);
+    }
+
+    /**
+     * Reads records bucket by bucket. Buckets in the past are served from the record cache. Records are not limited by time.
+     */
+    private <T> Stream<Timestamped<T>> readBuckets(Class<T> type, Long minMillis, Long maxMillis) throws IOException {
+        final String currentBucket = fileNaming.formatRelativePathStr(System.currentTimeMillis());
+        var buckets = findBuckets(minMillis, maxMillis);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(buckets, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(buckets::close)
+                .flatMap(paths -> (buckets.toBucketPathStr(paths.getFirst()).compareTo(currentBucket) < 0)
+                        ? readSealedBucket(paths, type)
+                        : readBucket(paths, type, minMillis, maxMillis));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Stream<Timestamped<T>> readSealedBucket(List<Path> paths, Class<T> type) {
+        final List<RecordCache.FileVersion> versions;
+        try {
+            versions = RecordCache.versionsOf(paths);
+        } catch (IOException e) {
+            return readBucket(paths, type, null, null);       // e.g. a file replaced by compaction
+        }
+        Timestamped<T>[] records = recordCache.get(paths, type, versions);
+        if (records != null) {
+            metrics.recordCacheHit();
+        } else {
+            metrics.recordCacheMiss();
+            try (var recordStream = readBucket(paths, type, null, null)) {
+                records = recordStream.toArray(Timestamped[]::new);
+            }
+            recordCache.put(paths, type, versions, records);
+        }
+        return Arrays.stream(records);
+    }
+
+    /**
+     * Tells if a data file may have records of a key, by its key filter. A file without a valid key filter may have any key.
+     */
+    private boolean mayContainKey(Path path, String key) {
+        final Path filterPath = SidecarFiles.of(path, SidecarFiles.KEY_FILTER);
+        try {
+            KeyFilter keyFilter = Files.exists(filterPath) ? KeyFilter.read(filterPath, Files.size(path), keyField) : null;
+            if (keyFilter != null && !keyFilter.mightContain(key)) {
+                metrics.recordFileSkippedByKeyFilter();
+                return false;
+            }
+        } catch (IOException e) {
+            LOG.debug("Cannot read key filter {}. Its data file is read.", filterPath, e);     // e.g. removed by compaction
+        }
+        return true;
+    }
+
+    /**
+     * Reads columns of a columnar sidecar file of a data file. Returns null if there is no valid sidecar file with the columns.
+     */
+    private ColumnTable readColumnsFile(Path path, List<String> numericFields, List<String> stringFields) {
+        final Path columnsPath = SidecarFiles.of(path, SidecarFiles.COLUMNS);
+        try {
+            return Files.exists(columnsPath) ? ColumnTable.read(columnsPath, Files.size(path), numericFields, stringFields) : null;
+        } catch (IOException e) {
+            LOG.debug("Cannot read columnar file {}. Its data file is read instead.", columnsPath, e);     // e.g. removed by compaction
+            return null;
+        }
+    }
+
+    private <T, A> Map<Long, A> aggregateBucket(List<Path> paths, Class<T> type, Long minMillis, Long maxMillis, long bucketMillis,
+            Collector<? super T, A, ?> collector) {
+        final Map<Long, A> containers = new HashMap<>();
+        try (var records = readBucket(paths, type, minMillis, maxMillis)) {
+            records.forEach(record -> collector.accumulator().accept(containers.computeIfAbsent(
+                    Math.floorDiv(record.millis(), bucketMillis) * bucketMillis, bucketStart -> collector.supplier().get()),
+                    record.record()));
+        }
+        return containers;
+    }
+
+    private <T> Stream<Timestamped<T>> readBucket(List<Path> paths, Class<T> type, Long minMillis, Long maxMillis) {
+        var spliterator = openFiles(paths);
+        return filter(StreamUtil.stream(spliterator, false), minMillis, maxMillis)
+                .map(line -> readRecordLine(line, type, spliterator))
+                .filter(Objects::nonNull);
+    }
+
+    <T> Timestamped<T> readRecordLine(String line, Class<T> type, ReadContext ctx) {
         try {
             int tabPos = line.indexOf(SEPARATOR);
             return new Timestamped<>(serialization.deserialize(line.substring(tabPos + 1), type),
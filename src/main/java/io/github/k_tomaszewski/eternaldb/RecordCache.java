@@ -0,0 +1,104 @@
+package io.github.k_tomaszewski.eternaldb;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Size-bounded LRU cache of decoded records of sealed data files (see {@link DatabaseProperties#setRecordCacheSizeMB(long)}).
+ * An entry holds records of one time bucket - a data file or segment files of a bucket - decoded to one type. It is valid as long
+ * as modification times and sizes of the files are the same as when the records were read. Size of an entry is estimated
+ * by size of its files.
+ */
+final class RecordCache {
+
+    /**
+     * Modification time and size of a data file.
+     */
+    record FileVersion(long lastModifiedMillis, long size) {
+    }
+
+    private record Key(List<Path> paths, Class<?> type) {
+    }
+
+    private record Entry(List<FileVersion> versions, Timestamped<?>[] records, long size) {
+    }
+
+    private final long maxSize;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+
+    RecordCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    static List<FileVersion> versionsOf(List<Path> paths) throws IOException {
+        List<FileVersion> versions = new ArrayList<>(paths.size());
+        for (Path path : paths) {
+            var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            versions.add(new FileVersion(attributes.lastModifiedTime().toMillis(), attributes.size()));
+        }
+        return versions;
+    }
+
+    /**
+     * Returns cached records of given files or null, if there are none or the files have changed.
+     */
+    @SuppressWarnings("unchecked")
+    <T> Timestamped<T>[] get(List<Path> paths, Class<T> type, List<FileVersion> versions) {
+        final var key = new Key(paths, type);
+        lock.lock();
+        try {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (!entry.versions().equals(versions)) {
+                entries.remove(key);
+                size -= entry.size();
+                return null;
+            }
+            return (Timestamped<T>[]) entry.records();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Caches records of given files, evicting least recently used entries when the cache is full. `versions` must be taken before
+     * the files were read.
+     */
+    void put(List<Path> paths, Class<?> type, List<FileVersion> versions, Timestamped<?>[] records) {
+        final long entrySize = versions.stream().mapToLong(FileVersion::size).sum();
+        if (entrySize > maxSize) {
+            return;
+        }
+        lock.lock();
+        try {
+            Entry previous = entries.put(new Key(paths, type), new Entry(versions, records, entrySize));
+            size += entrySize - ((previous != null) ? previous.size() : 0L);
+            var iterator = entries.values().iterator();
+            while (size > maxSize && iterator.hasNext()) {
+                size -= iterator.next().size();
+                iterator.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getSize() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,531 @@
+package io.github.k_tomaszewski.eternaldb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaConversionException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.RecordComponent;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+
+/**
+ * JSON writer and reader of a record class, which components are primitives, boxed primitives or strings. It is built once per class,
+ * with accessors bound by {@link LambdaMetafactory} and the canonical constructor called by a method handle. Output is the same
+ * as output of Jackson with default settings: properties in order of components, nulls included, non-finite floating point numbers
+ * as strings. Reading accepts such output in any property order. Other input, like an unknown property or a number given as
+ * a string, is reported with {@link UnsupportedInputException}, so a caller can read it with Jackson.
+ */
+final class RecordCodec {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RecordCodec.class);
+    private static final String JACKSON_PACKAGE_PREFIX = "com.fasterxml.jackson.";
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * Input not handled by a codec. It has no stack trace, as it only makes a caller fall back to a general reader.
+     */
+    static final class UnsupportedInputException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedInputException(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private enum Kind {
+        BOOLEAN, BYTE, SHORT, INT, LONG, FLOAT, DOUBLE, CHAR, STRING
+    }
+
+    @FunctionalInterface
+    private interface ComponentWriter {
+        void write(Object record, StringBuilder out);
+    }
+
+    /**
+     * @param prefix Property name with its quotes and a colon, preceded by a comma or an opening brace.
+     */
+    private record Component(String name, String prefix, Kind kind, boolean nullable, ComponentWriter writer) {
+    }
+
+    private final Component[] components;
+    // (Object[])Object
+    private final MethodHandle constructor;
+
+    private RecordCodec(Component[] components, MethodHandle constructor) {
+        this.components = components;
+        this.constructor = constructor;
+    }
+
+    /**
+     * Returns a codec of a class, or null when the class is not supported.
+     */
+    static RecordCodec create(Class<?> type) {
+        if (!type.isRecord() || type.getRecordComponents().length == 0 || hasJacksonAnnotations(type) || hasOtherGetters(type)) {
+            return null;
+        }
+        try {
+            final MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+            final RecordComponent[] recordComponents = type.getRecordComponents();
+            final Component[] components = new Component[recordComponents.length];
+            final Class<?>[] componentTypes = new Class<?>[recordComponents.length];
+            for (int i = 0; i < recordComponents.length; ++i) {
+                RecordComponent recordComponent = recordComponents[i];
+                Kind kind = toKind(recordComponent.getType());
+                if (kind == null || hasJacksonAnnotations(recordComponent) || hasJacksonAnnotations(recordComponent.getAccessor())) {
+                    return null;
+                }
+                componentTypes[i] = recordComponent.getType();
+                MethodHandle accessor = lookup.unreflect(recordComponent.getAccessor());
+                boolean nullable = !recordComponent.getType().isPrimitive();
+                components[i] = new Component(recordComponent.getName(),
+                        ((i == 0) ? "{" : ",") + quote(recordComponent.getName()) + ":", kind, nullable,
+                        nullable ? toObjectWriter(lookup, accessor, kind) : toPrimitiveWriter(lookup, accessor, kind));
+            }
+            MethodHandle constructor = lookup.findConstructor(type, MethodType.methodType(void.class, componentTypes))
+                    .asSpreader(Object[].class, componentTypes.length)
+                    .asType(MethodType.methodType(Object.class, Object[].class));
+            return new RecordCodec(components, constructor);
+        } catch (ReflectiveOperationException | LambdaConversionException | RuntimeException e) {
+            LOG.debug("Cannot build codec of {}. Jackson is used for it.", type, e);
+            return null;
+        }
+    }
+
+    void write(Object record, StringBuilder out) {
+        for (Component component : components) {
+            out.append(component.prefix());
+            component.writer().write(record, out);
+        }
+        out.append('}');
+    }
+
+    Object read(String json) {
+        final Object[] values = new Object[components.length];
+        final boolean[] present = new boolean[components.length];
+        final Parser parser = new Parser(json);
+        parser.expect('{');
+        int presentCount = 0;
+        if (!parser.tryConsume('}')) {
+            int expectedIndex = 0;
+            do {
+                int index = parser.readName(expectedIndex);
+                if (present[index]) {
+                    throw new UnsupportedInputException("Duplicate property");
+                }
+                parser.expect(':');
+                values[index] = parser.readValue(components[index]);
+                present[index] = true;
+                ++presentCount;
+                expectedIndex = (index + 1) % components.length;
+            } while (parser.tryConsume(','));
+            parser.expect('}');
+        }
+        parser.expectEnd();
+        if (presentCount != components.length) {
+            throw new UnsupportedInputException("Missing property");
+        }
+        try {
+            return (Object) constructor.invokeExact(values);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new UndeclaredThrowableException(e);
+        }
+    }
+
+    private static Kind toKind(Class<?> type) {
+        if (type == boolean.class || type == Boolean.class) {
+            return Kind.BOOLEAN;
+        } else if (type == byte.class || type == Byte.class) {
+            return Kind.BYTE;
+        } else if (type == short.class || type == Short.class) {
+            return Kind.SHORT;
+        } else if (type == int.class || type == Integer.class) {
+            return Kind.INT;
+        } else if (type == long.class || type == Long.class) {
+            return Kind.LONG;
+        } else if (type == float.class || type == Float.class) {
+            return Kind.FLOAT;
+        } else if (type == double.class || type == Double.class) {
+            return Kind.DOUBLE;
+        } else if (type == char.class || type == Character.class) {
+            return Kind.CHAR;
+        } else if (type == String.class) {
+            return Kind.STRING;
+        }
+        return null;
+    }
+
+    private static boolean hasJacksonAnnotations(AnnotatedElement element) {
+        for (Annotation annotation : element.getAnnotations()) {
+            if (annotation.annotationType().getName().startsWith(JACKSON_PACKAGE_PREFIX)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tells if a record has public getters other than its accessors, like a default method of an interface, as Jackson writes them too.
+     */
+    private static boolean hasOtherGetters(Class<?> type) {
+        final Set<String> accessorNames = Arrays.stream(type.getRecordComponents())
+                .map(RecordComponent::getName)
+                .collect(Collectors.toSet());
+        for (Method method : type.getMethods()) {
+            String name = method.getName();
+            if (!Modifier.isStatic(method.getModifiers()) && method.getParameterCount() == 0 && !accessorNames.contains(name)
+                    && !name.equals("getClass") && ((name.startsWith("get") && name.length() > 3 && method.getReturnType() != void.class)
+                    || (name.startsWith("is") && name.length() > 2 && method.getReturnType() == boolean.class))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ComponentWriter toPrimitiveWriter(MethodHandles.Lookup lookup, MethodHandle accessor, Kind kind)
+            throws LambdaConversionException {
+        return switch (kind) {
+            case BOOLEAN -> {
+                Predicate<Object> getter = toFunction(lookup, accessor, Predicate.class, "test", boolean.class);
+                yield (record, out) -> out.append(getter.test(record));
+            }
+            case BYTE, SHORT, INT -> {
+                ToIntFunction<Object> getter = toFunction(lookup, accessor, ToIntFunction.class, "applyAsInt", int.class);
+                yield (record, out) -> out.append(getter.applyAsInt(record));
+            }
+            case CHAR -> {
+                ToIntFunction<Object> getter = toFunction(lookup, accessor, ToIntFunction.class, "applyAsInt", int.class);
+                yield (record, out) -> appendString(String.valueOf((char) getter.applyAsInt(record)), out);
+            }
+            case LONG -> {
+                ToLongFunction<Object> getter = toFunction(lookup, accessor, ToLongFunction.class, "applyAsLong", long.class);
+                yield (record, out) -> out.append(getter.applyAsLong(record));
+            }
+            case FLOAT -> {
+                ToDoubleFunction<Object> getter = toFunction(lookup, accessor, ToDoubleFunction.class, "applyAsDouble", double.class);
+                yield (record, out) -> appendFloat((float) getter.applyAsDouble(record), out);
+            }
+            case DOUBLE -> {
+                ToDoubleFunction<Object> getter = toFunction(lookup, accessor, ToDoubleFunction.class, "applyAsDouble", double.class);
+                yield (record, out) -> appendDouble(getter.applyAsDouble(record), out);
+            }
+            case STRING -> throw new IllegalArgumentException("Not a primitive");
+        };
+    }
+
+    private static ComponentWriter toObjectWriter(MethodHandles.Lookup lookup, MethodHandle accessor, Kind kind)
+            throws LambdaConversionException {
+        final Function<Object, Object> getter = toFunction(lookup, accessor, Function.class, "apply", Object.class);
+        return (record, out) -> {
+            Object value = getter.apply(record);
+            if (value == null) {
+                out.append("null");
+                return;
+            }
+            switch (kind) {
+                case FLOAT -> appendFloat((Float) value, out);
+                case DOUBLE -> appendDouble((Double) value, out);
+                case CHAR, STRING -> appendString(value.toString(), out);
+                default -> out.append(value);
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <F> F toFunction(MethodHandles.Lookup lookup, MethodHandle accessor, Class<?> functionType, String methodName,
+            Class<?> returnType) throws LambdaConversionException {
+        final MethodType dynamicType = returnType.isPrimitive()
+                ? accessor.type().changeReturnType(returnType)
+                : accessor.type();
+        CallSite callSite = LambdaMetafactory.metafactory(lookup, methodName, MethodType.methodType(functionType),
+                MethodType.methodType(returnType, Object.class), accessor, dynamicType);
+        try {
+            return (F) callSite.getTarget().invoke();
+        } catch (Throwable e) {
+            throw new LambdaConversionException("Cannot create accessor function", e);
+        }
+    }
+
+    private static void appendFloat(float value, StringBuilder out) {
+        if (Float.isFinite(value)) {
+            out.append(value);
+        } else {
+            out.append('"').append(value).append('"');
+        }
+    }
+
+    private static void appendDouble(double value, StringBuilder out) {
+        if (Double.isFinite(value)) {
+            out.append(value);
+        } else {
+            out.append('"').append(value).append('"');
+        }
+    }
+
+    private static String quote(String value) {
+        StringBuilder out = new StringBuilder();
+        appendString(value, out);
+        return out.toString();
+    }
+
+    /**
+     * Appends a string with escaping done by Jackson: quotes, backslashes and control characters.
+     */
+    private static void appendString(String value, StringBuilder out) {
+        out.append('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (c < 0x20 || c == '"' || c == '\\') {
+                out.append(value, start, i);
+                start = i + 1;
+                switch (c) {
+                    case '"' -> out.append("\\\"");
+                    case '\\' -> out.append("\\\\");
+                    case '\b' -> out.append("\\b");
+                    case '\t' -> out.append("\\t");
+                    case '\f' -> out.append("\\f");
+                    case '\n' -> out.append("\\n");
+                    case '\r' -> out.append("\\r");
+                    default -> out.append("\\u00").append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xF]);
+                }
+            }
+        }
+        out.append(value, start, value.length()).append('"');
+    }
+
+    /**
+     * Strict parser of JSON produced by a codec, with any whitespace and property order.
+     */
+    private final class Parser {
+
+        private final String json;
+        private int pos;
+
+        Parser(String json) {
+            this.json = json;
+        }
+
+        void expect(char c) {
+            skipWhitespace();
+            if (pos >= json.length() || json.charAt(pos) != c) {
+                throw new UnsupportedInputException("Expected " + c);
+            }
+            ++pos;
+        }
+
+        boolean tryConsume(char c) {
+            skipWhitespace();
+            if (pos < json.length() && json.charAt(pos) == c) {
+                ++pos;
+                return true;
+            }
+            return false;
+        }
+
+        void expectEnd() {
+            skipWhitespace();
+            if (pos != json.length()) {
+                throw new UnsupportedInputException("Unexpected content after object");
+            }
+        }
+
+        /**
+         * Reads a property name and returns an index of its component. A name with escapes is not supported.
+         */
+        int readName(int expectedIndex) {
+            expect('"');
+            final int start = pos;
+            final int end = json.indexOf('"', start);
+            if (end < 0 || json.indexOf('\\', start, end) >= 0) {
+                throw new UnsupportedInputException("Unsupported property name");
+            }
+            pos = end + 1;
+            final int length = end - start;
+            for (int i = 0; i < components.length; ++i) {
+                int index = (expectedIndex + i) % components.length;
+                String name = components[index].name();
+                if (name.length() == length && json.regionMatches(start, name, 0, length)) {
+                    return index;
+                }
+            }
+            throw new UnsupportedInputException("Unknown property");
+        }
+
+        Object readValue(Component component) {
+            skipWhitespace();
+            if (json.startsWith("null", pos)) {
+                if (!component.nullable()) {
+                    throw new UnsupportedInputException("Null for a primitive");
+                }
+                pos += 4;
+                return null;
+            }
+            return switch (component.kind()) {
+                case BOOLEAN -> readBoolean();
+                case BYTE -> {
+                    long value = readLong();
+                    if (value < Byte.MIN_VALUE || value > Byte.MAX_VALUE) {
+                        throw new UnsupportedInputException("Byte out of range");
+                    }
+                    yield (byte) value;
+                }
+                case SHORT -> {
+                    long value = readLong();
+                    if (value < Short.MIN_VALUE || value > Short.MAX_VALUE) {
+                        throw new UnsupportedInputException("Short out of range");
+                    }
+                    yield (short) value;
+                }
+                case INT -> {
+                    long value = readLong();
+                    if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                        throw new UnsupportedInputException("Int out of range");
+                    }
+                    yield (int) value;
+                }
+                case LONG -> readLong();
+                case FLOAT -> (float) readDouble();
+                case DOUBLE -> readDouble();
+                case CHAR -> {
+                    String value = readString();
+                    if (value.length() != 1) {
+                        throw new UnsupportedInputException("Not a single character");
+                    }
+                    yield value.charAt(0);
+                }
+                case STRING -> readString();
+            };
+        }
+
+        private boolean readBoolean() {
+            if (json.startsWith("true", pos)) {
+                pos += 4;
+                return true;
+            } else if (json.startsWith("false", pos)) {
+                pos += 5;
+                return false;
+            }
+            throw new UnsupportedInputException("Not a boolean");
+        }
+
+        private long readLong() {
+            final int start = pos;
+            final boolean negative = pos < json.length() && json.charAt(pos) == '-';
+            if (negative) {
+                ++pos;
+            }
+            final int digitsStart = pos;
+            long value = 0;
+            while (pos < json.length() && json.charAt(pos) >= '0' && json.charAt(pos) <= '9') {
+                int digit = json.charAt(pos++) - '0';
+                if (value < (Long.MIN_VALUE + digit) / 10) {
+                    throw new UnsupportedInputException("Integer out of range");
+                }
+                value = value * 10 - digit;         // accumulated negatively to cover Long.MIN_VALUE
+            }
+            final int digitCount = pos - digitsStart;
+            if (digitCount == 0 || (digitCount > 1 && json.charAt(digitsStart) == '0')
+                    || (pos < json.length() && ".eE".indexOf(json.charAt(pos)) >= 0)) {
+                throw new UnsupportedInputException("Unsupported integer: " + json.substring(start, pos));
+            }
+            if (!negative) {
+                if (value == Long.MIN_VALUE) {
+                    throw new UnsupportedInputException("Integer out of range");
+                }
+                value = -value;
+            }
+            return value;
+        }
+
+        private double readDouble() {
+            if (pos < json.length() && json.charAt(pos) == '"') {
+                return switch (readString()) {
+                    case "NaN" -> Double.NaN;
+                    case "Infinity" -> Double.POSITIVE_INFINITY;
+                    case "-Infinity" -> Double.NEGATIVE_INFINITY;
+                    default -> throw new UnsupportedInputException("Number as a string");
+                };
+            }
+            final int start = pos;
+            while (pos < json.length() && "0123456789-+.eE".indexOf(json.charAt(pos)) >= 0) {
+                ++pos;
+            }
+            if (start == pos) {
+                throw new UnsupportedInputException("Not a number");
+            }
+            return Double.parseDouble(json.substring(start, pos));
+        }
+
+        private String readString() {
+            if (pos >= json.length() || json.charAt(pos) != '"') {
+                throw new UnsupportedInputException("Not a string");
+            }
+            final int start = ++pos;
+            final int end = json.indexOf('"', start);
+            if (end < 0) {
+                throw new UnsupportedInputException("Unterminated string");
+            }
+            if (json.indexOf('\\', start, end) < 0) {
+                pos = end + 1;
+                return json.substring(start, end);
+            }
+            StringBuilder value = new StringBuilder(end - start);
+            while (pos < json.length()) {
+                char c = json.charAt(pos++);
+                if (c == '"') {
+                    return value.toString();
+                } else if (c != '\\') {
+                    value.append(c);
+                } else if (pos < json.length()) {
+                    char escaped = json.charAt(pos++);
+                    switch (escaped) {
+                        case '"', '\\', '/' -> value.append(escaped);
+                        case 'b' -> value.append('\b');
+                        case 'f' -> value.append('\f');
+                        case 'n' -> value.append('\n');
+                        case 'r' -> value.append('\r');
+                        case 't' -> value.append('\t');
+                        case 'u' -> {
+                            if (pos + 4 > json.length()) {
+                                throw new UnsupportedInputException("Truncated escape");
+                            }
+                            value.append((char) Integer.parseInt(json, pos, pos + 4, 16));
+                            pos += 4;
+                        }
+                        default -> throw new UnsupportedInputException("Unknown escape");
+                    }
+                }
+            }
+            throw new UnsupportedInputException("Unterminated string");
+        }
+
+        private void skipWhitespace() {
+            while (pos < json.length()) {
+                char c = json.charAt(pos);
+                if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                    return;
+                }
+                ++pos;
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package io.github.k_tomaszewski.eternaldb;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/**
+ * Serialization strategy with codecs generated for Java records, which components are primitives, boxed primitives or strings.
+ * Output of a codec is the same as output of {@link JacksonSerialization} with default settings, so both strategies can read
+ * each other's data files. Other types, records with Jackson annotations and input not handled by a codec are passed to
+ * a fallback strategy.
+ */
+public class RecordCodecSerialization implements SerializationStrategy {
+
+    private final SerializationStrategy fallback;
+    private final ClassValue<RecordCodec> codecs = new ClassValue<>() {
+        @Override
+        protected RecordCodec computeValue(Class<?> type) {
+            return RecordCodec.create(type);
+        }
+    };
+
+    public RecordCodecSerialization() {
+        this(new JacksonSerialization());
+    }
+
+    /**
+     * @param fallback Strategy for objects without a codec. Its output should be compatible with Jackson with default settings.
+     */
+    public RecordCodecSerialization(SerializationStrategy fallback) {
+        this.fallback = fallback;
+    }
+
+    @Override
+    public void serialize(Object obj, Writer writer) {
+        final RecordCodec codec = (obj != null) ? codecs.get(obj.getClass()) : null;
+        if (codec == null) {
+            fallback.serialize(obj, writer);
+            return;
+        }
+        StringBuilder out = new StringBuilder(128);
+        codec.write(obj, out);
+        try {
+            writer.append(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Record serialization or write to file failed", e);
+        }
+    }
+
+    @Override
+    public <T> T deserialize(String json, Class<T> type) {
+        final RecordCodec codec = codecs.get(type);
+        if (codec != null) {
+            try {
+                return type.cast(codec.read(json));
+            } catch (RuntimeException e) {
+                // e.g. input not written by a codec or rejected by a record constructor - Jackson reads or reports it
+            }
+        }
+        return fallback.deserialize(json, type);
+    }
+}
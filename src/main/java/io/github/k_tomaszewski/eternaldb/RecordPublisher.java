@@ -0,0 +1,165 @@
+package io.github.k_tomaszewski.eternaldb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Publishes records of a read query. Each subscription reads records on its own virtual thread into a bounded queue, so files are
+ * read ahead of demand by at most a prefetch number of records. Records are delivered by a thread requesting them or by the reading
+ * thread, one at a time. Cancelling a subscription interrupts the reading thread, which closes files of the query.
+ */
+class RecordPublisher<T> implements Flow.Publisher<Timestamped<T>> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RecordPublisher.class);
+    static final int DEFAULT_PREFETCH = 256;
+
+    private final Supplier<Stream<Timestamped<T>>> query;
+    private final int prefetch;
+
+    /**
+     * @param query Opens a stream of records for each subscription.
+     */
+    RecordPublisher(Supplier<Stream<Timestamped<T>>> query, int prefetch) {
+        this.query = query;
+        this.prefetch = prefetch;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Timestamped<T>> subscriber) {
+        Objects.requireNonNull(subscriber, "Subscriber cannot be null");
+        new RecordSubscription<>(subscriber, query, prefetch).start();
+    }
+
+    private static class RecordSubscription<T> implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super Timestamped<T>> subscriber;
+        private final Supplier<Stream<Timestamped<T>>> query;
+        private final BlockingQueue<Timestamped<T>> queue;
+        private final AtomicLong demand = new AtomicLong();
+        // number of pending deliveries; only a thread incrementing it from zero delivers records
+        private final AtomicInteger deliveries = new AtomicInteger();
+        private volatile Thread reader;
+        private volatile boolean cancelled;
+        private volatile boolean readingDone;
+        private volatile Throwable readingError;
+        private volatile Throwable requestError;
+        // accessed by a delivering thread only
+        private boolean terminated;
+
+        RecordSubscription(Flow.Subscriber<? super Timestamped<T>> subscriber, Supplier<Stream<Timestamped<T>>> query, int prefetch) {
+            this.subscriber = subscriber;
+            this.query = query;
+            this.queue = new ArrayBlockingQueue<>(prefetch);
+        }
+
+        void start() {
+            subscriber.onSubscribe(this);
+            if (!cancelled) {
+                Thread thread = Thread.ofVirtual().name("etdb-publish").unstarted(this::read);
+                reader = thread;
+                thread.start();
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                requestError = new IllegalArgumentException("Requested number of records must be positive: " + n);
+            } else {
+                demand.getAndUpdate(current -> (current + n < 0) ? Long.MAX_VALUE : current + n);
+            }
+            deliver();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            Thread thread = reader;
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+
+        private void read() {
+            try (Stream<Timestamped<T>> records = query.get()) {
+                Iterator<Timestamped<T>> iterator = records.iterator();
+                while (!cancelled && iterator.hasNext()) {
+                    queue.put(iterator.next());
+                    deliver();
+                }
+            } catch (InterruptedException e) {
+                // cancelled
+            } catch (RuntimeException e) {
+                if (!cancelled) {
+                    readingError = e;
+                }
+            } finally {
+                readingDone = true;
+                deliver();
+            }
+        }
+
+        private void deliver() {
+            if (deliveries.getAndIncrement() != 0) {
+                return;     // the delivering thread delivers again
+            }
+            int pending = 1;
+            do {
+                if (!terminated) {
+                    deliverRecords();
+                }
+                pending = deliveries.addAndGet(-pending);
+            } while (pending != 0);
+        }
+
+        private void deliverRecords() {
+            try {
+                while (!cancelled && demand.get() > 0) {
+                    Timestamped<T> record = queue.poll();
+                    if (record == null) {
+                        break;
+                    }
+                    demand.decrementAndGet();
+                    subscriber.onNext(record);
+                }
+                if (cancelled) {
+                    terminated = true;
+                    queue.clear();
+                } else if (requestError != null) {
+                    terminate(requestError);
+                } else if (readingDone && queue.isEmpty()) {
+                    terminate(readingError);
+                }
+            } catch (RuntimeException e) {
+                LOG.warn("Subscriber of records failed. Subscription cancelled.", e);
+                terminated = true;
+                cancel();
+            }
+        }
+
+        private void terminate(Throwable error) {
+            terminated = true;
+            if (readingDone) {
+                cancelled = true;       // the reading thread, which may deliver it, is not interrupted
+            } else {
+                cancel();
+            }
+            queue.clear();
+            if (error != null) {
+                subscriber.onError(error);
+            } else {
+                subscriber.onComplete();
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package io.github.k_tomaszewski.eternaldb;
+
+import java.util.regex.Pattern;
+
+/**
+ * Naming of segment files, which are many data files holding records of the same time bucket. Segment 0 has the path given by
+ * a {@link FileNamingStrategy}. Other segments have ".s&lt;N&gt;" inserted before the file extension, eg. `2024-05-01_1300.s3.data`.
+ * As the inserted part starts with '.', segment paths are sorted right after the path of segment 0 and before a path of any later
+ * time bucket, so the lexicographic order contract of {@link FileNamingStrategy} holds for them as well.
+ */
+final class SegmentNaming {
+
+    private static final String SEGMENT_PREFIX = ".s";
+    private static final Pattern SEGMENT_PATTERN = Pattern.compile("\\.s\\d+(?=(\\.[^./]*)?$)");
+
+    private SegmentNaming() {
+    }
+
+    static String toSegmentPathStr(String bucketPath, int segment) {
+        if (segment == 0) {
+            return bucketPath;
+        }
+        int extensionPos = bucketPath.lastIndexOf('.');
+        if (extensionPos <= bucketPath.lastIndexOf('/')) {
+            extensionPos = bucketPath.length();
+        }
+        return bucketPath.substring(0, extensionPos) + SEGMENT_PREFIX + segment + bucketPath.substring(extensionPos);
+    }
+
+    /**
+     * Inverse of {@link #toSegmentPathStr(String, int)}: path of segment 0 for a path of any segment of the same time bucket.
+     */
+    static String toBucketPathStr(String segmentPath) {
+        return SEGMENT_PATTERN.matcher(segmentPath).replaceFirst("");
+    }
+
+    /**
+     * Returns a segment number of a path.
+     */
+    static int toSegment(String segmentPath) {
+        var matcher = SEGMENT_PATTERN.matcher(segmentPath);
+        return matcher.find() ? Integer.parseInt(segmentPath, matcher.start() + SEGMENT_PREFIX.length(), matcher.end(), 10) : 0;
+    }
+}
@@ -0,0 +1,80 @@
+package io.github.k_tomaszewski.eternaldb;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Sidecar files are kept next to data files and hold metadata of a data file. A name of a sidecar file is a name of its data file
+ * followed by a suffix, so it is sorted right after its data file. Sidecar files are not data files, so readers skip them.
+ */
+final class SidecarFiles {
+
+    /**
+     * Marks a sealed data file with records appended in timestamp order. It contains the last timestamp (radix 32).
+     */
+    static final String SORTED_MARKER = ".sorted";
+
+    /**
+     * A data file being written by compaction or copied to a next storage tier, before it is moved into place.
+     */
+    static final String COMPACTING = ".compacting";
+
+    /**
+     * A data file replaced by compaction. Readers that listed the data file before still find its content here, until the retired
+     * file is deleted after a grace period.
+     */
+    static final String RETIRED = ".retired";
+
+    /**
+     * A data file moved to a next storage tier. Like a retired file, it is read by readers that listed the data file before,
+     * until it is deleted after a grace period.
+     */
+    static final String MIGRATED = ".migrated";
+
+    /**
+     * Values of configured fields of records of a sealed data file in columns, for analytic reads (see {@link ColumnTable}).
+     */
+    static final String COLUMNS = ".columns";
+
+    /**
+     * Bloom filter of values of a key field of records of a sealed data file (see {@link KeyFilter}).
+     */
+    static final String KEY_FILTER = ".bloom";
+
+    /**
+     * Manifest of data files being replaced by a new data file, kept until they are renamed (see {@link FileReplacement}).
+     */
+    static final String REPLACING = ".replacing";
+
+    /**
+     * Suffixes of sidecars with metadata of a data file, which are deleted together with the data file.
+     */
+    static final List<String> METADATA_SUFFIXES = List.of(SORTED_MARKER, COLUMNS, KEY_FILTER);
+
+    private static final List<String> SUFFIXES = List.of(SORTED_MARKER, COMPACTING, RETIRED, MIGRATED, COLUMNS, KEY_FILTER,
+            REPLACING);
+
+    private SidecarFiles() {
+    }
+
+    static Path of(Path dataFile, String suffix) {
+        return dataFile.resolveSibling(dataFile.getFileName().toString() + suffix);
+    }
+
+    static boolean isSidecar(Path path) {
+        Path fileName = path.getFileName();
+        if (fileName == null) {
+            return false;
+        }
+        return isSidecar(fileName.toString());
+    }
+
+    static boolean isSidecar(String name) {
+        for (String suffix : SUFFIXES) {
+            if (name.endsWith(suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
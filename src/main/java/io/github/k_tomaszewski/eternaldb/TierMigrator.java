@@ -0,0 +1,204 @@
+package io.github.k_tomaszewski.eternaldb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import static io.github.k_tomaszewski.util.FileUtils.IS_FILE_PREDICATE;
+
+/**
+ * Frees disk space of the first storage tier by moving its oldest sealed data files to the next, slower tier (see
+ * {@link DatabaseProperties#addStorageTier(Path, long)}). Space of the next tier is freed first, the same way, and space
+ * of the last tier is freed by deleting its oldest files with {@link DiskSpaceReclaimer}.
+ * A file is copied to the next tier as a sidecar, forced to a storage device and moved into place. Then the source file is renamed
+ * to a migrated sidecar, which readers that listed it before still read (see {@link SidecarFiles#MIGRATED}). Migrated files
+ * are deleted after a grace period, and until then they count in disk usage of their tier. A migration counts them as space
+ * being freed, so it doesn't move more files while they wait. A move interrupted by a crash is finished when a database is opened
+ * again (see {@link FileReplacement}).
+ * A reader listing tiers while a file is being moved may read records of the file twice.
+ */
+class TierMigrator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TierMigrator.class);
+    private static final BiPredicate<Path, BasicFileAttributes> MIGRATED_FILE_PREDICATE = IS_FILE_PREDICATE.and((path, attributes) ->
+            path.getFileName().toString().endsWith(SidecarFiles.MIGRATED));
+
+    /**
+     * A storage tier with its disk usage and disk space to keep free, in megabytes.
+     */
+    record Tier(Path dataDir, long diskUsageLimit, double minFreeMB, DoubleAdder diskUsage) {
+
+        double getFreeMB() {
+            return diskUsageLimit - diskUsage.sum() - minFreeMB;
+        }
+    }
+
+    private final List<Tier> tiers;
+    private final FileNamingStrategy fileNaming;
+    private final Predicate<String> reserveFile;
+    private final Consumer<String> releaseFile;
+    private final DatabaseMetrics metrics;
+
+    /**
+     * @param reserveFile Reserves a data file (given by a relative path) of the first tier, so it is not opened for writing while
+     *                    it is moved. Returns false when the file is open for writing.
+     * @param releaseFile Releases a reserved file.
+     */
+    TierMigrator(List<Tier> tiers, FileNamingStrategy fileNaming, Predicate<String> reserveFile, Consumer<String> releaseFile,
+            DatabaseMetrics metrics) {
+        this.tiers = tiers;
+        this.fileNaming = fileNaming;
+        this.reserveFile = reserveFile;
+        this.releaseFile = releaseFile;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Frees given disk space of the first tier and clears the flag when done.
+     */
+    Runnable migration(double spaceToFreeMB, AtomicBoolean migrating) {
+        return () -> {
+            LOG.info("Migration of data files started with target to free {} MB...", spaceToFreeMB);
+            try {
+                double freedMB = free(0, spaceToFreeMB);
+                LOG.info("Migration of data files completed. {} MB moved.", freedMB);
+            } catch (InterruptedIOException e) {
+                LOG.info("Migration of data files interrupted.");
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("Migration of data files failed.", e);
+            } finally {
+                migrating.set(false);
+            }
+        };
+    }
+
+    /**
+     * Returns disk space of a tier freed, or to be freed after the grace period by moved files, in megabytes. Migrated files
+     * waiting for deletion count in the given space, so only the rest of it is freed by moving files.
+     */
+    double free(int tierIndex, double spaceMB) throws IOException {
+        final Tier tier = tiers.get(tierIndex);
+        if (tierIndex == tiers.size() - 1) {
+            final double usageBefore = tier.diskUsage().sum();
+            new DiskSpaceReclaimer(tier.dataDir(), spaceMB, new AtomicBoolean(true), tier.diskUsage(), metrics).run();
+            return usageBefore - tier.diskUsage().sum();
+        }
+        final Tier nextTier = tiers.get(tierIndex + 1);
+        if (nextTier.getFreeMB() < spaceMB) {
+            free(tierIndex + 1, spaceMB - nextTier.getFreeMB());
+        }
+        final String currentBucket = fileNaming.formatRelativePathStr(System.currentTimeMillis());
+        final List<Path> paths;
+        try (Stream<Path> pathStream = Files.find(tier.dataDir(), fileNaming.maxDirectoryDepth(),
+                DataFileBuckets.DATA_FILE_PREDICATE.or(MIGRATED_FILE_PREDICATE))) {
+            paths = pathStream.sorted().toList();
+        }
+        final double migratedMB = paths.stream()
+                .filter(path -> path.getFileName().toString().endsWith(SidecarFiles.MIGRATED))
+                .mapToDouble(path -> metrics.measureDiskUsageMB(path.toString()))
+                .sum();
+        double freedMB = 0.0;
+        Iterator<Path> iterator = paths.stream().filter(path -> !SidecarFiles.isSidecar(path)).iterator();
+        while (migratedMB + freedMB < spaceMB && iterator.hasNext()) {
+            Path source = iterator.next();
+            String relativePath = tier.dataDir().relativize(source).toString();
+            if (SegmentNaming.toBucketPathStr(relativePath).compareTo(currentBucket) >= 0) {
+                break;      // files are sorted, so all following files are of the current bucket or later ones
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Migration of data files interrupted");
+            }
+            if (reserveFile.test(relativePath)) {
+                try {
+                    freedMB += move(source, relativePath, tier, nextTier);
+                } finally {
+                    releaseFile.accept(relativePath);
+                }
+            }
+        }
+        return freedMB;
+    }
+
+    /**
+     * Deletes migrated files and leftovers of interrupted copying older than the grace period.
+     */
+    void deleteExpiredFiles() {
+        final long expiryMillis = System.currentTimeMillis() - Compactor.RETIRED_FILE_GRACE_PERIOD.toMillis();
+        for (int i = 0; i < tiers.size(); ++i) {
+            final boolean firstTier = (i == 0);     // leftovers of compaction in the first tier are deleted by compaction
+            try (Stream<Path> pathStream = Files.find(tiers.get(i).dataDir(), fileNaming.maxDirectoryDepth(),
+                    IS_FILE_PREDICATE.and((path, attributes) -> {
+                        String name = path.getFileName().toString();
+                        return (name.endsWith(SidecarFiles.MIGRATED) || (!firstTier && name.endsWith(SidecarFiles.COMPACTING)))
+                                && attributes.lastModifiedTime().toMillis() < expiryMillis;
+                    }))) {
+                final DoubleAdder diskUsage = tiers.get(i).diskUsage();
+                pathStream.toList().forEach(path -> diskUsage.add(-DiskSpaceReclaimer.remove(path, metrics::measureDiskUsageMB)));
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("Deleting of migrated data files in {} failed.", tiers.get(i).dataDir(), e);
+            }
+        }
+    }
+
+    /**
+     * Moves a file to the next tier. A bucket written again after its file was moved has a file in both tiers, so such file is
+     * moved as a free segment file of the bucket. Returns disk space of the source tier freed after the grace period, in megabytes.
+     */
+    private double move(Path source, String relativePath, Tier tier, Tier nextTier) throws IOException {
+        Path target = nextTier.dataDir().resolve(relativePath);
+        for (int segment = 1; Files.exists(target); ++segment) {
+            target = nextTier.dataDir().resolve(SegmentNaming.toSegmentPathStr(SegmentNaming.toBucketPathStr(relativePath), segment));
+        }
+        Files.createDirectories(target.getParent());
+        final Path tempPath = SidecarFiles.of(target, SidecarFiles.COMPACTING);
+        try {
+            Files.copy(source, tempPath, StandardCopyOption.REPLACE_EXISTING);
+            try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            for (String suffix : SidecarFiles.METADATA_SUFFIXES) {
+                Path sidecarPath = SidecarFiles.of(source, suffix);
+                if (Files.exists(sidecarPath)) {
+                    Path targetSidecarPath = SidecarFiles.of(target, suffix);
+                    Files.copy(sidecarPath, targetSidecarPath, StandardCopyOption.REPLACE_EXISTING);
+                    nextTier.diskUsage().add(metrics.measureDiskUsageMB(targetSidecarPath.toString()));
+                }
+            }
+            FileReplacement.prepare(target, List.of(source), SidecarFiles.MIGRATED);
+            Files.move(tempPath, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            FileReplacement.abort(target);
+            Files.deleteIfExists(tempPath);
+            throw e;
+        }
+        nextTier.diskUsage().add(metrics.measureDiskUsageMB(target.toString()));
+
+        final double sourceMB = metrics.measureDiskUsageMB(source.toString());
+        for (String suffix : SidecarFiles.METADATA_SUFFIXES) {
+            Path sidecarPath = SidecarFiles.of(source, suffix);
+            if (Files.exists(sidecarPath)) {
+                tier.diskUsage().add(-DiskSpaceReclaimer.remove(sidecarPath, metrics::measureDiskUsageMB));
+            }
+        }
+        FileReplacement.complete(target, List.of(source), SidecarFiles.MIGRATED);
+        metrics.recordFileMigrated();
+        LOG.debug("Moved data file {} to {}.", source, target);
+        return sourceMB;
+    }
+}
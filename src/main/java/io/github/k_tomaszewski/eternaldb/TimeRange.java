@@ -0,0 +1,60 @@
+package io.github.k_tomaszewski.eternaldb;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Time range of a multi-range data search (see {@link ReadOnlyDatabase#read(Class, List)}). Both ends are inclusive.
+ * @param minMillis Optional (nullable) earliest timestamp of the range.
+ * @param maxMillis Optional (nullable) latest timestamp of the range.
+ */
+public record TimeRange(Long minMillis, Long maxMillis) {
+
+    public TimeRange {
+        Validate.isTrue(minMillis == null || maxMillis == null || minMillis <= maxMillis,
+                "Time range ends in the past of its start: %s - %s", minMillis, maxMillis);
+    }
+
+    public boolean contains(long millis) {
+        return (minMillis == null || minMillis <= millis) && (maxMillis == null || maxMillis >= millis);
+    }
+
+    /**
+     * Returns given ranges in time order. Ranges must not be empty and must not overlap.
+     */
+    static List<TimeRange> sortDisjoint(List<TimeRange> ranges) {
+        Validate.notEmpty(ranges, "No time ranges");
+        final List<TimeRange> sortedRanges = ranges.stream()
+                .sorted(Comparator.comparing(TimeRange::minMillis, Comparator.nullsFirst(Comparator.naturalOrder())))
+                .toList();
+        for (int i = 1; i < sortedRanges.size(); ++i) {
+            TimeRange previous = sortedRanges.get(i - 1);
+            TimeRange next = sortedRanges.get(i);
+            Validate.isTrue(previous.maxMillis != null && next.minMillis != null && previous.maxMillis < next.minMillis,
+                    "Time ranges overlap: %s and %s", previous, next);
+        }
+        return sortedRanges;
+    }
+
+    /**
+     * Finds a range of a timestamp in ranges sorted by {@link #sortDisjoint(List)}. Returns null when no range has the timestamp.
+     */
+    static TimeRange find(List<TimeRange> sortedRanges, long millis) {
+        int low = 0;
+        int high = sortedRanges.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            TimeRange range = sortedRanges.get(middle);
+            if (range.minMillis != null && millis < range.minMillis) {
+                high = middle - 1;
+            } else if (range.maxMillis != null && millis > range.maxMillis) {
+                low = middle + 1;
+            } else {
+                return range;
+            }
+        }
+        return null;
+    }
+}
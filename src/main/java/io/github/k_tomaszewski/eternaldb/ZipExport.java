@@ -0,0 +1,224 @@
+package io.github.k_tomaszewski.eternaldb;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Writes a ZIP file with stored (not compressed) entries, so content of data files is copied with
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, which lets an operating system copy it without
+ * passing it through user space. CRC of an entry is computed from a memory-mapped file. ZIP64 records are written when needed.
+ * A data file is copied up to its last new line character, so a record being appended by a writer is never exported partially.
+ */
+final class ZipExport implements Closeable {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final short VERSION = 20;
+    private static final short ZIP64_VERSION = 45;
+    private static final short UTF8_FLAG = 0x0800;
+    private static final short ZIP64_EXTRA_ID = 0x0001;
+    private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+    private static final int ZIP64_ENTRY_LIMIT = 0xFFFF;
+    private static final long MAP_CHUNK_SIZE = 1L << 30;
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+
+    private record CentralEntry(byte[] name, int crc, long size, long offset, short dosTime, short dosDate) {
+    }
+
+    private final FileChannel channel;
+    private final List<CentralEntry> entries = new ArrayList<>();
+
+    ZipExport(Path target) throws IOException {
+        channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Adds content of a data file up to its last new line character. A file replaced by compaction is read from its retired sidecar.
+     * Returns false if the file doesn't exist.
+     */
+    boolean addDataFile(String entryName, Path path) throws IOException {
+        Path sourcePath = path;
+        FileChannel openedSource;
+        try {
+            openedSource = FileChannel.open(sourcePath, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            sourcePath = SidecarFiles.of(path, SidecarFiles.RETIRED);
+            try {
+                openedSource = FileChannel.open(sourcePath, StandardOpenOption.READ);
+            } catch (NoSuchFileException e2) {
+                return false;
+            }
+        }
+        try (FileChannel source = openedSource) {
+            final long length = lengthToLastNewLine(source, source.size());
+            final int crc = crc(source, length);
+            writeLocalHeader(entryName, crc, length, Files.getLastModifiedTime(sourcePath));
+            long position = 0;
+            while (position < length) {
+                long transferred = source.transferTo(position, length - position, channel);
+                if (transferred <= 0) {
+                    throw new EOFException("Data file %s truncated during export".formatted(sourcePath));
+                }
+                position += transferred;
+            }
+        }
+        return true;
+    }
+
+    void addBytes(String entryName, byte[] content, FileTime lastModifiedTime) throws IOException {
+        var crc = new CRC32();
+        crc.update(content);
+        writeLocalHeader(entryName, (int) crc.getValue(), content.length, lastModifiedTime);
+        writeFully(ByteBuffer.wrap(content));
+    }
+
+    /**
+     * Writes the central directory. A ZIP file is not valid without it.
+     */
+    void finish() throws IOException {
+        final long centralOffset = channel.position();
+        for (CentralEntry entry : entries) {
+            writeCentralHeader(entry);
+        }
+        final long centralSize = channel.position() - centralOffset;
+        final boolean zip64 = entries.size() >= ZIP64_ENTRY_LIMIT || centralOffset >= ZIP64_LIMIT || centralSize >= ZIP64_LIMIT;
+        var end = ByteBuffer.allocate(56 + 20 + 22).order(ByteOrder.LITTLE_ENDIAN);
+        if (zip64) {
+            final long zip64EndOffset = centralOffset + centralSize;
+            end.putInt(ZIP64_END_SIGNATURE).putLong(44L).putShort(ZIP64_VERSION).putShort(ZIP64_VERSION).putInt(0).putInt(0)
+                    .putLong(entries.size()).putLong(entries.size()).putLong(centralSize).putLong(centralOffset);
+            end.putInt(ZIP64_LOCATOR_SIGNATURE).putInt(0).putLong(zip64EndOffset).putInt(1);
+        }
+        final short entryCount = (short) Math.min(entries.size(), ZIP64_ENTRY_LIMIT);
+        end.putInt(END_SIGNATURE).putShort((short) 0).putShort((short) 0).putShort(entryCount).putShort(entryCount)
+                .putInt((int) Math.min(centralSize, ZIP64_LIMIT)).putInt((int) Math.min(centralOffset, ZIP64_LIMIT)).putShort((short) 0);
+        writeFully(end.flip());
+        channel.force(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void writeLocalHeader(String entryName, int crc, long size, FileTime lastModifiedTime) throws IOException {
+        final byte[] name = entryName.getBytes(StandardCharsets.UTF_8);
+        final boolean zip64 = size >= ZIP64_LIMIT;
+        final short[] dosDateTime = toDosDateTime(lastModifiedTime);
+        entries.add(new CentralEntry(name, crc, size, channel.position(), dosDateTime[1], dosDateTime[0]));
+        var header = ByteBuffer.allocate(30 + name.length + (zip64 ? 20 : 0)).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(LOCAL_HEADER_SIGNATURE).putShort(zip64 ? ZIP64_VERSION : VERSION).putShort(UTF8_FLAG).putShort((short) 0)
+                .putShort(dosDateTime[1]).putShort(dosDateTime[0]).putInt(crc)
+                .putInt(zip64 ? -1 : (int) size).putInt(zip64 ? -1 : (int) size)
+                .putShort((short) name.length).putShort((short) (zip64 ? 20 : 0)).put(name);
+        if (zip64) {
+            header.putShort(ZIP64_EXTRA_ID).putShort((short) 16).putLong(size).putLong(size);
+        }
+        writeFully(header.flip());
+    }
+
+    private void writeCentralHeader(CentralEntry entry) throws IOException {
+        final boolean zip64Size = entry.size() >= ZIP64_LIMIT;
+        final boolean zip64Offset = entry.offset() >= ZIP64_LIMIT;
+        final int extraLength = (zip64Size || zip64Offset) ? 4 + (zip64Size ? 16 : 0) + (zip64Offset ? 8 : 0) : 0;
+        final short version = (extraLength > 0) ? ZIP64_VERSION : VERSION;
+        var header = ByteBuffer.allocate(46 + entry.name().length + extraLength).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(CENTRAL_HEADER_SIGNATURE).putShort(ZIP64_VERSION).putShort(version).putShort(UTF8_FLAG).putShort((short) 0)
+                .putShort(entry.dosTime()).putShort(entry.dosDate()).putInt(entry.crc())
+                .putInt(zip64Size ? -1 : (int) entry.size()).putInt(zip64Size ? -1 : (int) entry.size())
+                .putShort((short) entry.name().length).putShort((short) extraLength).putShort((short) 0).putShort((short) 0)
+                .putShort((short) 0).putInt(0).putInt(zip64Offset ? -1 : (int) entry.offset()).put(entry.name());
+        if (extraLength > 0) {
+            header.putShort(ZIP64_EXTRA_ID).putShort((short) (extraLength - 4));
+            if (zip64Size) {
+                header.putLong(entry.size()).putLong(entry.size());
+            }
+            if (zip64Offset) {
+                header.putLong(entry.offset());
+            }
+        }
+        writeFully(header.flip());
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    static long lengthToLastNewLine(FileChannel source, long size) throws IOException {
+        var buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        long end = size;
+        while (end > 0) {
+            final long start = Math.max(0, end - READ_BUFFER_SIZE);
+            buffer.clear().limit((int) (end - start));
+            while (buffer.hasRemaining()) {
+                if (source.read(buffer, start + buffer.position()) < 0) {
+                    throw new EOFException();
+                }
+            }
+            for (int i = buffer.limit() - 1; i >= 0; --i) {
+                if (buffer.get(i) == Database.NEW_LINE_CHAR) {
+                    return start + i + 1;
+                }
+            }
+            end = start;
+        }
+        return 0;
+    }
+
+    private static int crc(FileChannel source, long length) throws IOException {
+        var crc = new CRC32();
+        try {
+            for (long position = 0; position < length; position += MAP_CHUNK_SIZE) {
+                crc.update(source.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_CHUNK_SIZE, length - position)));
+            }
+        } catch (UnsupportedOperationException e) {
+            crc.reset();            // a file system without memory mapping, like a ZIP file system
+            var buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+            long position = 0;
+            while (position < length) {
+                buffer.clear().limit((int) Math.min(READ_BUFFER_SIZE, length - position));
+                int count = source.read(buffer, position);
+                if (count < 0) {
+                    throw new EOFException();
+                }
+                crc.update(buffer.flip());
+                position += count;
+            }
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Returns date and time in MS-DOS format, as used by ZIP files.
+     */
+    private static short[] toDosDateTime(FileTime time) {
+        LocalDateTime dateTime = LocalDateTime.ofInstant(time.toInstant(), ZoneId.systemDefault());
+        if (dateTime.getYear() < 1980) {
+            dateTime = LocalDateTime.of(1980, 1, 1, 0, 0);
+        }
+        return new short[] {
+                (short) (((dateTime.getYear() - 1980) << 9) | (dateTime.getMonthValue() << 5) | dateTime.getDayOfMonth()),
+                (short) ((dateTime.getHour() << 11) | (dateTime.getMinute() << 5) | (dateTime.getSecond() >> 1))
+        };
+    }
+}
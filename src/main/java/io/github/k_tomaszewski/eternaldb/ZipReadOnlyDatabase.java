@@ -0,0 +1,213 @@
+package io.github.k_tomaszewski.eternaldb;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static io.github.k_tomaszewski.util.StreamUtil.closeSafely;
+
+/**
+ * Read-only database in a ZIP file (see {@link ReadOnlyDatabase#fromZip(Path, FileNamingStrategy)}). Names of data files are read
+ * once from the central directory of the archive, so files of a time range are selected without walking the archive. Entries
+ * of upcoming files are inflated in parallel on virtual threads, ahead of a reader, as long as they fit in a heap budget.
+ */
+final class ZipReadOnlyDatabase extends ReadOnlyDatabase {
+
+    static final int PREFETCH_FILE_COUNT = Math.clamp(Runtime.getRuntime().availableProcessors(), 2, 8);
+    // heap bytes of inflated entries held in advance by a reader
+    static final long PREFETCH_BUDGET_BYTES = Runtime.getRuntime().maxMemory() / 16;
+    // bigger entries are inflated by a reader, as they are read
+    static final long MAX_PREFETCH_ENTRY_SIZE = 64L * 1024L * 1024L;
+
+    // relative paths of data files, sorted
+    private final List<String> dataFiles;
+    // relative paths of data files with a sorted marker
+    private final Set<String> sortedFiles;
+    private final ExecutorService inflater = Executors.newVirtualThreadPerTaskExecutor();
+
+    private ZipReadOnlyDatabase(DatabaseProperties<?> config, FileSystem zipFs, List<String> dataFiles, Set<String> sortedFiles) {
+        super(config, zipFs);
+        this.dataFiles = dataFiles;
+        this.sortedFiles = sortedFiles;
+    }
+
+    static ZipReadOnlyDatabase open(Path zipFilePath, FileNamingStrategy fileNaming) throws IOException {
+        final List<String> entryNames;
+        try (var zipFile = new ZipFile(zipFilePath.toFile())) {
+            entryNames = zipFile.stream().filter(entry -> !entry.isDirectory()).map(ZipEntry::getName).sorted().toList();
+        }
+        final String rootPrefix = findRootPrefix(entryNames, fileNaming.maxDirectoryDepth());
+        List<String> dataFiles = new ArrayList<>();
+        Set<String> sortedFiles = new HashSet<>();
+        for (String name : entryNames) {
+            if (name.startsWith(rootPrefix)) {
+                String relativePath = name.substring(rootPrefix.length());
+                if (relativePath.endsWith(SidecarFiles.SORTED_MARKER)) {
+                    sortedFiles.add(relativePath.substring(0, relativePath.length() - SidecarFiles.SORTED_MARKER.length()));
+                } else if (!SidecarFiles.isSidecar(relativePath)) {
+                    dataFiles.add(relativePath);
+                }
+            }
+        }
+
+        FileSystem zipFs = FileSystems.newFileSystem(zipFilePath);
+        try {
+            var config = new DatabaseProperties<>()
+                    .setDataDir(zipFs.getPath("/" + rootPrefix))
+                    .setFileNaming(fileNaming)
+                    .setCreateDirs(false);
+            return new ZipReadOnlyDatabase(config, zipFs, dataFiles, sortedFiles);
+        } catch (RuntimeException e) {
+            closeSafely(zipFs);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a path of a database root directory inside an archive, with a trailing slash, or an empty string for the archive root.
+     * It is established by the first file, which is assumed to be a data file at the maximum depth.
+     */
+    private static String findRootPrefix(List<String> entryNames, int maxDirectoryDepth) {
+        if (maxDirectoryDepth < 1 || entryNames.isEmpty()) {
+            return "";
+        }
+        String[] nameParts = entryNames.getFirst().split("/");
+        if (nameParts.length > maxDirectoryDepth) {
+            return String.join("/", List.of(nameParts).subList(0, nameParts.length - maxDirectoryDepth)) + "/";
+        }
+        return "";
+    }
+
+    @Override
+    FileLinesSpliterator openFiles(Long minMillis, Long maxMillis) {
+        return openFiles(select(minMillis, maxMillis));
+    }
+
+    @Override
+    FileLinesSpliterator openFiles(List<Path> sortedPaths) {
+        return new FileLinesSpliterator(DataFileBuckets.of(dataDir, sortedPaths, fileNaming), metrics, false, new PrefetchingAccess(sortedPaths));
+    }
+
+    @Override
+    DataFileBuckets findBuckets(Long minMillis, Long maxMillis) {
+        return DataFileBuckets.of(dataDir, select(minMillis, maxMillis), fileNaming);
+    }
+
+    @Override
+    public void close() {
+        inflater.shutdownNow();
+        super.close();
+    }
+
+    private List<Path> select(Long minMillis, Long maxMillis) {
+        Predicate<String> fileNamePredicate = (minMillis != null || maxMillis != null)
+                ? DataFileBuckets.toFileNamePredicate(minMillis, maxMillis, fileNaming)
+                : null;
+        return dataFiles.stream()
+                .filter(name -> fileNamePredicate == null || fileNamePredicate.test(SegmentNaming.toBucketPathStr(name)))
+                .map(dataDir::resolve)
+                .toList();
+    }
+
+    /**
+     * Reads files in the given order and keeps up to {@link #PREFETCH_FILE_COUNT} next files inflated in advance, within
+     * {@link #PREFETCH_BUDGET_BYTES} of their total size. A file that doesn't fit waits until files before it are read. Used by
+     * a single reading thread.
+     */
+    private final class PrefetchingAccess implements FileLinesSpliterator.FileAccess {
+
+        private final List<Path> paths;
+        private final Map<Path, Future<byte[]>> prefetched = new HashMap<>();
+        private final Map<Path, Long> prefetchedSizes = new HashMap<>();
+        private long prefetchedBytes;
+        private int openedCount;
+        private int submittedCount;
+
+        PrefetchingAccess(List<Path> paths) {
+            this.paths = paths;
+        }
+
+        @Override
+        public Stream<String> openLines(Path path) throws IOException {
+            final int index = paths.subList(openedCount, paths.size()).indexOf(path);
+            if (index >= 0) {
+                openedCount += index + 1;
+            }
+            Long openedSize = prefetchedSizes.remove(path);
+            if (openedSize != null) {
+                prefetchedBytes -= openedSize;
+            }
+            // a reader may get past files held back by the budget
+            submittedCount = Math.max(submittedCount, openedCount);
+            while (submittedCount < paths.size() && submittedCount < openedCount + PREFETCH_FILE_COUNT) {
+                Path nextPath = paths.get(submittedCount);
+                long size = Files.size(nextPath);
+                if (!prefetched.containsKey(nextPath) && size <= Math.min(MAX_PREFETCH_ENTRY_SIZE, PREFETCH_BUDGET_BYTES)) {
+                    if (prefetchedBytes + size > PREFETCH_BUDGET_BYTES) {
+                        break;
+                    }
+                    prefetched.put(nextPath, inflater.submit(() -> Files.readAllBytes(nextPath)));
+                    prefetchedSizes.put(nextPath, size);
+                    prefetchedBytes += size;
+                }
+                ++submittedCount;
+            }
+            Future<byte[]> content = prefetched.remove(path);
+            if (content == null) {
+                return Files.lines(path, StandardCharsets.UTF_8);
+            }
+            var reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(getContent(content, path)),
+                    StandardCharsets.UTF_8));
+            return reader.lines();
+        }
+
+        @Override
+        public boolean isSorted(Path path) {
+            return sortedFiles.contains(dataDir.relativize(path).toString());
+        }
+
+        @Override
+        public void close() {
+            prefetched.values().forEach(content -> content.cancel(true));
+            prefetched.clear();
+            prefetchedSizes.clear();
+            prefetchedBytes = 0L;
+        }
+
+        private static byte[] getContent(Future<byte[]> content, Path path) throws IOException {
+            try {
+                return content.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Reading of %s interrupted".formatted(path));
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException ioException) {
+                    throw ioException;
+                }
+                throw new UncheckedIOException(new IOException("Cannot read %s".formatted(path), e.getCause()));
+            }
+        }
+    }
+}
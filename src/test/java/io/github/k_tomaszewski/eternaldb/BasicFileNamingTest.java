@@ -5,6 +5,7 @@ import org.junit.jupiter.api.Test;
 
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
+import java.util.Optional;
 
 public class BasicFileNamingTest {
 
@@ -29,4 +30,37 @@ public class BasicFileNamingTest {
         Assertions.assertEquals("2024/03/2024-03-15.data", strategy.formatRelativePathStr(
                 LocalDateTime.of(2024, 3, 15, 12, 11, 56).toInstant(ZoneOffset.UTC).toEpochMilli()));
     }
+
+    @Test
+    void shouldFormatDataFileNamesInMinuteModes() {
+        // given
+        final long millis = LocalDateTime.of(2024, 3, 15, 12, 17, 56).toInstant(ZoneOffset.UTC).toEpochMilli();
+
+        // when
+        BasicFileNaming minute = new BasicFileNaming(BasicFileNaming.Mode.MINUTE);
+        BasicFileNaming tenMinutes = new BasicFileNaming(BasicFileNaming.Mode.TEN_MINUTES);
+
+        // then
+        Assertions.assertEquals("2024/03/2024-03-15_1217.data", minute.formatRelativePathStr(millis));
+        Assertions.assertEquals("2024/03/2024-03-15_1210.data", tenMinutes.formatRelativePathStr(millis));
+        Assertions.assertEquals("2024/03/2024-03-15_1200.data", tenMinutes.formatRelativePathStr(millis - 10 * 60_000L));
+        Assertions.assertEquals(Optional.of("2024/03/2024-03-15.data"), tenMinutes.toMergedRelativePathStr("2024/03/2024-03-15_1210.data"));
+    }
+
+    @Test
+    void shouldMergeHourlyFilesIntoDailyFile() {
+        // given
+        BasicFileNaming hourly = new BasicFileNaming();
+        BasicFileNaming daily = new BasicFileNaming(BasicFileNaming.Mode.DAILY);
+
+        // when
+        Optional<String> mergedPath = hourly.toMergedRelativePathStr("2024/03/2024-03-15_1200.data");
+
+        // then
+        Assertions.assertEquals(Optional.of("2024/03/2024-03-15.data"), mergedPath);
+        Assertions.assertTrue(mergedPath.get().compareTo("2024/03/2024-03-15_0000.data") < 0);
+        Assertions.assertTrue(mergedPath.get().compareTo("2024/03/2024-03-14_2300.data") > 0);
+        Assertions.assertEquals(Optional.empty(), hourly.toMergedRelativePathStr("2024/03/2024-03-15.data"));
+        Assertions.assertEquals(Optional.empty(), daily.toMergedRelativePathStr("2024/03/2024-03-15.data"));
+    }
 }
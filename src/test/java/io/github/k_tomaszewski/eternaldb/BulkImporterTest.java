@@ -0,0 +1,184 @@
+package io.github.k_tomaszewski.eternaldb;
+
+import io.github.k_tomaszewski.util.DiskUsageUtil;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+
+public class BulkImporterTest {
+
+    private static final long DAY_MILLIS = 1_672_531_200_000L;        // 2023-01-01 00:00 UTC
+    private static final long HOUR_MILLIS = 3_600_000L;
+
+    @Test
+    void shouldImportSortedRecordsIntoSealedFiles() {
+        // given
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final var config = new DatabaseProperties<TestEntity>(dataDir, 100).setJmxEnabled(false);
+        List<TestEntity> entities;
+        long importedCount;
+
+        // when
+        try (Database<TestEntity> db = new Database<>(config)) {
+            try (BulkImporter<TestEntity> importer = db.bulkImporter()) {
+                for (int i = 0; i < 48 * 10; ++i) {
+                    long millis = DAY_MILLIS + i * HOUR_MILLIS / 10;
+                    importer.write(new TestEntity(i, "x"), millis);
+                }
+                importer.write(new TestEntity(-1, "late"), DAY_MILLIS + 5 * HOUR_MILLIS);
+                importedCount = importer.getRecordCount();
+            }
+            entities = db.readRecords(TestEntity.class, null, null).toList();
+        }
+
+        // then
+        Assertions.assertEquals(48 * 10 + 1, importedCount);
+        Assertions.assertEquals(48 * 10 + 1, entities.size());
+        Assertions.assertTrue(Files.exists(dataDir.resolve("2023/01/2023-01-01_0000.data.sorted")));
+        Assertions.assertTrue(Files.exists(dataDir.resolve("2023/01/2023-01-02_2300.data.sorted")));
+        Assertions.assertFalse(Files.exists(dataDir.resolve("2023/01/2023-01-01_0500.data.sorted")));
+        Assertions.assertEquals(-1, entities.get(5 * 10 + 1).number());
+    }
+
+    @Test
+    void shouldRefuseImportExceedingDiskUsageLimit() {
+        // given
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final var config = new DatabaseProperties<TestEntity>(dataDir, 1).setJmxEnabled(false);
+        final String text = "x".repeat(100);
+        long importedCount;
+        RuntimeException failure;
+
+        // when
+        try (Database<TestEntity> db = new Database<>(config);
+                BulkImporter<TestEntity> importer = db.bulkImporter(BulkImporter.DiskUsageLimitPolicy.REFUSE)) {
+            failure = Assertions.assertThrows(IllegalStateException.class, () -> {
+                for (int i = 0; i < 24 * 2000; ++i) {
+                    importer.write(new TestEntity(i, text), DAY_MILLIS + i * HOUR_MILLIS / 2000);
+                }
+            });
+            importedCount = importer.getRecordCount();
+        }
+
+        // then
+        Assertions.assertTrue(failure.getMessage().contains("disk usage limit"));
+        Assertions.assertTrue(importedCount > 0 && importedCount < 24 * 2000, "imported: " + importedCount);
+        Assertions.assertTrue(Files.exists(dataDir.resolve("2023/01/2023-01-01_0000.data")));
+    }
+
+    @Test
+    void shouldRefuseChunkExceedingDiskUsageLimitByItsSize() {
+        // given
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final var config = new DatabaseProperties<TestEntity>(dataDir, 1).setJmxEnabled(false);
+        final String text = "x".repeat(200);
+        long importedCount;
+
+        // when
+        try (Database<TestEntity> db = new Database<>(config);
+                BulkImporter<TestEntity> importer = db.bulkImporter(BulkImporter.DiskUsageLimitPolicy.REFUSE)) {
+            Assertions.assertThrows(IllegalStateException.class, () -> {
+                for (int i = 0; i < BulkImporter.CHUNK_RECORDS; ++i) {
+                    importer.write(new TestEntity(i, text), DAY_MILLIS + i);
+                }
+            });
+            importedCount = importer.getRecordCount();
+        }
+
+        // then
+        Assertions.assertEquals(0, importedCount);
+        Assertions.assertFalse(Files.exists(dataDir.resolve("2023/01/2023-01-01_0000.data")));
+    }
+
+    @Test
+    void shouldLetDatabaseWriteBucketBeingImported() {
+        // given
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final var config = new DatabaseProperties<TestEntity>(dataDir, 100).setJmxEnabled(false);
+        List<TestEntity> entities;
+
+        // when
+        try (Database<TestEntity> db = new Database<>(config)) {
+            try (BulkImporter<TestEntity> importer = db.bulkImporter()) {
+                importer.write(new TestEntity(1, "imported"), DAY_MILLIS + 1);
+                importer.write(new TestEntity(2, "imported"), DAY_MILLIS + 2);
+                db.write(new TestEntity(3, "live"), DAY_MILLIS + 3);
+                importer.write(new TestEntity(4, "imported"), DAY_MILLIS + 4);
+            }
+            entities = db.readRecords(TestEntity.class, null, null).toList();
+        }
+
+        // then
+        Assertions.assertEquals(List.of(new TestEntity(1, "imported"), new TestEntity(2, "imported"), new TestEntity(3, "live"),
+                new TestEntity(4, "imported")), entities);
+    }
+
+    @Test
+    void shouldImportIntoNextSegmentsOfBucketWhenFileIsFull() throws IOException {
+        // given
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final var config = new DatabaseProperties<TestEntity>(dataDir, 100).setMaxFileSizeMB(1).setJmxEnabled(false);
+        final String text = "x".repeat(20);       // a chunk fits in a file
+        final Path segment0 = dataDir.resolve("2023/01/2023-01-01_0000.data");
+        long segment0Size;
+        long entityCount;
+
+        // when
+        try (Database<TestEntity> db = new Database<>(config);
+                BulkImporter<TestEntity> importer = db.bulkImporter()) {
+            for (int i = 0; i < 30_000; ++i) {
+                importer.write(new TestEntity(i, text), DAY_MILLIS + i);
+            }
+        }
+        segment0Size = Files.size(segment0);
+        try (Database<TestEntity> db = new Database<>(config)) {
+            try (BulkImporter<TestEntity> importer = db.bulkImporter()) {
+                importer.write(new TestEntity(30_000, text), DAY_MILLIS + 30_000);
+            }
+            entityCount = db.readRecords(TestEntity.class, null, null).count();
+        }
+
+        // then
+        List<Path> files;
+        try (var pathStream = Files.list(segment0.getParent())) {
+            files = pathStream.filter(path -> !SidecarFiles.isSidecar(path)).toList();
+        }
+        Assertions.assertTrue(files.size() >= 2);
+        for (Path file : files) {
+            Assertions.assertTrue(Files.size(file) <= 1024 * 1024, file.toString());
+        }
+        Assertions.assertEquals(segment0Size, Files.size(segment0));
+        Assertions.assertEquals(30_001, entityCount);
+    }
+
+    @Test
+    void shouldCountSortedMarkersInDiskUsage() throws IOException {
+        // given
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        Files.createDirectories(dataDir.resolve("2023/01"));
+        final var config = new DatabaseProperties<TestEntity>(dataDir, 100).setJmxEnabled(false);
+        double actualDiskUsageMB;
+
+        // when
+        try (Database<TestEntity> db = new Database<>(config)) {
+            try (BulkImporter<TestEntity> importer = db.bulkImporter()) {
+                for (int i = 0; i < 3 * 10; ++i) {
+                    importer.write(new TestEntity(i, "x"), DAY_MILLIS + i * HOUR_MILLIS / 10);
+                }
+            }
+            actualDiskUsageMB = db.getActualDiskUsageMB();
+        }
+
+        // then
+        Assertions.assertTrue(Files.exists(dataDir.resolve("2023/01/2023-01-01_0200.data.sorted")));
+        Assertions.assertEquals(DiskUsageUtil.getDiskUsageMB(dataDir.toString()), actualDiskUsageMB, 0.0001);
+    }
+
+    record TestEntity(int number, String text) {
+    }
+}
@@ -0,0 +1,165 @@
+package io.github.k_tomaszewski.eternaldb;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class DatabaseGroupTest {
+
+    private static final long DAY_MILLIS = 1_672_531_200_000L;        // 2023-01-01 00:00 UTC
+    private static final long HOUR_MILLIS = 3_600_000L;
+
+    @Test
+    void shouldWriteAndReadSeriesOfDifferentTypes() {
+        // given
+        final Path rootDir = Path.of("target/test_db_group_" + UUID.randomUUID());
+        List<TestEntity> entities;
+        List<Map> maps;
+
+        // when
+        try (DatabaseGroup group = new DatabaseGroup(rootDir, 100)) {
+            Database<TestEntity> entitySeries = group.series("entities", new DatabaseProperties<TestEntity>().setJmxEnabled(false));
+            Database<Map<String, Object>> mapSeries = group.series("maps", new DatabaseProperties<Map<String, Object>>()
+                    .setJmxEnabled(false));
+            entitySeries.write(new TestEntity(1, "a"), DAY_MILLIS);
+            entitySeries.write(new TestEntity(2, "b"), DAY_MILLIS + HOUR_MILLIS);
+            mapSeries.write(Map.of("foo", 1), DAY_MILLIS);
+            Assertions.assertSame(entitySeries, group.series("entities"));
+            Assertions.assertThrows(IllegalArgumentException.class, () -> group.series("../escape"));
+
+            entities = entitySeries.readRecords(TestEntity.class, null, null).toList();
+            maps = mapSeries.readRecords(Map.class, null, null).toList();
+        }
+
+        // then
+        Assertions.assertEquals(List.of(new TestEntity(1, "a"), new TestEntity(2, "b")), entities);
+        Assertions.assertEquals(List.of(Map.of("foo", 1)), maps);
+        Assertions.assertTrue(Files.exists(rootDir.resolve("entities/2023/01/2023-01-01_0100.data")));
+        Assertions.assertTrue(Files.exists(rootDir.resolve("maps/2023/01/2023-01-01_0000.data")));
+    }
+
+    @Test
+    void shouldReclaimOldestFilesAcrossSeries() {
+        // given
+        final Path rootDir = Path.of("target/test_db_group_" + UUID.randomUUID());
+        final AtomicBoolean reclaiming = new AtomicBoolean(true);
+
+        // when
+        try (DatabaseGroup group = new DatabaseGroup(rootDir, 100)) {
+            group.<TestEntity>series("newer").write(new TestEntity(1, "a"), DAY_MILLIS + HOUR_MILLIS);
+            group.<TestEntity>series("older").write(new TestEntity(2, "b"), DAY_MILLIS);
+            group.<TestEntity>series("older").write(new TestEntity(3, "c"), DAY_MILLIS + 2 * HOUR_MILLIS);
+            group.series("newer").close();
+            group.series("older").close();
+            new DiskSpaceReclaimer(group.listSeriesDirs(), 0.001, reclaiming, group.diskUsage, new DatabaseMetrics()).run();
+        }
+
+        // then
+        Assertions.assertFalse(Files.exists(rootDir.resolve("older/2023/01/2023-01-01_0000.data")));
+        Assertions.assertTrue(Files.exists(rootDir.resolve("newer/2023/01/2023-01-01_0100.data")));
+        Assertions.assertTrue(Files.exists(rootDir.resolve("older/2023/01/2023-01-01_0200.data")));
+        Assertions.assertFalse(reclaiming.get());
+    }
+
+    @Test
+    void shouldNotChangePropertiesOfSeries() {
+        // given
+        final Path rootDir = Path.of("target/test_db_group_" + UUID.randomUUID());
+        final DatabaseProperties<TestEntity> config = new DatabaseProperties<TestEntity>().setJmxEnabled(false);
+        Path seriesDir;
+
+        // when
+        try (DatabaseGroup group = new DatabaseGroup(rootDir, 100)) {
+            Database<TestEntity> first = group.series("first", config);
+            Database<TestEntity> second = group.series("second", config);
+            first.write(new TestEntity(1, "a"), DAY_MILLIS);
+            second.write(new TestEntity(2, "b"), DAY_MILLIS);
+            seriesDir = second.dataDir;
+        }
+
+        // then
+        Assertions.assertNull(config.getDataDir());
+        Assertions.assertEquals(0L, config.getDiskUsageLimit());
+        Assertions.assertEquals(rootDir.resolve("second"), seriesDir);
+        Assertions.assertTrue(Files.exists(rootDir.resolve("first/2023/01/2023-01-01_0000.data")));
+    }
+
+    @Test
+    void shouldSyncSeriesEveryIntervalWhileBackgroundTaskOfGroupRuns() throws Exception {
+        // given
+        final Path rootDir = Path.of("target/test_db_group_" + UUID.randomUUID());
+        final var config = new DatabaseProperties<TestEntity>().setJmxEnabled(false)
+                .setDurability(Durability.FSYNC_INTERVAL).setDurabilityInterval(Duration.ofMillis(20));
+        final CountDownLatch taskReleased = new CountDownLatch(1);
+        long forceCount = 0L;
+
+        // when
+        try (DatabaseGroup group = new DatabaseGroup(rootDir, 100)) {
+            Database<TestEntity> series = group.series("entities", config);
+            group.scheduler.execute(() -> {
+                try {
+                    taskReleased.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            series.write(new TestEntity(1, "a"), DAY_MILLIS);
+            for (int i = 0; i < 100 && forceCount == 0L; ++i) {
+                Thread.sleep(20);
+                forceCount = series.getMetrics().getForceCount();
+            }
+            taskReleased.countDown();
+        }
+
+        // then
+        Assertions.assertTrue(forceCount > 0L);
+    }
+
+    @Test
+    void shouldWaitForRunningBackgroundTaskWhenSeriesIsClosed() throws Exception {
+        // given
+        final Path rootDir = Path.of("target/test_db_group_" + UUID.randomUUID());
+        final CountDownLatch taskStarted = new CountDownLatch(1);
+        final CountDownLatch taskReleased = new CountDownLatch(1);
+        final AtomicBoolean closedTaskRan = new AtomicBoolean(false);
+        boolean closedWhileTaskRan;
+
+        // when
+        try (DatabaseGroup group = new DatabaseGroup(rootDir, 100)) {
+            Database<TestEntity> series = group.series("entities");
+            CompletableFuture<Void> task = CompletableFuture.runAsync(() -> series.runBackgroundTask(() -> {
+                taskStarted.countDown();
+                try {
+                    taskReleased.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+            taskStarted.await();
+            CompletableFuture<Void> closing = CompletableFuture.runAsync(series::close);
+            Thread.sleep(100);
+            closedWhileTaskRan = closing.isDone();
+            taskReleased.countDown();
+            closing.get(10, TimeUnit.SECONDS);
+            task.get(10, TimeUnit.SECONDS);
+            series.runBackgroundTask(() -> closedTaskRan.set(true));
+        }
+
+        // then
+        Assertions.assertFalse(closedWhileTaskRan);
+        Assertions.assertFalse(closedTaskRan.get());
+    }
+
+    record TestEntity(int number, String text) {
+    }
+}
@@ -2,15 +2,31 @@ package io.github.k_tomaszewski.eternaldb;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import javax.management.ObjectName;
 
 public class DatabaseTest {
 
@@ -160,6 +176,741 @@ public class DatabaseTest {
         Assertions.assertEquals(writtenValues, readValues);
     }
 
+    @Test
+    void shouldCollectMetrics() throws Exception {
+        // given
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final var mBeanName = new ObjectName("io.github.k_tomaszewski.eternaldb:type=Database,dataDir=" + ObjectName.quote(dataDir.toString()));
+        final var mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        Database<String> db = new Database<>(new DatabaseProperties<String>(dataDir, 1).withFlushOnEveryWrite());
+
+        // when
+        for (int i = 0; i < 20; ++i) {
+            db.write("abc_" + i, System.currentTimeMillis());
+        }
+        long readCount = db.read(String.class, null, null).count();
+        DatabaseMetrics metrics = db.getMetrics();
+        boolean mBeanRegistered = mBeanServer.isRegistered(mBeanName);
+        Object mBeanWriteCount = mBeanServer.getAttribute(mBeanName, "WriteCount");
+        db.close();
+
+        // then
+        Assertions.assertEquals(20, readCount);
+        Assertions.assertTrue(mBeanRegistered);
+        Assertions.assertFalse(mBeanServer.isRegistered(mBeanName));
+        Assertions.assertEquals(20L, mBeanWriteCount);
+        Assertions.assertEquals(20, metrics.getWriteCount());
+        Assertions.assertEquals(20, metrics.getFlushCount());
+        Assertions.assertTrue(metrics.getBytesAppended() >= 20 * "abc_0".length());
+        Assertions.assertTrue(metrics.getDiskUsageCheckCount() >= 2);
+        Assertions.assertEquals(1, metrics.getReadQueryCount());
+        Assertions.assertEquals(1, metrics.getFilesScanned());
+        Assertions.assertEquals(0, metrics.getOpenFileCount());
+    }
+
+    @Test
+    @Timeout(value = 120, unit = TimeUnit.SECONDS)
+    void shouldSustainThousandsOfVirtualThreadWriters() throws InterruptedException {
+        // given
+        final int writerCount = 2000;
+        final int writesPerWriter = 5;
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        Database<TestEntity> db = new Database<>(new DatabaseProperties<TestEntity>(dataDir, 100).setTimestampSupplier(TestEntity::ts));
+        final var startLatch = new CountDownLatch(1);
+        final var writing = new AtomicBoolean(true);
+        final var maxHeartbeatGapNanos = new AtomicLong();
+
+        // a virtual thread that must keep getting a carrier while all writers compete for the same data file
+        Thread heartbeat = Thread.ofVirtual().start(() -> {
+            long last = System.nanoTime();
+            while (writing.get()) {
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long now = System.nanoTime();
+                maxHeartbeatGapNanos.accumulateAndGet(now - last, Math::max);
+                last = now;
+            }
+        });
+
+        // when
+        long startNanos;
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < writerCount; ++i) {
+                final int writerId = i;
+                executor.submit(() -> {
+                    startLatch.await();
+                    for (int j = 0; j < writesPerWriter; ++j) {
+                        db.write(new TestEntity(writerId, "writer"));
+                    }
+                    return null;
+                });
+            }
+            startNanos = System.nanoTime();
+            startLatch.countDown();
+        }
+        long elapsedMillis = (System.nanoTime() - startNanos) / 1_000_000;
+        writing.set(false);
+        heartbeat.join();
+        long recordCount = db.read(TestEntity.class, null, null).count();
+        db.close();
+
+        // then
+        Assertions.assertEquals(writerCount * writesPerWriter, recordCount);
+        Assertions.assertTrue(maxHeartbeatGapNanos.get() < TimeUnit.SECONDS.toNanos(2),
+                "Heartbeat virtual thread starved for %d ms".formatted(maxHeartbeatGapNanos.get() / 1_000_000));
+        System.out.printf("%d virtual-thread writers: %d writes in %d ms, max heartbeat gap %d ms%n", writerCount,
+                recordCount, elapsedMillis, maxHeartbeatGapNanos.get() / 1_000_000);
+    }
+
+    @Test
+    void shouldFlushPeriodicallyInFlushIntervalMode() throws InterruptedException {
+        // given
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final var config = new DatabaseProperties<>(dataDir, 1).withDurability(Durability.FLUSH_INTERVAL, Duration.ofMillis(50));
+        Database<Object> db = new Database<>(config);
+
+        // when
+        db.write("abc", System.currentTimeMillis());
+        Thread.sleep(500);
+        long readCount;
+        try (var rodb = new ReadOnlyDatabase(config)) {
+            readCount = rodb.read(String.class, null, null).count();
+        }
+        long flushCount = db.getMetrics().getFlushCount();
+        db.close();
+
+        // then
+        Assertions.assertEquals(1, readCount);
+        Assertions.assertTrue(flushCount >= 1);
+    }
+
+    @Test
+    void shouldForceWritesWithGroupCommit() throws InterruptedException {
+        // given
+        final int writerCount = 50;
+        final int writesPerWriter = 20;
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final var config = new DatabaseProperties<>(dataDir, 10).setDurability(Durability.FSYNC_GROUP);
+        Database<Object> db = new Database<>(config);
+
+        // when
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < writerCount; ++i) {
+                executor.submit(() -> {
+                    for (int j = 0; j < writesPerWriter; ++j) {
+                        db.write("abc", System.currentTimeMillis());
+                    }
+                });
+            }
+        }
+        long readCount;
+        try (var rodb = new ReadOnlyDatabase(config)) {
+            readCount = rodb.read(String.class, null, null).count();     // all writes returned, so all are flushed
+        }
+        long forceCount = db.getMetrics().getForceCount();
+        db.close();
+
+        // then
+        Assertions.assertEquals(writerCount * writesPerWriter, readCount);
+        Assertions.assertTrue(forceCount >= 1);
+        Assertions.assertTrue(forceCount < writerCount * writesPerWriter, "Forces should be shared by writers: " + forceCount);
+    }
+
+    @Test
+    void shouldReadRecordsWrittenWithDirectBufferEngine() {
+        // given
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final var config = new DatabaseProperties<TestEntity>(dataDir, 1).setAppendEngine(AppendEngine.DIRECT_BUFFER)
+                .setWriteBufferSize(256);
+        List<TestEntity> expected = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            expected.add(new TestEntity(i, "zażółć gęślą jaźń 😀 " + i, 1_700_000_000_000L + i));
+        }
+
+        // when
+        try (Database<TestEntity> db = new Database<>(config)) {
+            expected.forEach(entity -> db.write(entity, entity.ts()));
+        }
+        List<TestEntity> entities;
+        try (var rodb = new ReadOnlyDatabase(config)) {
+            entities = rodb.readRecords(TestEntity.class, null, null).toList();
+        }
+
+        // then
+        Assertions.assertEquals(expected, entities);
+    }
+
+    @Test
+    void shouldCompactOutOfOrderAndStripedFiles() throws Exception {
+        // given
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final long hourMillis = 1_672_567_200_000L;        // 2023-01-01 10:00 UTC
+        final var config = new DatabaseProperties<TestEntity>(dataDir, 10).setStripeCount(4).setJmxEnabled(false);
+        try (Database<TestEntity> db = new Database<>(config)) {
+            var threads = new ArrayList<Thread>();
+            for (int t = 0; t < 4; ++t) {
+                final int offset = t;
+                threads.add(Thread.ofPlatform().start(() -> {
+                    for (int i = 99; i >= 0; --i) {
+                        db.write(new TestEntity(i * 4 + offset, "x", hourMillis + i * 4 + offset), hourMillis + i * 4 + offset);
+                    }
+                }));
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+
+        // when
+        int compactedCount;
+        List<TestEntity> entities;
+        long filesScanned;
+        try (Database<TestEntity> db = new Database<>(config)) {
+            compactedCount = db.compactFiles();
+            long scannedBefore = db.getMetrics().getFilesScanned();
+            entities = db.readRecords(TestEntity.class, null, null).toList();
+            filesScanned = db.getMetrics().getFilesScanned() - scannedBefore;
+        }
+
+        // then
+        Assertions.assertEquals(1, compactedCount);
+        Assertions.assertEquals(1, filesScanned);
+        Assertions.assertTrue(Files.exists(dataDir.resolve("2023/01/2023-01-01_1000.data.sorted")));
+        Assertions.assertEquals(400, entities.size());
+        for (int i = 0; i < entities.size(); ++i) {
+            Assertions.assertEquals(i, entities.get(i).number());
+        }
+    }
+
+    @Test
+    void shouldReadColumnsFromColumnarFilesOfSealedBuckets() throws Exception {
+        // given
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final long hourMillis = 1_672_567_200_000L;        // 2023-01-01 10:00 UTC
+        final var config = new DatabaseProperties<TestEntity>(dataDir, 100).setCompactionMergeLimitMB(0)
+                .setNumericColumns(List.of("number", "ts")).setStringColumns(List.of("text")).setJmxEnabled(false);
+        try (Database<TestEntity> db = new Database<>(config)) {
+            for (int i = 0; i < 200; ++i) {
+                long millis = hourMillis + i * 36_000L;
+                db.write(new TestEntity(i, "t" + (i % 3), millis), millis);
+            }
+        }
+
+        // when
+        Columns columns;
+        Columns columnsAfterLateWrite;
+        long filesScanned;
+        try (Database<TestEntity> db = new Database<>(config)) {
+            db.compactFiles();
+            long scannedBefore = db.getMetrics().getFilesScanned();
+            columns = db.readColumns(hourMillis + 50 * 36_000L, hourMillis + 149 * 36_000L, "text", "number");
+            filesScanned = db.getMetrics().getFilesScanned() - scannedBefore;
+            db.write(new TestEntity(-1, null, 0L), hourMillis + 50 * 36_000L);
+            db.close();
+            columnsAfterLateWrite = db.readColumns(hourMillis + 50 * 36_000L, hourMillis + 149 * 36_000L, "text", "number");
+        }
+
+        // then
+        Assertions.assertTrue(Files.exists(dataDir.resolve("2023/01/2023-01-01_1000.data.columns")));
+        Assertions.assertTrue(Files.exists(dataDir.resolve("2023/01/2023-01-01_1100.data.columns")));
+        Assertions.assertEquals(0, filesScanned);
+        Assertions.assertEquals(100, columns.size());
+        Assertions.assertEquals(List.of("number"), List.copyOf(columns.numbers().keySet()));
+        for (int i = 0; i < 100; ++i) {
+            Assertions.assertEquals(hourMillis + (i + 50) * 36_000L, columns.timestamps()[i]);
+            Assertions.assertEquals(i + 50, columns.numbers().get("number")[i]);
+            Assertions.assertEquals("t" + ((i + 50) % 3), columns.strings().get("text")[i]);
+        }
+        Assertions.assertEquals(101, columnsAfterLateWrite.size());
+        Assertions.assertEquals(-1.0, columnsAfterLateWrite.numbers().get("number")[1]);
+        Assertions.assertNull(columnsAfterLateWrite.strings().get("text")[1]);
+    }
+
+    @Test
+    void shouldReadRecordsOfKeyOpeningOnlyCandidateFiles() throws Exception {
+        // given
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final long dayMillis = 1_672_531_200_000L;        // 2023-01-01 00:00 UTC
+        final var config = new DatabaseProperties<TestEntity>(dataDir, 100).setCompactionMergeLimitMB(0).setKeyField("text")
+                .setJmxEnabled(false);
+        try (Database<TestEntity> db = new Database<>(config)) {
+            for (int hour = 0; hour < 24; ++hour) {
+                for (int i = 0; i < 50; ++i) {
+                    long millis = dayMillis + hour * 3_600_000L + i * 60_000L;
+                    db.write(new TestEntity(hour * 100 + i, (i % 10 == 0) ? "device-" + hour : "common-" + i, millis), millis);
+                }
+            }
+        }
+
+        // when
+        List<TestEntity> entities;
+        long filesSkipped;
+        long filesScanned;
+        try (Database<TestEntity> db = new Database<>(config)) {
+            db.compactFiles();
+            long scannedBefore = db.getMetrics().getFilesScanned();
+            try (var records = db.read(TestEntity.class, null, null, "device-7")) {
+                entities = records.map(Timestamped::record).toList();
+            }
+            filesSkipped = db.getMetrics().getFilesSkippedByKeyFilter();
+            filesScanned = db.getMetrics().getFilesScanned() - scannedBefore;
+        }
+
+        // then
+        Assertions.assertTrue(Files.exists(dataDir.resolve("2023/01/2023-01-01_0700.data.bloom")));
+        Assertions.assertEquals(List.of(700, 710, 720, 730, 740), entities.stream().map(TestEntity::number).toList());
+        Assertions.assertTrue(filesSkipped >= 20, "skipped: " + filesSkipped);
+        Assertions.assertEquals(24 - filesSkipped, filesScanned);
+    }
+
+    @Test
+    void shouldRollOverToNextSegmentWhenFileExceedsMaxSize() throws Exception {
+        // given
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final long hourMillis = 1_672_567_200_000L;        // 2023-01-01 10:00 UTC
+        final String text = "x".repeat(1000);
+        final var config = new DatabaseProperties<TestEntity>(dataDir, 100).setMaxFileSizeMB(1).setJmxEnabled(false);
+
+        // when
+        int compactedCount;
+        List<TestEntity> entities;
+        try (Database<TestEntity> db = new Database<>(config)) {
+            for (int i = 0; i < 1500; ++i) {
+                db.write(new TestEntity(i, text), hourMillis + i);
+            }
+        }
+        try (Database<TestEntity> db = new Database<>(config)) {
+            for (int i = 1500; i < 2500; ++i) {
+                db.write(new TestEntity(i, text), hourMillis + i);
+            }
+        }
+        try (Database<TestEntity> db = new Database<>(config)) {
+            compactedCount = db.compactFiles();
+            entities = db.readRecords(TestEntity.class, null, null).toList();
+        }
+
+        // then
+        Assertions.assertEquals(0, compactedCount);
+        Assertions.assertEquals(2500, entities.size());
+        for (int i = 0; i < entities.size(); ++i) {
+            Assertions.assertEquals(i, entities.get(i).number());
+        }
+        for (String name : List.of("2023-01-01_1000.data", "2023-01-01_1000.s1.data", "2023-01-01_1000.s2.data")) {
+            Path path = dataDir.resolve("2023/01").resolve(name);
+            Assertions.assertTrue(Files.size(path) < 1024 * 1024 + 32 * 1024, name);
+            Assertions.assertTrue(Files.exists(SidecarFiles.of(path, SidecarFiles.SORTED_MARKER)), name);
+        }
+        Assertions.assertFalse(Files.exists(dataDir.resolve("2023/01/2023-01-01_1000.s3.data")));
+    }
+
+    @Test
+    void shouldRollOverToNextSegmentWhenFileExceedsMaxSizeDuringConcurrentWrites() throws Exception {
+        // given
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final long hourMillis = 1_672_567_200_000L;        // 2023-01-01 10:00 UTC
+        final String text = "x".repeat(1000);
+        final var config = new DatabaseProperties<TestEntity>(dataDir, 100).setMaxFileSizeMB(1).setJmxEnabled(false);
+
+        // when
+        List<TestEntity> entities;
+        try (Database<TestEntity> db = new Database<>(config)) {
+            var threads = new ArrayList<Thread>();
+            for (int t = 0; t < 8; ++t) {
+                final int offset = t;
+                threads.add(Thread.ofPlatform().start(() -> {
+                    for (int i = 0; i < 500; ++i) {
+                        db.write(new TestEntity(i * 8 + offset, text), hourMillis + i * 8 + offset);
+                    }
+                }));
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+        try (Database<TestEntity> db = new Database<>(config)) {
+            entities = db.readRecords(TestEntity.class, null, null).toList();
+        }
+
+        // then
+        Assertions.assertEquals(IntStream.range(0, 4000).boxed().toList(), entities.stream().map(TestEntity::number).toList());
+        for (String name : List.of("2023-01-01_1000.data", "2023-01-01_1000.s1.data", "2023-01-01_1000.s2.data")) {
+            Path path = dataDir.resolve("2023/01").resolve(name);
+            Assertions.assertTrue(Files.size(path) < 1024 * 1024 + 32 * 1024, name);
+        }
+    }
+
+    @Test
+    void shouldMergeHourlyFilesOfPastDayWithoutDisturbingOngoingRead() throws Exception {
+        // given
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final long dayMillis = 1_672_531_200_000L;        // 2023-01-01 00:00 UTC
+        final long hourMillis = 3_600_000L;
+        final var config = new DatabaseProperties<TestEntity>(dataDir, 10).setJmxEnabled(false);
+        try (Database<TestEntity> db = new Database<>(config)) {
+            for (int hour = 0; hour < 24; ++hour) {
+                db.write(new TestEntity(hour, "x", dayMillis + hour * hourMillis), dayMillis + hour * hourMillis);
+            }
+        }
+
+        // when
+        List<TestEntity> entities = new ArrayList<>();
+        List<TestEntity> afternoonEntities;
+        int compactedCount;
+        try (Database<TestEntity> db = new Database<>(config);
+                var ongoingRead = db.readRecords(TestEntity.class, null, null)) {
+            var iterator = ongoingRead.iterator();
+            entities.add(iterator.next());
+            compactedCount = db.compactFiles();
+            iterator.forEachRemaining(entities::add);
+            afternoonEntities = db.readRecords(TestEntity.class, dayMillis + 12 * hourMillis + 1, null).toList();
+        }
+
+        // then
+        Assertions.assertEquals(1, compactedCount);
+        Assertions.assertTrue(Files.exists(dataDir.resolve("2023/01/2023-01-01.data")));
+        Assertions.assertFalse(Files.exists(dataDir.resolve("2023/01/2023-01-01_0500.data")));
+        Assertions.assertTrue(Files.exists(dataDir.resolve("2023/01/2023-01-01_0500.data.retired")));
+        Assertions.assertEquals(24, entities.size());
+        Assertions.assertEquals(List.of(13, 14, 15, 16, 17, 18, 19, 20, 21, 22, 23),
+                afternoonEntities.stream().map(TestEntity::number).toList());
+    }
+
+    @Test
+    void shouldReadAndMergeLateFilesOfMergedDayInTimeOrder() throws Exception {
+        // given
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final long dayMillis = 1_672_531_200_000L;        // 2023-01-01 00:00 UTC
+        final long hourMillis = 3_600_000L;
+        final var config = new DatabaseProperties<TestEntity>(dataDir, 10).setJmxEnabled(false);
+        try (Database<TestEntity> db = new Database<>(config)) {
+            for (int hour = 0; hour < 24; hour += 2) {
+                db.write(new TestEntity(hour, "x", dayMillis + hour * hourMillis), dayMillis + hour * hourMillis);
+            }
+            db.compactFiles();
+            db.write(new TestEntity(13, "late", dayMillis + 13 * hourMillis), dayMillis + 13 * hourMillis);
+        }
+
+        // when
+        List<TestEntity> entitiesBefore;
+        List<TestEntity> entitiesAfter;
+        int compactedCount;
+        try (Database<TestEntity> db = new Database<>(config)) {
+            entitiesBefore = db.readRecords(TestEntity.class, null, null).toList();
+            compactedCount = db.compactFiles();
+            entitiesAfter = db.readRecords(TestEntity.class, null, null).toList();
+        }
+
+        // then
+        final List<Integer> expectedNumbers = List.of(0, 2, 4, 6, 8, 10, 12, 13, 14, 16, 18, 20, 22);
+        Assertions.assertEquals(expectedNumbers, entitiesBefore.stream().map(TestEntity::number).toList());
+        Assertions.assertEquals(1, compactedCount);
+        Assertions.assertFalse(Files.exists(dataDir.resolve("2023/01/2023-01-01_1300.data")));
+        Assertions.assertTrue(Files.exists(dataDir.resolve("2023/01/2023-01-01.data.sorted")));
+        Assertions.assertEquals(expectedNumbers, entitiesAfter.stream().map(TestEntity::number).toList());
+    }
+
+    @Test
+    void shouldReadPagesWhenBucketOfCursorIsMergedBetweenPages() throws Exception {
+        // given
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final long dayMillis = 1_672_531_200_000L;        // 2023-01-01 00:00 UTC
+        final long hourMillis = 3_600_000L;
+        final var config = new DatabaseProperties<TestEntity>(dataDir, 10).setJmxEnabled(false);
+        try (Database<TestEntity> db = new Database<>(config)) {
+            for (int i = 0; i < 24 * 10; ++i) {
+                long millis = dayMillis + (i / 10) * hourMillis + (i % 10 / 2) * 1000L;       // ties of 2 records
+                db.write(new TestEntity(i, "x", millis), millis);
+            }
+        }
+
+        // when
+        List<Integer> numbers = new ArrayList<>();
+        int compactedCount;
+        try (Database<TestEntity> db = new Database<>(config)) {
+            Page<TestEntity> page = db.read(TestEntity.class, ReadCursor.start(null), null, 25);
+            page.records().forEach(record -> numbers.add(record.record().number()));
+            compactedCount = db.compactFiles();
+            ReadCursor cursor = page.next();
+            while (cursor != null) {
+                page = db.read(TestEntity.class, cursor, null, 25);
+                page.records().forEach(record -> numbers.add(record.record().number()));
+                cursor = page.next();
+            }
+        }
+
+        // then
+        Assertions.assertEquals(1, compactedCount);
+        Assertions.assertEquals(IntStream.range(0, 24 * 10).boxed().toList(), numbers);
+    }
+
+    @Test
+    void shouldNotCompactFilesMovedAwayBeforeTheyAreReserved() throws Exception {
+        // given
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final long dayMillis = 1_672_531_200_000L;        // 2023-01-01 00:00 UTC
+        final long hourMillis = 3_600_000L;
+        final var config = new DatabaseProperties<TestEntity>(dataDir, 10).setJmxEnabled(false);
+        try (Database<TestEntity> db = new Database<>(config)) {
+            for (int hour = 0; hour < 24; ++hour) {
+                db.write(new TestEntity(hour, "x", dayMillis + hour * hourMillis), dayMillis + hour * hourMillis);
+            }
+        }
+        final Path movedFile = dataDir.resolve("2023/01/2023-01-01_0500.data");
+        // a file moved to a next storage tier after it was listed by compaction
+        final Predicate<String> reserveFile = path -> {
+            if (dataDir.resolve(path).equals(movedFile)) {
+                try {
+                    Files.move(movedFile, SidecarFiles.of(movedFile, SidecarFiles.MIGRATED));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return true;
+        };
+        final var compactor = new Compactor(dataDir, new BasicFileNaming(), 1_000_000L, 0L, List.of(), List.of(), null, reserveFile,
+                path -> {}, mb -> {}, new DatabaseMetrics());
+
+        // when
+        int compactedCount = compactor.compact();
+
+        // then
+        Assertions.assertEquals(0, compactedCount);
+        Assertions.assertFalse(Files.exists(dataDir.resolve("2023/01/2023-01-01.data")));
+        Assertions.assertTrue(Files.exists(dataDir.resolve("2023/01/2023-01-01_0400.data")));
+    }
+
+    @Test
+    void shouldFinishReplacementOfFilesInterruptedByCrash() throws Exception {
+        // given
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final long dayMillis = 1_672_531_200_000L;        // 2023-01-01 00:00 UTC
+        final long hourMillis = 3_600_000L;
+        final var config = new DatabaseProperties<TestEntity>(dataDir, 10).setJmxEnabled(false);
+        try (Database<TestEntity> db = new Database<>(config)) {
+            for (int hour = 0; hour < 24; ++hour) {
+                db.write(new TestEntity(hour, "x", dayMillis + hour * hourMillis), dayMillis + hour * hourMillis);
+            }
+        }
+        try (Database<TestEntity> db = new Database<>(config)) {
+            db.compactFiles();
+        }
+        // a crash after the merged file was moved into place and before the hourly files were retired
+        final List<Path> hourlyFiles = new ArrayList<>();
+        for (int hour = 0; hour < 24; ++hour) {
+            Path hourlyFile = dataDir.resolve("2023/01/2023-01-01_%02d00.data".formatted(hour));
+            Files.move(SidecarFiles.of(hourlyFile, SidecarFiles.RETIRED), hourlyFile);
+            hourlyFiles.add(hourlyFile);
+        }
+        FileReplacement.prepare(dataDir.resolve("2023/01/2023-01-01.data"), hourlyFiles, SidecarFiles.RETIRED);
+
+        // when
+        List<TestEntity> entities;
+        try (Database<TestEntity> db = new Database<>(config)) {
+            entities = db.readRecords(TestEntity.class, null, null).toList();
+        }
+
+        // then
+        Assertions.assertEquals(24, entities.size());
+        Assertions.assertFalse(Files.exists(dataDir.resolve("2023/01/2023-01-01_0500.data")));
+        Assertions.assertTrue(Files.exists(dataDir.resolve("2023/01/2023-01-01_0500.data.retired")));
+        Assertions.assertFalse(Files.exists(dataDir.resolve("2023/01/2023-01-01.data.replacing")));
+    }
+
+    @Test
+    void shouldOpenFilesOfNextHourInAdvanceAndDeleteUnusedOnes() throws Exception {
+        // given
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final long nextHourMillis = 1_672_570_800_000L;        // 2023-01-01 11:00 UTC
+        final long beforeMillis = nextHourMillis - 10_000L;
+        final var config = new DatabaseProperties<TestEntity>(dataDir, 10).setStripeCount(2).setJmxEnabled(false);
+        final Path segment0 = dataDir.resolve("2023/01/2023-01-01_1100.data");
+        final Path segment1 = dataDir.resolve("2023/01/2023-01-01_1100.s1.data");
+        int idleCount;
+        int openedCount;
+        boolean openedFilesExist;
+        List<TestEntity> entities;
+
+        // when
+        try (Database<TestEntity> db = new Database<>(config)) {
+            idleCount = db.preopenNextFiles(beforeMillis);
+            db.write(new TestEntity(1, "x", beforeMillis), beforeMillis);
+            openedCount = db.preopenNextFiles(beforeMillis);
+            openedFilesExist = Files.exists(segment0) && Files.exists(segment1);
+            db.write(new TestEntity(2, "x", nextHourMillis), nextHourMillis);
+        }
+        try (Database<TestEntity> db = new Database<>(config)) {
+            entities = db.readRecords(TestEntity.class, null, null).toList();
+        }
+
+        // then
+        Assertions.assertEquals(0, idleCount);
+        Assertions.assertEquals(2, openedCount);
+        Assertions.assertTrue(openedFilesExist);
+        Assertions.assertTrue(Files.exists(segment0) ^ Files.exists(segment1));
+        Assertions.assertEquals(List.of(1, 2), entities.stream().map(TestEntity::number).toList());
+    }
+
+    @Test
+    void shouldKeepOpenFilesBoundedWhenConcurrentWritersBackfill() throws Exception {
+        // given
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final long dayMillis = 1_672_531_200_000L;        // 2023-01-01 00:00 UTC
+        final long hourMillis = 3_600_000L;
+        final var config = new DatabaseProperties<TestEntity>(dataDir, 10).setMaxOpenFiles(3).setJmxEnabled(false);
+        final var maxOpenFileCount = new AtomicLong();
+        List<TestEntity> entities;
+        DatabaseMetrics metrics;
+
+        // when
+        try (Database<TestEntity> db = new Database<>(config)) {
+            var threads = new ArrayList<Thread>();
+            for (int t = 0; t < 8; ++t) {
+                final int offset = t;
+                threads.add(Thread.ofVirtual().start(() -> {
+                    for (int i = 0; i < 240; ++i) {
+                        long millis = dayMillis + (i % 24) * hourMillis + offset;
+                        db.write(new TestEntity(i * 8 + offset, "x", millis), millis);
+                        maxOpenFileCount.accumulateAndGet(db.getMetrics().getOpenFileCount(), Math::max);
+                    }
+                }));
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            metrics = db.getMetrics();
+            entities = db.readRecords(TestEntity.class, null, null).toList();
+        }
+
+        // then
+        Assertions.assertEquals(8 * 240, entities.size());
+        Assertions.assertEquals(8 * 240, entities.stream().map(TestEntity::number).distinct().count());
+        Assertions.assertTrue(maxOpenFileCount.get() <= 3 + 8, "open files: " + maxOpenFileCount.get());
+        Assertions.assertTrue(metrics.getFileEvictions() > 0);
+        // a writer that took a file evicted meanwhile takes it again
+        Assertions.assertTrue(metrics.getFilePoolHits() + metrics.getFilePoolMisses() >= 8 * 240);
+    }
+
+    @Test
+    void shouldMoveOldestFilesToNextStorageTierAndReadAcrossTiers() throws Exception {
+        // given
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final Path slowDataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final long dayMillis = 1_672_531_200_000L;        // 2023-01-01 00:00 UTC
+        final long hourMillis = 3_600_000L;
+        try (Database<TestEntity> db = new Database<>(new DatabaseProperties<TestEntity>(dataDir, 100).setJmxEnabled(false))) {
+            for (int i = 0; i < 24 * 100; ++i) {
+                db.write(new TestEntity(i, "x".repeat(100), 0L), dayMillis + i * hourMillis / 100);
+            }
+        }
+        final var config = new DatabaseProperties<TestEntity>(dataDir, 100).addStorageTier(slowDataDir, 100).setJmxEnabled(false);
+
+        // when
+        double freedMB;
+        double fastUsageMB;
+        double slowUsageMB;
+        List<TestEntity> entities;
+        try (Database<TestEntity> db = new Database<>(config)) {
+            double usageBeforeMB = db.getActualDiskUsageMB();
+            freedMB = db.migrateFiles(usageBeforeMB / 2);
+            fastUsageMB = db.getActualDiskUsageMB(0);
+            slowUsageMB = db.getActualDiskUsageMB(1);
+            db.write(new TestEntity(-1, "late", 0L), dayMillis + 30 * 60_000L + 1);
+            db.close();
+            entities = db.readRecords(TestEntity.class, null, null).toList();
+        }
+
+        // then
+        Assertions.assertTrue(freedMB > 0.0);
+        Assertions.assertTrue(slowUsageMB > 0.0);
+        Assertions.assertTrue(fastUsageMB > 0.0);
+        Assertions.assertTrue(Files.exists(slowDataDir.resolve("2023/01/2023-01-01_0000.data")));
+        Assertions.assertTrue(Files.exists(slowDataDir.resolve("2023/01/2023-01-01_0000.data.sorted")));
+        Assertions.assertTrue(Files.exists(dataDir.resolve("2023/01/2023-01-01_0000.data.migrated")));
+        Assertions.assertTrue(Files.exists(dataDir.resolve("2023/01/2023-01-01_2300.data")));
+        Assertions.assertEquals(24 * 100 + 1, entities.size());
+        Assertions.assertEquals(-1, entities.get(51).number());
+        Assertions.assertEquals(24 * 100 - 1, entities.getLast().number());
+    }
+
+    @Test
+    void shouldCountMovedFilesInDiskUsageOfFirstTierUntilTheyAreDeleted() throws Exception {
+        // given
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final Path slowDataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final long dayMillis = 1_672_531_200_000L;        // 2023-01-01 00:00 UTC
+        final long hourMillis = 3_600_000L;
+        try (Database<TestEntity> db = new Database<>(new DatabaseProperties<TestEntity>(dataDir, 100).setJmxEnabled(false))) {
+            for (int i = 0; i < 24 * 100; ++i) {
+                db.write(new TestEntity(i, "x".repeat(100), 0L), dayMillis + i * hourMillis / 100);
+            }
+        }
+        final var config = new DatabaseProperties<TestEntity>(dataDir, 100).addStorageTier(slowDataDir, 100).setJmxEnabled(false);
+
+        // when
+        double usageBeforeMB;
+        double freedMB;
+        double usageAfterMoveMB;
+        double freedAgainMB;
+        double usageAfterDeleteMB;
+        try (Database<TestEntity> db = new Database<>(config)) {
+            usageBeforeMB = db.getActualDiskUsageMB(0);
+            freedMB = db.migrateFiles(usageBeforeMB / 2);
+            usageAfterMoveMB = db.getActualDiskUsageMB(0);
+            freedAgainMB = db.migrateFiles(usageBeforeMB / 2);
+            try (Stream<Path> paths = Files.find(dataDir, 3, (path, attributes) ->
+                    path.getFileName().toString().endsWith(SidecarFiles.MIGRATED))) {
+                for (Path path : paths.toList()) {
+                    Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis() - 3_600_000L));
+                }
+            }
+            db.deleteMigratedFiles();
+            usageAfterDeleteMB = db.getActualDiskUsageMB(0);
+        }
+
+        // then
+        Assertions.assertTrue(freedMB > 0.0);
+        Assertions.assertTrue(usageAfterMoveMB > usageBeforeMB - freedMB);      // only metadata sidecars are deleted by a move
+        Assertions.assertEquals(0.0, freedAgainMB);
+        Assertions.assertEquals(usageAfterMoveMB - freedMB, usageAfterDeleteMB, 0.001);
+        Assertions.assertFalse(Files.exists(dataDir.resolve("2023/01/2023-01-01_0000.data.migrated")));
+    }
+
+    @Test
+    void shouldFinishMoveToNextStorageTierInterruptedByCrash() throws Exception {
+        // given
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final Path slowDataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final long dayMillis = 1_672_531_200_000L;        // 2023-01-01 00:00 UTC
+        final long hourMillis = 3_600_000L;
+        final var config = new DatabaseProperties<TestEntity>(dataDir, 100).addStorageTier(slowDataDir, 100).setJmxEnabled(false);
+        try (Database<TestEntity> db = new Database<>(config)) {
+            for (int hour = 0; hour < 3; ++hour) {
+                db.write(new TestEntity(hour, "x", 0L), dayMillis + hour * hourMillis);
+            }
+        }
+        // a crash after the file was moved into the next tier and before the source was renamed
+        final Path source = dataDir.resolve("2023/01/2023-01-01_0000.data");
+        final Path target = slowDataDir.resolve("2023/01/2023-01-01_0000.data");
+        Files.createDirectories(target.getParent());
+        Files.copy(source, target);
+        FileReplacement.prepare(target, List.of(source), SidecarFiles.MIGRATED);
+
+        // when
+        List<TestEntity> entities;
+        try (Database<TestEntity> db = new Database<>(config)) {
+            entities = db.readRecords(TestEntity.class, null, null).toList();
+        }
+
+        // then
+        Assertions.assertEquals(List.of(0, 1, 2), entities.stream().map(TestEntity::number).toList());
+        Assertions.assertFalse(Files.exists(source));
+        Assertions.assertTrue(Files.exists(SidecarFiles.of(source, SidecarFiles.MIGRATED)));
+        Assertions.assertFalse(Files.exists(SidecarFiles.of(target, SidecarFiles.REPLACING)));
+    }
+
     record TestEntity (int number, String text, long ts) {
         TestEntity(int number, String text) {
             this(number, text, System.currentTimeMillis());
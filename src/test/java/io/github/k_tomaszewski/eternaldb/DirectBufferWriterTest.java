@@ -0,0 +1,73 @@
+package io.github.k_tomaszewski.eternaldb;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.WRITE;
+
+public class DirectBufferWriterTest {
+
+    @Test
+    void shouldEncodeLikeUtf8Charset() throws IOException {
+        // given
+        Path file = Files.createTempFile("direct-buffer", ".data");
+        final String text = "abc\tżółć €uro 😀 end\n";
+        var metrics = new DatabaseMetrics();
+
+        // when
+        try (var writer = new DirectBufferWriter(FileChannel.open(file, WRITE), 64, metrics)) {
+            for (int i = 0; i < 10; ++i) {
+                writer.write(text.toCharArray(), 0, 20);        // splits the surrogate pair between calls
+                writer.append(text.substring(20));
+            }
+        }
+
+        // then
+        byte[] expected = text.repeat(10).getBytes(StandardCharsets.UTF_8);
+        Assertions.assertArrayEquals(expected, Files.readAllBytes(file));
+        Assertions.assertEquals(expected.length, metrics.getBytesAppended());
+    }
+
+    @Test
+    void shouldEncodeCharSequencesAndSingleCharsThroughSmallBuffer() throws IOException {
+        // given
+        Path file = Files.createTempFile("direct-buffer", ".data");
+        final StringBuilder text = new StringBuilder("żółć 😀 €");
+        var metrics = new DatabaseMetrics();
+
+        // when
+        try (var writer = new DirectBufferWriter(FileChannel.open(file, WRITE), 4, metrics)) {
+            for (int i = 0; i < 10; ++i) {
+                writer.append(text);
+                writer.append(text, 5, 7);
+                writer.write('\uD83D');
+                writer.append('\uDE00');
+            }
+        }
+
+        // then
+        byte[] expected = "żółć 😀 €😀😀".repeat(10).getBytes(StandardCharsets.UTF_8);
+        Assertions.assertArrayEquals(expected, Files.readAllBytes(file));
+        Assertions.assertEquals(expected.length, metrics.getBytesAppended());
+    }
+
+    @Test
+    void shouldReplaceMalformedSurrogates() throws IOException {
+        // given
+        Path file = Files.createTempFile("direct-buffer", ".data");
+
+        // when
+        try (var writer = new DirectBufferWriter(FileChannel.open(file, WRITE), 64, new DatabaseMetrics())) {
+            writer.append("a\uD83Db\uDE00c\uD83D");
+        }
+
+        // then
+        Assertions.assertEquals("a?b?c?", Files.readString(file));
+    }
+}
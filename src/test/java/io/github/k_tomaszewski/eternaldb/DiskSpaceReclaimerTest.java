@@ -56,4 +56,25 @@ public class DiskSpaceReclaimerTest {
         // then
         Assertions.assertEquals(0, Files.list(dataDir).filter(Files::isRegularFile).count());
     }
+
+    @Test
+    void shouldDeleteSidecarsTogetherWithDataFile() {
+        // given
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final long hourMillis = 1_672_567_200_000L;        // 2023-01-01 10:00 UTC
+        try (Database<Object> db = new Database<>(new DatabaseProperties<>(dataDir, 1).setJmxEnabled(false))) {
+            db.write(Map.of("foo", 1), hourMillis);
+            db.write(Map.of("foo", 2), hourMillis + 3_600_000L);
+        }
+        DiskSpaceReclaimer reclaimer = new DiskSpaceReclaimer(dataDir, 0.001, new AtomicBoolean(), new DoubleAdder());
+
+        // when
+        reclaimer.run();
+
+        // then
+        Assertions.assertFalse(Files.exists(dataDir.resolve("2023/01/2023-01-01_1000.data")));
+        Assertions.assertFalse(Files.exists(dataDir.resolve("2023/01/2023-01-01_1000.data.sorted")));
+        Assertions.assertTrue(Files.exists(dataDir.resolve("2023/01/2023-01-01_1100.data")));
+        Assertions.assertTrue(Files.exists(dataDir.resolve("2023/01/2023-01-01_1100.data.sorted")));
+    }
 }
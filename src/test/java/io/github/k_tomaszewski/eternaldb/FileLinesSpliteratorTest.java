@@ -6,8 +6,11 @@ import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.nio.file.Files;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -32,7 +35,8 @@ public class FileLinesSpliteratorTest {
 
         // when
         String result;
-        try (Stream<String> linesStream = StreamUtil.stream(new FileLinesSpliterator(dataDir, fromTs, toTs, new BasicFileNaming()), false)) {
+        try (Stream<String> linesStream = StreamUtil.stream(new FileLinesSpliterator(dataDir, fromTs, toTs, new BasicFileNaming(),
+                new DatabaseMetrics()), false)) {
             result = linesStream.map(line -> line.substring(line.indexOf('\t') + 2, line.length() - 1))
                     .collect(Collectors.joining());
         }
@@ -42,6 +46,142 @@ public class FileLinesSpliteratorTest {
         Assertions.assertEquals("FEDCBA", result);
     }
 
+    @Test
+    void shouldMergeStripedSegmentFilesByTimestamps() throws Exception {
+        // given
+        final Path dataDir = Path.of("target/spliterator_db_" + System.nanoTime());
+        Database<String> db = new Database<>(new DatabaseProperties<String>(dataDir, 1).setStripeCount(4));
+        final long baseMillis = toMillis(LocalDateTime.of(2024, 5, 1, 13, 0));
+
+        // when
+        try (var executor = Executors.newFixedThreadPool(4)) {
+            for (int thread = 0; thread < 4; ++thread) {
+                final int offset = thread;
+                executor.submit(() -> {
+                    for (int i = offset; i < 100; i += 4) {
+                        db.write(Integer.toString(i), baseMillis + i);
+                    }
+                });
+            }
+        }
+        db.close();
+        long segmentCount;
+        try (var files = Files.list(dataDir.resolve("2024/05"))) {
+            segmentCount = files.count();
+        }
+        List<Long> timestamps;
+        try (Stream<String> linesStream = StreamUtil.stream(new FileLinesSpliterator(dataDir, baseMillis, baseMillis + 99,
+                new BasicFileNaming(), new DatabaseMetrics()), false)) {
+            timestamps = linesStream.map(DataLine::timestamp).toList();
+        }
+
+        // then
+        Assertions.assertTrue(segmentCount > 1);
+        Assertions.assertEquals(100, timestamps.size());
+        Assertions.assertEquals(timestamps.stream().sorted().toList(), timestamps);
+    }
+
+    @Test
+    void shouldMarkFilesWrittenInOrderAndReadThemWithoutSorting() throws IOException {
+        // given
+        final Path dataDir = Path.of("target/spliterator_db_" + System.nanoTime());
+        final var config = new DatabaseProperties<String>(dataDir, 1);
+        final long hour1 = toMillis(LocalDateTime.of(2024, 5, 1, 13, 0));
+        final long hour2 = toMillis(LocalDateTime.of(2024, 5, 1, 14, 0));
+        final var naming = new BasicFileNaming();
+
+        // when
+        try (var db = new Database<>(config)) {
+            db.write("A", hour1 + 1);
+            db.write("B", hour1 + 2);
+            db.write("D", hour2 + 2);
+            db.write("C", hour2 + 1);
+        }
+        boolean hour1Marked = Files.exists(dataDir.resolve(naming.formatRelativePathStr(hour1) + SidecarFiles.SORTED_MARKER));
+        boolean hour2Marked = Files.exists(dataDir.resolve(naming.formatRelativePathStr(hour2) + SidecarFiles.SORTED_MARKER));
+        var metrics = new DatabaseMetrics();
+        String result;
+        try (Stream<String> linesStream = StreamUtil.stream(new FileLinesSpliterator(dataDir, null, null, naming, metrics), false)) {
+            result = linesStream.map(line -> line.substring(line.indexOf('\t') + 2, line.length() - 1)).collect(Collectors.joining());
+        }
+
+        // then
+        Assertions.assertTrue(hour1Marked);
+        Assertions.assertFalse(hour2Marked);
+        Assertions.assertEquals("ABCD", result);
+        Assertions.assertEquals(2, metrics.getFilesScanned());
+        Assertions.assertEquals(1, metrics.getFilesReadWithoutSorting());
+    }
+
+    @Test
+    void shouldRemoveSortedMarkerWhenFileIsReopenedAndWrittenOutOfOrder() throws IOException {
+        // given
+        final Path dataDir = Path.of("target/spliterator_db_" + System.nanoTime());
+        final var config = new DatabaseProperties<String>(dataDir, 1);
+        final long hour = toMillis(LocalDateTime.of(2024, 5, 1, 13, 0));
+        final Path marker = dataDir.resolve(new BasicFileNaming().formatRelativePathStr(hour) + SidecarFiles.SORTED_MARKER);
+
+        // when
+        try (var db = new Database<>(config)) {
+            db.write("B", hour + 2);
+        }
+        boolean markedAfterFirstRun = Files.exists(marker);
+        try (var db = new Database<>(config)) {
+            db.write("A", hour + 1);
+        }
+        boolean markedAfterSecondRun = Files.exists(marker);
+        List<String> records;
+        try (var roDb = new ReadOnlyDatabase(config)) {
+            records = roDb.readRecords(String.class, null, null).toList();
+        }
+
+        // then
+        Assertions.assertTrue(markedAfterFirstRun);
+        Assertions.assertFalse(markedAfterSecondRun);
+        Assertions.assertEquals(List.of("A", "B"), records);
+    }
+
+    @Test
+    void shouldReadAheadLinesWithinEstimatedHeapSizeAndCountThemWhenConsumed() throws IOException {
+        // given
+        final Path dataDir = Path.of("target/spliterator_db_" + System.nanoTime());
+        final var fileNaming = new BasicFileNaming();
+        final long hour = toMillis(LocalDateTime.of(2024, 5, 1, 13, 0));
+        try (var db = new Database<String>(new DatabaseProperties<>(dataDir, 1))) {
+            for (int i = 0; i < 30; ++i) {
+                db.write("record-" + i, hour + (i / 10) * 3_600_000L + i);
+            }
+        }
+        final long fileBytes = Files.size(dataDir.resolve(fileNaming.formatRelativePathStr(hour)));
+
+        // when
+        var smallBudgetMetrics = new DatabaseMetrics();
+        List<String> smallBudgetLines = readLines(dataDir, fileNaming, smallBudgetMetrics, 2 * fileBytes, 30);
+        var largeBudgetMetrics = new DatabaseMetrics();
+        List<String> largeBudgetLines = readLines(dataDir, fileNaming, largeBudgetMetrics, 20 * fileBytes, 30);
+        var earlyCloseMetrics = new DatabaseMetrics();
+        readLines(dataDir, fileNaming, earlyCloseMetrics, 20 * fileBytes, 1);
+
+        // then
+        Assertions.assertEquals(30, smallBudgetLines.size());
+        Assertions.assertEquals(smallBudgetLines, largeBudgetLines);
+        Assertions.assertEquals(3, smallBudgetMetrics.getFilesScanned());
+        Assertions.assertEquals(0, smallBudgetMetrics.getFilesReadAhead());        // lines take more heap than file bytes
+        Assertions.assertEquals(3, largeBudgetMetrics.getFilesScanned());
+        Assertions.assertEquals(2, largeBudgetMetrics.getFilesReadAhead());
+        Assertions.assertEquals(1, earlyCloseMetrics.getFilesScanned());
+        Assertions.assertEquals(0, earlyCloseMetrics.getFilesReadAhead());
+    }
+
+    private static List<String> readLines(Path dataDir, FileNamingStrategy fileNaming, DatabaseMetrics metrics, long readAheadBytes,
+            int maxLines) throws IOException {
+        var spliterator = new FileLinesSpliterator(DataFileBuckets.find(dataDir, null, null, fileNaming), metrics, false,
+                FileLinesSpliterator.DIRECTORY_ACCESS, readAheadBytes, null);
+        try (Stream<String> linesStream = StreamUtil.stream(spliterator, false)) {
+            return linesStream.limit(maxLines).toList();
+        }
+    }
+
     private static long toMillis(LocalDateTime dt) {
         return dt.toInstant(ZoneOffset.UTC).toEpochMilli();
     }
@@ -0,0 +1,70 @@
+package io.github.k_tomaszewski.eternaldb;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class GroupCommitTest {
+
+    @Test
+    void shouldFailEveryWriterOfFailedSyncRounds() throws InterruptedException {
+        // given
+        final AtomicInteger roundCount = new AtomicInteger();
+        final AtomicInteger succeededCount = new AtomicInteger();
+        final AtomicInteger failedCount = new AtomicInteger();
+        final GroupCommit groupCommit = new GroupCommit(() -> {
+            roundCount.incrementAndGet();
+            throw new IOException("device lost");
+        });
+
+        // when
+        var threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; ++t) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 500; ++i) {
+                    try {
+                        groupCommit.awaitSync();
+                        succeededCount.incrementAndGet();
+                    } catch (UncheckedIOException e) {
+                        failedCount.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        groupCommit.close();
+
+        // then
+        Assertions.assertTrue(roundCount.get() > 1);
+        Assertions.assertEquals(0, succeededCount.get());
+        Assertions.assertEquals(8 * 500, failedCount.get());
+    }
+
+    @Test
+    @Timeout(value = 10, threadMode = Timeout.ThreadMode.SEPARATE_THREAD)
+    void shouldFailWritersAndKeepSyncingWhenSyncThrowsRuntimeException() {
+        // given
+        final AtomicInteger roundCount = new AtomicInteger();
+        final GroupCommit groupCommit = new GroupCommit(() -> {
+            if (roundCount.incrementAndGet() == 1) {
+                throw new IllegalStateException("channel closed");
+            }
+        });
+
+        // when
+        RuntimeException failure = Assertions.assertThrows(RuntimeException.class, groupCommit::awaitSync);
+        groupCommit.awaitSync();
+        groupCommit.close();
+
+        // then
+        Assertions.assertInstanceOf(IllegalStateException.class, failure.getCause());
+        Assertions.assertEquals(2, roundCount.get());
+    }
+}
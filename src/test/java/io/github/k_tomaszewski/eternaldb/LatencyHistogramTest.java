@@ -0,0 +1,49 @@
+package io.github.k_tomaszewski.eternaldb;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    void shouldReportPercentilesWithBoundedError() {
+        // given
+        var histogram = new LatencyHistogram();
+
+        // when
+        for (long i = 1; i <= 1000; ++i) {
+            histogram.record(i * 1000);
+        }
+
+        // then
+        Assertions.assertEquals(1000, histogram.getCount());
+        Assertions.assertEquals(1_000_000, histogram.getMaxNanos());
+        Assertions.assertEquals(500_500.0, histogram.getMeanNanos(), 0.001);
+        assertWithinError(500_000, histogram.getValueAtPercentile(50.0));
+        assertWithinError(990_000, histogram.getValueAtPercentile(99.0));
+        Assertions.assertEquals(1_000_000, histogram.getValueAtPercentile(100.0));
+    }
+
+    @Test
+    void shouldReturnZeroWhenEmpty() {
+        // when
+        var histogram = new LatencyHistogram();
+
+        // then
+        Assertions.assertEquals(0, histogram.getValueAtPercentile(99.0));
+        Assertions.assertEquals(0.0, histogram.getMeanNanos());
+    }
+
+    @Test
+    void shouldMapValuesToBucketsContainingThem() {
+        for (long value : new long[] {0, 1, 7, 8, 15, 16, 1000, 123_456_789, 1L << 40}) {
+            int index = LatencyHistogram.bucketIndex(value);
+            Assertions.assertTrue(LatencyHistogram.bucketUpperBound(index) >= value, "value " + value);
+            Assertions.assertTrue(index == 0 || LatencyHistogram.bucketUpperBound(index - 1) < value, "value " + value);
+        }
+    }
+
+    private static void assertWithinError(long expected, long actual) {
+        Assertions.assertTrue(Math.abs(actual - expected) <= expected / 8, "expected ~%d, actual %d".formatted(expected, actual));
+    }
+}
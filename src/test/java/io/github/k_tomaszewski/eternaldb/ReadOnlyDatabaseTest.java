@@ -5,9 +5,19 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.function.Executable;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.SortedMap;
 import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 public class ReadOnlyDatabaseTest {
 
@@ -63,4 +73,316 @@ public class ReadOnlyDatabaseTest {
         // then
         Assertions.assertEquals(expectedRecords, records);
     }
+
+    @Test
+    void shouldSkipReplacedFilesListedBetweenMoveOfNewFileAndTheirRename() throws IOException {
+        // given
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final long dayMillis = 1_672_531_200_000L;        // 2023-01-01 00:00 UTC
+        final long hourMillis = 3_600_000L;
+        var config = new DatabaseProperties<>().setDataDir(dataDir).setJmxEnabled(false);
+        try (var db = new Database<>(config)) {
+            for (int hour = 0; hour < 24; ++hour) {
+                db.write(hour, dayMillis + hour * hourMillis);
+            }
+        }
+        try (var db = new Database<>(config)) {
+            db.compactFiles();
+        }
+        // the merged file is moved into place, but the hourly files are not renamed yet
+        final List<Path> hourlyFiles = new ArrayList<>();
+        for (int hour = 0; hour < 24; ++hour) {
+            Path hourlyFile = dataDir.resolve("2023/01/2023-01-01_%02d00.data".formatted(hour));
+            Files.move(SidecarFiles.of(hourlyFile, SidecarFiles.RETIRED), hourlyFile);
+            hourlyFiles.add(hourlyFile);
+        }
+        FileReplacement.prepare(dataDir.resolve("2023/01/2023-01-01.data"), hourlyFiles, SidecarFiles.RETIRED);
+
+        // when
+        List<Integer> records;
+        try (var roDb = new ReadOnlyDatabase(config)) {
+            records = roDb.readRecords(Integer.class, null, null).toList();
+        }
+
+        // then
+        Assertions.assertEquals(IntStream.range(0, 24).boxed().toList(), records);
+        Assertions.assertTrue(Files.exists(hourlyFiles.getFirst()));
+    }
+
+    @Test
+    void shouldServeRepeatedReadsOfPastFilesFromRecordCache() {
+        // given
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final long hourMillis = 1_672_567_200_000L;        // 2023-01-01 10:00 UTC
+        var config = new DatabaseProperties<>().setDataDir(dataDir).setRecordCacheSizeMB(1);
+        try (var db = new Database<>(config)) {
+            List.of("aaaa", "bbbb", "cccc").forEach(data -> db.write(data, hourMillis + data.charAt(0)));
+        }
+
+        // when
+        List<String> firstRecords;
+        List<String> secondRecords;
+        List<String> recordsAfterChange;
+        long filesScannedByFirstRead;
+        long filesScannedBySecondRead;
+        try (var roDb = new ReadOnlyDatabase(config)) {
+            firstRecords = roDb.readRecords(String.class, hourMillis + 'b', null).toList();
+            filesScannedByFirstRead = roDb.getMetrics().getFilesScanned();
+            secondRecords = roDb.readRecords(String.class, hourMillis + 'b', null).toList();
+            filesScannedBySecondRead = roDb.getMetrics().getFilesScanned() - filesScannedByFirstRead;
+            try (var db = new Database<>(config)) {
+                db.write("dddd", hourMillis + 'd');
+            }
+            recordsAfterChange = roDb.readRecords(String.class, hourMillis + 'b', null).toList();
+
+            // then
+            Assertions.assertEquals(1, roDb.getMetrics().getRecordCacheHits());
+            Assertions.assertEquals(2, roDb.getMetrics().getRecordCacheMisses());
+        }
+        Assertions.assertEquals(List.of("bbbb", "cccc"), firstRecords);
+        Assertions.assertEquals(firstRecords, secondRecords);
+        Assertions.assertEquals(1, filesScannedByFirstRead);
+        Assertions.assertEquals(0, filesScannedBySecondRead);
+        Assertions.assertEquals(List.of("bbbb", "cccc", "dddd"), recordsAfterChange);
+    }
+
+    @Test
+    void shouldReadFilesOfNextBucketsAhead() {
+        // given
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final long dayMillis = 1_672_531_200_000L;        // 2023-01-01 00:00 UTC
+        final long hourMillis = 3_600_000L;
+        var config = new DatabaseProperties<Integer>(dataDir, 100).setJmxEnabled(false).setReadAheadBudgetMB(1);
+        List<Integer> expectedRecords = new ArrayList<>();
+        try (var db = new Database<>(config)) {
+            for (int hour = 0; hour < 24; ++hour) {
+                for (int i = 9; i >= 0; --i) {      // out of order, so files are sorted when read
+                    db.write(hour * 10 + i, dayMillis + hour * hourMillis + i);
+                }
+                for (int i = 0; i < 10; ++i) {
+                    expectedRecords.add(hour * 10 + i);
+                }
+            }
+            db.write(-1, System.currentTimeMillis());
+            expectedRecords.add(-1);
+        }
+
+        // when
+        List<Integer> records;
+        long filesScanned;
+        long filesReadAhead;
+        try (var roDb = new ReadOnlyDatabase(config)) {
+            records = roDb.readRecords(Integer.class, null, null).toList();
+            filesScanned = roDb.getMetrics().getFilesScanned();
+            filesReadAhead = roDb.getMetrics().getFilesReadAhead();
+        }
+
+        // then
+        Assertions.assertEquals(expectedRecords, records);
+        Assertions.assertEquals(25, filesScanned);
+        Assertions.assertEquals(23, filesReadAhead);        // not the first one nor the one of the current hour
+    }
+
+    @Test
+    void shouldReadPagesFromCursors() {
+        // given
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final long dayMillis = 1_672_531_200_000L;        // 2023-01-01 00:00 UTC
+        final long hourMillis = 3_600_000L;
+        var config = new DatabaseProperties<Integer>(dataDir, 100).setJmxEnabled(false);
+        try (var db = new Database<>(config)) {
+            for (int i = 0; i < 100; ++i) {
+                db.write(i, dayMillis + (i / 10) * 1000L);          // ties of 10 records in a sorted file
+            }
+            for (int i = 199; i >= 100; --i) {
+                db.write(i, dayMillis + hourMillis + (i / 10) * 1000L);         // an unsorted file
+            }
+        }
+
+        // when
+        List<Integer> records = new ArrayList<>();
+        List<ReadCursor> cursors = new ArrayList<>();
+        try (var roDb = new ReadOnlyDatabase(config)) {
+            ReadCursor cursor = ReadCursor.start(dayMillis + 2000L);
+            while (cursor != null) {
+                Page<Integer> page = roDb.read(Integer.class, ReadCursor.fromToken(cursor.toToken()), dayMillis + hourMillis + 18_000L, 7);
+                page.records().forEach(record -> records.add(record.record()));
+                cursor = page.next();
+                cursors.add(cursor);
+            }
+        }
+
+        // then
+        List<Integer> expectedRecords = new ArrayList<>();
+        for (int i = 20; i < 100; ++i) {
+            expectedRecords.add(i);
+        }
+        for (int second = 10; second < 19; ++second) {
+            for (int i = second * 10 + 9; i >= second * 10; --i) {     // equal timestamps keep order of writing
+                expectedRecords.add(i);
+            }
+        }
+        Assertions.assertEquals(expectedRecords, records);
+        Assertions.assertTrue(cursors.getFirst().fileOffset() > 0L);
+        Assertions.assertEquals(-1L, cursors.get(20).fileOffset());
+        Assertions.assertNull(cursors.getLast());
+    }
+
+    @Test
+    void shouldAggregateRecordsInTimeBuckets() {
+        // given
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final long dayMillis = 1_672_531_200_000L;        // 2023-01-01 00:00 UTC
+        final long hourMillis = 3_600_000L;
+        var config = new DatabaseProperties<Integer>(dataDir, 100).setJmxEnabled(false);
+        try (var db = new Database<>(config)) {
+            for (int i = 0; i < 48 * 60; ++i) {
+                db.write(i % 60, dayMillis + i * 60_000L);      // a record per minute
+            }
+        }
+
+        // when
+        SortedMap<Long, Double> averages;
+        SortedMap<Long, List<Integer>> dailyLists;
+        try (var roDb = new ReadOnlyDatabase(config)) {
+            averages = roDb.aggregate(Integer.class, dayMillis + hourMillis, dayMillis + 3 * hourMillis - 1, Duration.ofMinutes(30),
+                    Collectors.averagingInt(Integer::intValue));
+            dailyLists = roDb.aggregate(Integer.class, null, null, Duration.ofDays(1), Collectors.toList());
+        }
+
+        // then
+        Assertions.assertEquals(List.of(dayMillis + hourMillis, dayMillis + 3 * hourMillis / 2, dayMillis + 2 * hourMillis,
+                dayMillis + 5 * hourMillis / 2), List.copyOf(averages.keySet()));
+        Assertions.assertEquals(List.of(14.5, 44.5, 14.5, 44.5), List.copyOf(averages.values()));
+        Assertions.assertEquals(List.of(dayMillis, dayMillis + 24 * hourMillis), List.copyOf(dailyLists.keySet()));
+        Assertions.assertEquals(24 * 60, dailyLists.get(dayMillis).size());
+        Assertions.assertEquals(List.of(0, 1, 2), dailyLists.get(dayMillis).subList(0, 3));
+        Assertions.assertEquals(List.of(58, 59), dailyLists.get(dayMillis + 24 * hourMillis).subList(24 * 60 - 2, 24 * 60));
+    }
+
+    @Test
+    void shouldReadManyTimeRangesInSinglePass() {
+        // given
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final long dayMillis = 1_672_531_200_000L;        // 2023-01-01 00:00 UTC
+        final long hourMillis = 3_600_000L;
+        var config = new DatabaseProperties<Integer>(dataDir, 100).setJmxEnabled(false);
+        try (var db = new Database<>(config)) {
+            for (int i = 0; i < 3 * 24 * 60; ++i) {
+                db.write(i, dayMillis + i * 60_000L);       // a record per minute
+            }
+        }
+        final List<TimeRange> ranges = List.of(
+                new TimeRange(dayMillis + 58 * hourMillis, dayMillis + 59 * hourMillis - 1),
+                new TimeRange(dayMillis + 10 * hourMillis, dayMillis + 11 * hourMillis - 1),
+                new TimeRange(dayMillis + 34 * hourMillis, dayMillis + 35 * hourMillis - 1));
+
+        // when
+        List<RangedRecord<Integer>> records;
+        long filesScanned;
+        try (var roDb = new ReadOnlyDatabase(config)) {
+            try (var recordStream = roDb.read(Integer.class, ranges)) {
+                records = recordStream.toList();
+            }
+            filesScanned = roDb.getMetrics().getFilesScanned();
+        }
+
+        // then
+        Assertions.assertEquals(3 * 60, records.size());
+        Assertions.assertEquals(List.of(ranges.get(1), ranges.get(2), ranges.get(0)),
+                records.stream().map(RangedRecord::range).distinct().toList());
+        Assertions.assertEquals(List.of(600, 659, 2040, 2099, 3480, 3539), records.stream()
+                .filter(record -> record.record().record() % 60 == 0 || record.record().record() % 60 == 59)
+                .map(record -> record.record().record())
+                .toList());
+        Assertions.assertTrue(records.stream().allMatch(record -> record.range().contains(record.record().millis())));
+        Assertions.assertEquals(3, filesScanned);
+        try (var roDb = new ReadOnlyDatabase(config)) {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> roDb.read(Integer.class,
+                    List.of(new TimeRange(dayMillis, dayMillis + hourMillis), new TimeRange(dayMillis + hourMillis, null))));
+        }
+    }
+
+    @Test
+    void shouldReadTimeRangeFromZipFile() throws IOException {
+        // given
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final Path zipFile = Path.of(dataDir + ".zip");
+        final long hourMillis = 1_672_567_200_000L;        // 2023-01-01 10:00 UTC
+        var config = new DatabaseProperties<>().setDataDir(dataDir);
+        try (var db = new Database<>(config)) {
+            for (int hour = 0; hour < 5; ++hour) {
+                db.write("record" + hour, hourMillis + hour * 3_600_000L);
+            }
+        }
+        zipDirectory(dataDir, "archive/db/", zipFile);
+
+        // when
+        List<String> allRecords;
+        List<String> rangeRecords;
+        long filesScannedByRangeRead;
+        long filesReadWithoutSorting;
+        try (var roDb = ReadOnlyDatabase.fromZip(zipFile)) {
+            allRecords = roDb.readRecords(String.class, null, null).toList();
+            long filesScannedBefore = roDb.getMetrics().getFilesScanned();
+            rangeRecords = roDb.readRecords(String.class, hourMillis + 3_600_000L, hourMillis + 3 * 3_600_000L).toList();
+            filesScannedByRangeRead = roDb.getMetrics().getFilesScanned() - filesScannedBefore;
+            filesReadWithoutSorting = roDb.getMetrics().getFilesReadWithoutSorting();
+        }
+
+        // then
+        Assertions.assertEquals(List.of("record0", "record1", "record2", "record3", "record4"), allRecords);
+        Assertions.assertEquals(List.of("record1", "record2", "record3"), rangeRecords);
+        Assertions.assertEquals(3, filesScannedByRangeRead);
+        Assertions.assertEquals(8, filesReadWithoutSorting);
+    }
+
+    @Test
+    void shouldExportTimeRangeOfLiveDatabaseToZipFile() throws IOException {
+        // given
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final Path zipFile = Path.of(dataDir + ".zip");
+        final long hourMillis = 1_672_567_200_000L;        // 2023-01-01 10:00 UTC
+        var config = new DatabaseProperties<>().setDataDir(dataDir).withFlushOnEveryWrite();
+        try (var db = new Database<>(config)) {
+            db.write("old0", hourMillis - 3_600_000L);
+            db.write("old1", hourMillis);
+        }
+        Files.writeString(dataDir.resolve("2023/01/2023-01-01_1000.data"), "partial", StandardOpenOption.APPEND);
+        final long nowMillis = System.currentTimeMillis();
+
+        // when
+        int exportedCount;
+        try (var db = new Database<>(config)) {
+            db.write("live0", nowMillis);
+            exportedCount = db.exportZip(zipFile, hourMillis, null);
+            db.write("live1", nowMillis);
+        }
+        List<String> records;
+        try (var roDb = ReadOnlyDatabase.fromZip(zipFile)) {
+            records = roDb.readRecords(String.class, null, null).toList();
+        }
+        int entryCount = 0;
+        try (var zip = new ZipInputStream(Files.newInputStream(zipFile))) {      // verifies CRC of stored entries
+            while (zip.getNextEntry() != null) {
+                zip.readAllBytes();
+                ++entryCount;
+            }
+        }
+
+        // then
+        Assertions.assertEquals(2, exportedCount);
+        Assertions.assertEquals(List.of("old1", "live0"), records);
+        Assertions.assertEquals(3, entryCount);     // including a sorted marker of the sealed file
+    }
+
+    private static void zipDirectory(Path dir, String entryPrefix, Path zipFile) throws IOException {
+        try (var zip = new ZipOutputStream(Files.newOutputStream(zipFile)); var files = Files.walk(dir)) {
+            for (Path file : files.filter(Files::isRegularFile).sorted().toList()) {
+                zip.putNextEntry(new ZipEntry(entryPrefix + dir.relativize(file).toString().replace('\\', '/')));
+                Files.copy(file, zip);
+                zip.closeEntry();
+            }
+        }
+    }
 }
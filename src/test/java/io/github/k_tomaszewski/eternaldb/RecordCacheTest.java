@@ -0,0 +1,45 @@
+package io.github.k_tomaszewski.eternaldb;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.List;
+
+public class RecordCacheTest {
+
+    private static final Timestamped<?>[] RECORDS = {new Timestamped<>("a", 1L)};
+
+    @Test
+    void shouldEvictLeastRecentlyUsedEntries() {
+        // given
+        RecordCache cache = new RecordCache(100);
+        cache.put(List.of(Path.of("a.data")), String.class, List.of(new RecordCache.FileVersion(1L, 40L)), RECORDS);
+        cache.put(List.of(Path.of("b.data")), String.class, List.of(new RecordCache.FileVersion(1L, 40L)), RECORDS);
+        cache.get(List.of(Path.of("a.data")), String.class, List.of(new RecordCache.FileVersion(1L, 40L)));
+
+        // when
+        cache.put(List.of(Path.of("c.data")), String.class, List.of(new RecordCache.FileVersion(1L, 40L)), RECORDS);
+
+        // then
+        Assertions.assertNotNull(cache.get(List.of(Path.of("a.data")), String.class, List.of(new RecordCache.FileVersion(1L, 40L))));
+        Assertions.assertNull(cache.get(List.of(Path.of("b.data")), String.class, List.of(new RecordCache.FileVersion(1L, 40L))));
+        Assertions.assertNotNull(cache.get(List.of(Path.of("c.data")), String.class, List.of(new RecordCache.FileVersion(1L, 40L))));
+        Assertions.assertEquals(80L, cache.getSize());
+    }
+
+    @Test
+    void shouldInvalidateEntryOfChangedFile() {
+        // given
+        RecordCache cache = new RecordCache(100);
+        cache.put(List.of(Path.of("a.data")), String.class, List.of(new RecordCache.FileVersion(1L, 40L)), RECORDS);
+
+        // when
+        var records = cache.get(List.of(Path.of("a.data")), String.class, List.of(new RecordCache.FileVersion(2L, 50L)));
+
+        // then
+        Assertions.assertNull(records);
+        Assertions.assertNull(cache.get(List.of(Path.of("a.data")), Object.class, List.of(new RecordCache.FileVersion(1L, 40L))));
+        Assertions.assertEquals(0L, cache.getSize());
+    }
+}
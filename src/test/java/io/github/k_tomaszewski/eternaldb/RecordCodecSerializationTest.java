@@ -0,0 +1,89 @@
+package io.github.k_tomaszewski.eternaldb;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+public class RecordCodecSerializationTest {
+
+    private final JacksonSerialization jackson = new JacksonSerialization();
+    private final RecordCodecSerialization codecs = new RecordCodecSerialization();
+
+    @Test
+    void shouldWriteSameJsonAsJacksonAndReadIt() {
+        // given
+        final StringBuilder allChars = new StringBuilder();
+        for (char c = 0; c < 0x80; ++c) {
+            allChars.append(c);
+        }
+        allChars.append("zażółć   😀");
+        final List<Sample> samples = List.of(
+                new Sample(true, (byte) -7, (short) 300, Integer.MIN_VALUE, Long.MAX_VALUE, 1.1f, 0.1 + 0.2, 'x', allChars.toString(),
+                        42, null, 'q'),
+                new Sample(false, Byte.MAX_VALUE, Short.MIN_VALUE, 0, Long.MIN_VALUE, Float.NaN, Double.NEGATIVE_INFINITY, '"', "",
+                        null, Double.POSITIVE_INFINITY, null),
+                new Sample(false, (byte) 0, (short) 0, 1, 1L, 1e-10f, 1e300, '\n', null, -1, -0.0, '\\'));
+        Assertions.assertNotNull(RecordCodec.create(Sample.class));
+        Assertions.assertNull(RecordCodec.create(WithList.class));
+
+        for (Sample sample : samples) {
+            // when
+            String json = serialize(codecs, sample);
+
+            // then
+            Assertions.assertEquals(serialize(jackson, sample), json);
+            Assertions.assertEquals(sample, codecs.deserialize(json, Sample.class));
+            Assertions.assertEquals(sample, jackson.deserialize(json, Sample.class));
+        }
+    }
+
+    @Test
+    void shouldReadJsonWithOtherFormattingLikeJackson() {
+        // given
+        final String json = """
+                { "text" : "a\\/b\\u0041" , "id":5, "value" :2.5e1 }""";
+
+        // when
+        Simple record = codecs.deserialize(json, Simple.class);
+
+        // then
+        Assertions.assertEquals(jackson.deserialize(json, Simple.class), record);
+        Assertions.assertEquals(new Simple(5, "a/bA", 25.0), record);
+    }
+
+    @Test
+    void shouldFallBackToJacksonForInputAndTypesWithoutCodec() {
+        // given
+        final String coercedJson = "{\"id\":\"7\",\"text\":12,\"value\":\"3\"}";
+        final WithList withList = new WithList(List.of("a", "b"));
+
+        // when
+        Simple coerced = codecs.deserialize(coercedJson, Simple.class);
+        String withListJson = serialize(codecs, withList);
+
+        // then
+        Assertions.assertEquals(new Simple(7, "12", 3.0), coerced);
+        Assertions.assertEquals(serialize(jackson, withList), withListJson);
+        Assertions.assertEquals(withList, codecs.deserialize(withListJson, WithList.class));
+        Assertions.assertThrows(UncheckedIOException.class, () -> codecs.deserialize("{\"id\":1,\"unknown\":2}", Simple.class));
+    }
+
+    private static String serialize(SerializationStrategy serialization, Object obj) {
+        StringWriter writer = new StringWriter();
+        serialization.serialize(obj, writer);
+        return writer.toString();
+    }
+
+    private record Sample(boolean flag, byte b, short s, int i, long l, float f, double d, char c, String text, Integer boxedInt,
+                          Double boxedDouble, Character boxedChar) {
+    }
+
+    private record Simple(int id, String text, double value) {
+    }
+
+    private record WithList(List<String> items) {
+    }
+}
@@ -0,0 +1,115 @@
+package io.github.k_tomaszewski.eternaldb;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+public class RecordPublisherTest {
+
+    private static final long DAY_MILLIS = 1_672_531_200_000L;        // 2023-01-01 00:00 UTC
+
+    @Test
+    void shouldPublishRecordsOnDemand() throws Exception {
+        // given
+        final Path dataDir = Path.of("target/test_db_" + UUID.randomUUID());
+        final var config = new DatabaseProperties<String>(dataDir, 100).setJmxEnabled(false);
+        final List<String> records = new CopyOnWriteArrayList<>();
+        final CompletableFuture<Void> completion = new CompletableFuture<>();
+        try (var db = new Database<>(config)) {
+            for (int i = 0; i < 1000; ++i) {
+                db.write("r" + i, DAY_MILLIS + i * 60_000L);
+            }
+        }
+
+        // when
+        try (var db = new ReadOnlyDatabase(config)) {
+            db.publish(String.class, DAY_MILLIS + 100 * 60_000L, null, 16).subscribe(new Flow.Subscriber<>() {
+                private Flow.Subscription subscription;
+                private int received;
+
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    this.subscription = subscription;
+                    subscription.request(10);
+                }
+
+                @Override
+                public void onNext(Timestamped<String> item) {
+                    records.add(item.record());
+                    if (++received % 10 == 0) {
+                        subscription.request(10);
+                    }
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    completion.completeExceptionally(throwable);
+                }
+
+                @Override
+                public void onComplete() {
+                    completion.complete(null);
+                }
+            });
+            completion.get(10, TimeUnit.SECONDS);
+        }
+
+        // then
+        Assertions.assertEquals(900, records.size());
+        Assertions.assertEquals("r100", records.getFirst());
+        Assertions.assertEquals("r999", records.getLast());
+    }
+
+    @Test
+    void shouldCloseQueryWhenSubscriptionCancelled() throws Exception {
+        // given
+        final CountDownLatch queryClosed = new CountDownLatch(1);
+        final AtomicInteger readCount = new AtomicInteger();
+        final AtomicInteger receivedCount = new AtomicInteger();
+        final var publisher = new RecordPublisher<Integer>(() -> Stream.iterate(0, n -> n + 1)
+                .peek(n -> readCount.incrementAndGet())
+                .map(n -> new Timestamped<>(n, n))
+                .onClose(queryClosed::countDown), 8);
+
+        // when
+        publisher.subscribe(new Flow.Subscriber<>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(5);
+            }
+
+            @Override
+            public void onNext(Timestamped<Integer> item) {
+                if (receivedCount.incrementAndGet() == 5) {
+                    subscription.cancel();
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+
+        // then
+        Assertions.assertTrue(queryClosed.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(5, receivedCount.get());
+        Assertions.assertTrue(readCount.get() <= 5 + 8 + 1, "read: " + readCount.get());
+    }
+}
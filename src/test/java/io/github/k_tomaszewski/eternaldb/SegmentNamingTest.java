@@ -0,0 +1,47 @@
+package io.github.k_tomaszewski.eternaldb;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+public class SegmentNamingTest {
+
+    @Test
+    void shouldInsertSegmentNumberBeforeFileExtension() {
+        Assertions.assertEquals("2024/05/2024-05-01_1300.data", SegmentNaming.toSegmentPathStr("2024/05/2024-05-01_1300.data", 0));
+        Assertions.assertEquals("2024/05/2024-05-01_1300.s3.data", SegmentNaming.toSegmentPathStr("2024/05/2024-05-01_1300.data", 3));
+        Assertions.assertEquals("2024/05/2024-05-01.s12", SegmentNaming.toSegmentPathStr("2024/05/2024-05-01", 12));
+    }
+
+    @Test
+    void shouldConvertSegmentPathToBucketPath() {
+        Assertions.assertEquals("2024/05/2024-05-01_1300.data", SegmentNaming.toBucketPathStr("2024/05/2024-05-01_1300.s3.data"));
+        Assertions.assertEquals("2024/05/2024-05-01_1300.data", SegmentNaming.toBucketPathStr("2024/05/2024-05-01_1300.data"));
+        Assertions.assertEquals("2024/05/2024-05-01", SegmentNaming.toBucketPathStr("2024/05/2024-05-01.s12"));
+    }
+
+    @Test
+    void shouldReadSegmentNumber() {
+        Assertions.assertEquals(0, SegmentNaming.toSegment("2024/05/2024-05-01_1300.data"));
+        Assertions.assertEquals(3, SegmentNaming.toSegment("2024/05/2024-05-01_1300.s3.data"));
+        Assertions.assertEquals(12, SegmentNaming.toSegment("2024/05/2024-05-01.s12"));
+    }
+
+    @Test
+    void shouldKeepSegmentsBetweenTheirBucketAndTheNextBucket() {
+        // given
+        var naming = new BasicFileNaming();
+        String bucket = naming.formatRelativePathStr(0L);
+        String nextBucket = naming.formatRelativePathStr(3_600_000L);
+
+        // when
+        List<String> sorted = Stream.of(nextBucket, SegmentNaming.toSegmentPathStr(bucket, 2), bucket,
+                SegmentNaming.toSegmentPathStr(nextBucket, 1), SegmentNaming.toSegmentPathStr(bucket, 1)).sorted().toList();
+
+        // then
+        Assertions.assertEquals(List.of(bucket, SegmentNaming.toSegmentPathStr(bucket, 1), SegmentNaming.toSegmentPathStr(bucket, 2),
+                nextBucket, SegmentNaming.toSegmentPathStr(nextBucket, 1)), sorted);
+    }
+}